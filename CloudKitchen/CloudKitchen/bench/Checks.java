@@ -0,0 +1,34 @@
+import java.util.Map;
+
+// What the bench checks share: one "ok"/"FAIL" line per check, a summary and
+// exit status at the end, and re-running a check in a child JVM with database
+// settings in its environment (DBUtil reads them once, when it loads).
+final class Checks {
+    private static int failures = 0;
+
+    private Checks() {}
+
+    static void check(String what, boolean ok) {
+        System.out.println((ok ? "ok    " : "FAIL  ") + what);
+        if (!ok) failures++;
+    }
+
+    // Prints the summary and exits non-zero if any check failed.
+    static void finish() {
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Returns at once in the child, which already has env's CLOUDKITCHEN_DB_URL.
+    // Otherwise runs main again in a child JVM with env added (and the
+    // developer's replica and batching settings removed) and exits with its status.
+    static void relaunchWith(Class<?> main, Map<String, String> env) throws Exception {
+        if (env.get("CLOUDKITCHEN_DB_URL").equals(System.getenv("CLOUDKITCHEN_DB_URL"))) return;
+        ProcessBuilder pb = new ProcessBuilder(System.getProperty("java.home") + "/bin/java",
+                "-cp", System.getProperty("java.class.path"), main.getName()).inheritIO();
+        pb.environment().remove("CLOUDKITCHEN_DB_REPLICA_URLS");
+        pb.environment().remove("CLOUDKITCHEN_ORDER_BATCH");
+        pb.environment().putAll(env);
+        System.exit(pb.start().waitFor());
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Checks the broker link of OrderEventBus without a database: events published
+// while the broker is down go out on reconnect, listeners resync after a
+// reconnect, and a client that stops reading doesn't hold up the others.
+//
+//   java -cp out EventBrokerCheck
+//
+// Prints one line per check and exits non-zero if any fails.
+public class EventBrokerCheck {
+    public static void main(String[] args) throws Exception {
+        outboxAndResync();
+        slowClient();
+        Checks.finish();
+    }
+
+    // A stand-in broker the test controls, so the link can be cut on cue.
+    private static void outboxAndResync() throws Exception {
+        int port = freePort();
+        CountDownLatch resynced = new CountDownLatch(1);
+        OrderEventBus bus = new OrderEventBus(new OrderEventBus.SocketBackend("localhost", port));
+        bus.subscribeAll(new OrderEventBus.Listener() {
+            @Override public void onEvent(OrderEventBus.OrderEvent e) {}
+            @Override public void onResync() { resynced.countDown(); }
+        });
+        bus.publish(7, 3, "PREPARING"); // broker not up yet
+        try (ServerSocket server = new ServerSocket(port)) {
+            server.setSoTimeout(15_000);
+            try (Socket s = server.accept()) {
+                String line = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)).readLine();
+                Checks.check("event published while the broker was down is sent on connect", "7 3 PREPARING".equals(line));
+            }
+            // link dropped; the client reconnects and should tell its listeners to re-read
+            Socket again = server.accept();
+            Checks.check("listeners resync after a reconnect", resynced.await(5, TimeUnit.SECONDS));
+            again.close();
+        }
+    }
+
+    // A real broker with one terminal that never reads: the others still get everything promptly.
+    private static void slowClient() throws Exception {
+        int port = freePort();
+        Thread b = new Thread(() -> {
+            try {
+                new OrderEventBroker().serve(port);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }, "broker");
+        b.setDaemon(true);
+        b.start();
+        Thread.sleep(300);
+
+        Socket stalled = new Socket(); // connected, never reads
+        stalled.setReceiveBufferSize(4096);
+        stalled.connect(new java.net.InetSocketAddress("localhost", port));
+        OrderEventBus pub = new OrderEventBus(new OrderEventBus.SocketBackend("localhost", port));
+        OrderEventBus sub = new OrderEventBus(new OrderEventBus.SocketBackend("localhost", port));
+        int n = 300_000; // well past the kernel's socket buffers for the stalled client
+        AtomicInteger got = new AtomicInteger();
+        AtomicInteger resyncs = new AtomicInteger();
+        CountDownLatch last = new CountDownLatch(1);
+        sub.subscribeAll(new OrderEventBus.Listener() {
+            @Override public void onEvent(OrderEventBus.OrderEvent e) {
+                got.incrementAndGet();
+                if (e.orderId == n) last.countDown();
+            }
+            @Override public void onResync() { resyncs.incrementAndGet(); }
+        });
+        Thread.sleep(1_000); // both connected
+
+        long t0 = System.nanoTime();
+        for (int i = 1; i <= n; i++) {
+            pub.publish(i, 1, "PENDING");
+            if ((i & 127) == 0) Thread.sleep(1); // a busy site, not a flood
+        }
+        boolean arrived = last.await(30, TimeUnit.SECONDS);
+        System.out.printf("  %d events: received=%d resyncs=%d in %.0f ms%n", n, got.get(), resyncs.get(),
+                (System.nanoTime() - t0) / 1e6);
+        Checks.check("a stalled client doesn't block delivery to the others", arrived);
+        Checks.check("every event reached the client that keeps up", got.get() == n && resyncs.get() == 0);
+
+        // the stalled terminal's backlog was bounded: it sees a RESYNC once it reads again
+        BufferedReader in = new BufferedReader(new InputStreamReader(stalled.getInputStream(), StandardCharsets.UTF_8));
+        boolean sawResync = false;
+        stalled.setSoTimeout(5_000);
+        try {
+            for (int i = 0; i < n && !sawResync; i++) {
+                String line = in.readLine();
+                if (line == null) break;
+                sawResync = line.equals(OrderEventBus.SocketBackend.RESYNC);
+            }
+        } catch (java.net.SocketTimeoutException done) {
+            // read everything that was queued
+        }
+        Checks.check("the stalled client's backlog was dropped and replaced by RESYNC", sawResync);
+        stalled.close();
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Micro-benchmarks for the menu and order hot paths. Prints one line per
+// benchmark/parameter so two runs can be diffed between releases.
+//
+// Build and run from CloudKitchen/CloudKitchen:
+//   javac -d out src/*.java bench/*.java
+//   java -cp out KitchenBench [--out report.txt] [--db --user <id>]
+//
+// In-process benchmarks (always run):
+//   catalog.build     building a MenuCatalog snapshot from 10..10k rows
+//   options.parse     splitting the old comma-separated options string, for comparison
+//   options.check     validating and pricing a selection against interned MenuOptions
+//   catalog.lookup    option lookup through the catalog, what the editor does now
+//   cart.validate     KitchenService.validateCart for 1..100 lines
+//   menu.json         serialising the catalog for GET /menu
+//   menu.search       MenuSearchIndex prefix / typo / tag queries over 10k dishes
+// Database benchmarks (--db, against CLOUDKITCHEN_DB_URL; writes real orders for --user):
+//   db.loadMenu, db.placeOrder (1/10/100 lines), db.orderStatus
+public class KitchenBench {
+    private static final long WARMUP_MS = 1_000;
+    private static final long MEASURE_MS = 3_000;
+
+    private static volatile Object sink; // defeats dead-code elimination
+
+    interface Op {
+        Object run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        PrintStream out = System.out;
+        boolean db = false;
+        int userId = -1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--out": out = new PrintStream(new FileOutputStream(args[++i]), true, StandardCharsets.UTF_8.name()); break;
+                case "--db": db = true; break;
+                case "--user": userId = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        out.printf("%-18s %8s %14s %10s %10s %10s %10s%n", "benchmark", "param", "ops/s", "mean_us", "p50_us", "p99_us", "p999_us");
+
+        KitchenService service = new KitchenService();
+        for (int n : new int[]{10, 100, 1_000, 10_000}) {
+            List<MenuCatalog.Item> rows = syntheticMenu(n);
+            report(out, "catalog.build", n, measure(() -> MenuCatalog.install(rows)));
+        }
+
+        String raw = "Small, Medium , Large,Extra Large ,  Family";
+        report(out, "options.parse", 5, measure(() -> raw.trim().split("\\s*,\\s*")));
+        MenuOptions opts = MenuOptions.parse("Size: Small, Medium, Large +20, Family +60\n"
+                + "Extras [0-3]: Cheese +15, Bacon +25, Olives +10, Jalapenos +10");
+        int[] sel = {2, 4, 5};
+        report(out, "options.check", opts.choiceCount(), measure(() -> opts.check(sel) == null ? opts.priceDelta(sel) : -1));
+
+        MenuCatalog catalog = MenuCatalog.install(syntheticMenu(10_000));
+        Random rnd = new Random(42);
+        report(out, "catalog.lookup", 10_000, measure(() -> catalog.get(1 + rnd.nextInt(10_000)).options.defaultSelection()));
+
+        for (int lines : new int[]{1, 10, 100}) {
+            List<OrderDao.Line> cart = syntheticCart(lines, 10_000, new Random(lines));
+            report(out, "cart.validate", lines, measure(() -> service.validateCart(cart)));
+        }
+
+        for (int n : new int[]{100, 10_000}) {
+            MenuCatalog c = MenuCatalog.install(syntheticMenu(n));
+            report(out, "menu.json", n, measure(() -> KitchenHttpServer.menuToJson(c)));
+        }
+
+        MenuSearchIndex index = new MenuSearchIndex();
+        index.sync(MenuCatalog.install(syntheticMenu(10_000)));
+        String[] queries = {"dis", "dsh 42", "#large", "dish 9999"};
+        for (int q = 0; q < queries.length; q++) {
+            String query = queries[q];
+            report(out, "menu.search", q, measure(() -> index.search(query, 50)));
+        }
+
+        if (db) runDatabaseBenchmarks(out, service, userId);
+        if (out != System.out) out.close();
+    }
+
+    private static void runDatabaseBenchmarks(PrintStream out, KitchenService service, int userId) throws Exception {
+        if (userId <= 0) throw new IllegalArgumentException("--db needs --user <existing user id>");
+        MenuCatalog catalog = service.loadMenu();
+        report(out, "db.loadMenu", catalog.size(), measure(service::loadMenu));
+
+        List<MenuCatalog.Item> orderable = new ArrayList<>();
+        for (MenuCatalog.Item it : catalog.items()) if (it.available) orderable.add(it);
+        if (orderable.isEmpty()) throw new IllegalStateException("No available menu items to order");
+
+        int lastOrder = -1;
+        for (int lines : new int[]{1, 10, 100}) {
+            List<OrderDao.Line> cart = new ArrayList<>();
+            for (int i = 0; i < lines; i++) {
+                MenuCatalog.Item it = orderable.get(i % orderable.size());
+                cart.add(new OrderDao.Line(it.id, 1, it.options.defaultSelection()));
+            }
+            Result r = measure(() -> service.placeOrder(userId, cart));
+            report(out, "db.placeOrder", lines, r);
+            lastOrder = latestOrder(userId);
+        }
+        int orderId = lastOrder;
+        report(out, "db.orderStatus", 1, measure(() -> service.fetchOrderStatus(orderId)));
+    }
+
+    private static int latestOrder(int userId) throws SQLException {
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT MAX(id) FROM orders WHERE user_id=?")) {
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    static final class Result {
+        final long ops;
+        final long elapsedNanos;
+        final LatencyHistogram latency;
+
+        Result(long ops, long elapsedNanos, LatencyHistogram latency) {
+            this.ops = ops;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+    }
+
+    // Runs op for WARMUP_MS, then MEASURE_MS. Very fast ops are timed in batches
+    // so the clock read doesn't dominate; each op in a batch is recorded at the
+    // batch's average.
+    static Result measure(Op op) throws Exception {
+        int batch = calibrate(op);
+        long end = System.nanoTime() + WARMUP_MS * 1_000_000;
+        while (System.nanoTime() < end) runBatch(op, batch);
+
+        LatencyHistogram h = new LatencyHistogram();
+        long ops = 0;
+        long start = System.nanoTime();
+        end = start + MEASURE_MS * 1_000_000;
+        long now = start;
+        while (now < end) {
+            long t0 = System.nanoTime();
+            runBatch(op, batch);
+            now = System.nanoTime();
+            h.record((now - t0) / batch, batch);
+            ops += batch;
+        }
+        return new Result(ops, now - start, h);
+    }
+
+    private static int calibrate(Op op) throws Exception {
+        long t0 = System.nanoTime();
+        sink = op.run();
+        long one = System.nanoTime() - t0;
+        if (one > 50_000) return 1;
+        int batch = 1;
+        while (batch < 1 << 16) {
+            t0 = System.nanoTime();
+            runBatch(op, batch);
+            if (System.nanoTime() - t0 > 20_000) break;
+            batch <<= 1;
+        }
+        return batch;
+    }
+
+    private static void runBatch(Op op, int n) throws Exception {
+        Object last = null;
+        for (int i = 0; i < n; i++) last = op.run();
+        sink = last;
+    }
+
+    private static void report(PrintStream out, String name, int param, Result r) {
+        LatencyHistogram h = r.latency;
+        out.printf("%-18s %8d %14.1f %10.3f %10.3f %10.3f %10.3f%n", name, param,
+                r.ops * 1e9 / r.elapsedNanos, h.mean() / 1e3,
+                h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.percentile(99.9) / 1e3);
+    }
+
+    static List<MenuCatalog.Item> syntheticMenu(int n) {
+        Random rnd = new Random(n);
+        List<MenuCatalog.Item> items = new ArrayList<>(n);
+        String[][] optionSets = {
+                {}, {"Regular", "Large"}, {"Mild", "Medium", "Hot"}, {"Small", "Medium", "Large", "Family"}
+        };
+        for (int i = 1; i <= n; i++) {
+            items.add(new MenuCatalog.Item(i, "Dish " + i, 50 + rnd.nextInt(500), rnd.nextInt(20) != 0,
+                    optionSets[rnd.nextInt(optionSets.length)].clone()));
+        }
+        return items;
+    }
+
+    static List<OrderDao.Line> syntheticCart(int lines, int menuSize, Random rnd) {
+        MenuCatalog catalog = MenuCatalog.current();
+        List<OrderDao.Line> cart = new ArrayList<>(lines);
+        while (cart.size() < lines) {
+            MenuCatalog.Item it = catalog.get(1 + rnd.nextInt(menuSize));
+            if (it == null || !it.available) continue;
+            cart.add(new OrderDao.Line(it.id, 1 + rnd.nextInt(3), it.options.defaultSelection()));
+        }
+        return cart;
+    }
+}
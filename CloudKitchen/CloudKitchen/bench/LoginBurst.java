@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sign-in burst: N clients log in at the same instant, as happens when a shift
+// starts or every terminal reconnects after a deploy. Reports logins/s and the
+// latency the last client in the burst sees, per PBKDF2 cost, so
+// CLOUDKITCHEN_PBKDF2_ITERATIONS can be sized against the expected peak.
+//
+//   java -cp out LoginBurst [--burst 200] [--threads 64] [--iterations 50000,100000,210000,600000]
+//   java -cp out LoginBurst --db --email a@b.c --password secret [--burst 200] [--threads 64]
+//
+// Without --db only the hash verify is measured (what login costs on top of its
+// one query). With --db each client runs KitchenService.login end to end, and
+// opens a real session; the account's hash is upgraded to the configured cost
+// on the first login.
+public class LoginBurst {
+    public static void main(String[] args) throws Exception {
+        int burst = 200;
+        int threads = 64;
+        boolean db = false;
+        String email = null, password = null;
+        List<Integer> costs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--burst": burst = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--db": db = true; break;
+                case "--email": email = args[++i]; break;
+                case "--password": password = args[++i]; break;
+                case "--iterations":
+                    for (String c : args[++i].split(",")) costs.add(Integer.parseInt(c.trim()));
+                    break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        System.out.printf("cores=%d burst=%d threads=%d%n", Runtime.getRuntime().availableProcessors(), burst, threads);
+        System.out.printf("%-12s %10s %12s %10s %10s %10s %8s%n",
+                "case", "cost", "logins/s", "p50_ms", "p99_ms", "max_ms", "failed");
+
+        if (db) {
+            if (email == null || password == null) throw new IllegalArgumentException("--db needs --email and --password");
+            KitchenService service = new KitchenService();
+            String e = email, p = password;
+            if (service.login(e, p) == null) throw new IllegalStateException("Login failed for " + e);
+            int cost = PasswordHasher.fromEnv().iterations();
+            run("db.login", cost, burst, threads, () -> service.login(e, p) != null);
+            run("db.login.bad", cost, burst, threads, () -> service.login(e, p + "x") == null);
+            return;
+        }
+
+        if (costs.isEmpty()) costs.addAll(List.of(50_000, 100_000, 210_000, 600_000));
+        for (int cost : costs) {
+            PasswordHasher hasher = new PasswordHasher(cost);
+            String stored = hasher.hash("correct horse".toCharArray());
+            run("verify", cost, burst, threads, () -> hasher.verify("correct horse".toCharArray(), stored));
+        }
+    }
+
+    interface Attempt {
+        boolean run() throws Exception;
+    }
+
+    // One warm-up burst, then the measured one; every client is released at once.
+    private static void run(String name, int cost, int burst, int threads, Attempt attempt) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            fire(pool, Math.min(burst, threads), attempt, new LatencyHistogram(), new AtomicLong());
+            LatencyHistogram h = new LatencyHistogram();
+            AtomicLong failed = new AtomicLong();
+            long elapsed = fire(pool, burst, attempt, h, failed);
+            System.out.printf("%-12s %10d %12.1f %10.2f %10.2f %10.2f %8d%n", name, cost,
+                    burst * 1e9 / elapsed, h.percentile(50) / 1e6, h.percentile(99) / 1e6,
+                    h.max() / 1e6, failed.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Latency counts from the release, so time spent queued behind the burst is included.
+    private static long fire(ExecutorService pool, int burst, Attempt attempt, LatencyHistogram h, AtomicLong failed)
+            throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        long[] released = new long[1];
+        List<Future<?>> done = new ArrayList<>(burst);
+        for (int i = 0; i < burst; i++) {
+            done.add(pool.submit(() -> {
+                go.await();
+                boolean ok;
+                try { ok = attempt.run(); }
+                catch (Exception ex) { ok = false; }
+                h.record(System.nanoTime() - released[0]);
+                if (!ok) failed.incrementAndGet();
+                return null;
+            }));
+        }
+        released[0] = System.nanoTime();
+        go.countDown();
+        for (Future<?> f : done) f.get();
+        return System.nanoTime() - released[0];
+    }
+}
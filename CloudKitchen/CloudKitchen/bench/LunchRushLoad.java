@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Open-model load generator for the ordering path. Customers arrive as a
+// Poisson process at --rate per second, each on its own (virtual) thread, and
+// go through the same KitchenService calls the Swing client uses: place an
+// order, then track it. Latency is measured from each customer's scheduled
+// arrival, so a saturated database shows up as queueing delay instead of
+// being hidden (no coordinated omission).
+//
+//   java -cp out LunchRushLoad --users 1,2,3 [--rate 50] [--duration 60]
+//        [--lines 3] [--mix zipf|uniform] [--track-reads 1] [--track-interval-ms 2000]
+//
+// --track-reads N > 1 replays the old 2 s status polling to compare against
+// the push-based tracking (1 read per order).
+public class LunchRushLoad {
+    public static void main(String[] args) throws Exception {
+        double rate = 50;
+        int durationSec = 60;
+        int maxLines = 3;
+        String mix = "zipf";
+        int trackReads = 1;
+        long trackIntervalMs = 2000;
+        List<Integer> users = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--duration": durationSec = Integer.parseInt(args[++i]); break;
+                case "--lines": maxLines = Integer.parseInt(args[++i]); break;
+                case "--mix": mix = args[++i]; break;
+                case "--track-reads": trackReads = Integer.parseInt(args[++i]); break;
+                case "--track-interval-ms": trackIntervalMs = Long.parseLong(args[++i]); break;
+                case "--users":
+                    for (String u : args[++i].split(",")) users.add(Integer.parseInt(u.trim()));
+                    break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (users.isEmpty()) throw new IllegalArgumentException("--users <id,id,...> of existing customers is required");
+
+        KitchenService service = new KitchenService();
+        MenuCatalog catalog = service.loadMenu();
+        List<MenuCatalog.Item> orderable = new ArrayList<>();
+        for (MenuCatalog.Item it : catalog.items()) if (it.available) orderable.add(it);
+        if (orderable.isEmpty()) throw new IllegalStateException("No available menu items to order");
+        MenuMix menuMix = "uniform".equals(mix) ? MenuMix.uniform(orderable.size()) : MenuMix.zipf(orderable.size(), 1.1);
+
+        LatencyHistogram placeLatency = new LatencyHistogram();
+        LatencyHistogram statusLatency = new LatencyHistogram();
+        AtomicLong placed = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong statusReads = new AtomicLong();
+        AtomicInteger inFlight = new AtomicInteger();
+        int lines = maxLines;
+        int reads = Math.max(1, trackReads);
+        long interval = trackIntervalMs;
+
+        ExecutorService customers = DataAccess.executor();
+        Random arrivals = new Random(7);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSec);
+        long next = start;
+        long arrived = 0;
+        while (next < end) {
+            long scheduled = next;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            int userId = users.get((int) (arrived++ % users.size()));
+            inFlight.incrementAndGet();
+            customers.execute(() -> {
+                try {
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    List<OrderDao.Line> cart = new ArrayList<>();
+                    int n = 1 + r.nextInt(lines);
+                    for (int i = 0; i < n; i++) {
+                        MenuCatalog.Item it = orderable.get(menuMix.next(r));
+                        cart.add(new OrderDao.Line(it.id, 1 + r.nextInt(2), it.options.defaultSelection()));
+                    }
+                    OrderDao.Placed p = service.placeOrder(userId, cart);
+                    placeLatency.record(System.nanoTime() - scheduled);
+                    placed.incrementAndGet();
+                    for (int i = 0; i < reads; i++) {
+                        if (i > 0) Thread.sleep(interval);
+                        long t0 = System.nanoTime();
+                        service.fetchOrderStatus(p.orderId);
+                        statusLatency.record(System.nanoTime() - t0);
+                        statusReads.incrementAndGet();
+                    }
+                } catch (OrderRejectedException ex) {
+                    rejected.incrementAndGet();
+                } catch (Exception ex) {
+                    errors.incrementAndGet();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+            // exponential inter-arrival gap for a Poisson process
+            next += (long) (-Math.log(1 - arrivals.nextDouble()) / rate * 1e9);
+        }
+        long arrivalsDone = System.nanoTime();
+        while (inFlight.get() > 0) Thread.sleep(50);
+        double elapsed = (arrivalsDone - start) / 1e9;
+
+        System.out.printf("arrivals=%d offered=%.1f/s duration=%.1fs mix=%s lines<=%d track-reads=%d%n",
+                arrived, rate, elapsed, mix, lines, reads);
+        System.out.printf("placed=%d (%.1f/s) rejected=%d errors=%d (%.2f%%)%n",
+                placed.get(), placed.get() / elapsed, rejected.get(), errors.get(),
+                arrived == 0 ? 0 : 100.0 * errors.get() / arrived);
+        print("placeOrder", placeLatency);
+        print("orderStatus", statusLatency);
+        System.out.printf("status reads=%d (%.1f/s)%n", statusReads.get(), statusReads.get() / elapsed);
+        System.out.println("pool: " + DBUtil.poolStats());
+        for (DBUtil.ReplicaStats r : DBUtil.replicaStats()) System.out.println("replica: " + r);
+        System.exit(0);
+    }
+
+    private static void print(String name, LatencyHistogram h) {
+        System.out.printf("%-12s n=%d mean=%.2fms p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n", name, h.count(),
+                h.mean() / 1e6, h.percentile(50) / 1e6, h.percentile(99) / 1e6, h.percentile(99.9) / 1e6, h.max() / 1e6);
+    }
+
+    // Picks menu positions: uniform, or Zipf-skewed so a few dishes take most orders.
+    static final class MenuMix {
+        private final double[] cumulative;
+
+        private MenuMix(double[] weights) {
+            cumulative = new double[weights.length];
+            double sum = 0;
+            for (int i = 0; i < weights.length; i++) cumulative[i] = (sum += weights[i]);
+            for (int i = 0; i < cumulative.length; i++) cumulative[i] /= sum;
+        }
+
+        static MenuMix uniform(int n) {
+            double[] w = new double[n];
+            Arrays.fill(w, 1);
+            return new MenuMix(w);
+        }
+
+        static MenuMix zipf(int n, double s) {
+            double[] w = new double[n];
+            for (int i = 0; i < n; i++) w[i] = 1 / Math.pow(i + 1, s);
+            return new MenuMix(w);
+        }
+
+        int next(Random r) {
+            int i = Arrays.binarySearch(cumulative, r.nextDouble());
+            return Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+        }
+    }
+}
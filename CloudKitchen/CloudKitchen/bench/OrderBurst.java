@@ -0,0 +1,113 @@
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Order burst: N customers submit at the same instant, as in a headless
+// deployment with many terminals at lunch. Compares the per-order path (one
+// transaction and commit per order) with OrderWriter's group commit at a few
+// batch sizes, against the real database. Writes real orders for --user.
+//
+//   java -cp out OrderBurst --user <id> [--burst 500] [--rounds 5] [--lines 3]
+//        [--batch 16,64,256] [--linger-ms 2]
+//
+// Uncounted dishes (NULL stock) are used so every order succeeds. Latency
+// counts from the release of the burst, so queueing behind it is included.
+public class OrderBurst {
+    interface Placer {
+        OrderDao.Placed place(int userId, List<OrderDao.Line> cart) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int userId = -1, burst = 500, rounds = 5, maxLines = 3;
+        long lingerMs = 2;
+        List<Integer> batches = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--user": userId = Integer.parseInt(args[++i]); break;
+                case "--burst": burst = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--lines": maxLines = Integer.parseInt(args[++i]); break;
+                case "--linger-ms": lingerMs = Long.parseLong(args[++i]); break;
+                case "--batch":
+                    for (String b : args[++i].split(",")) batches.add(Integer.parseInt(b.trim()));
+                    break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (userId < 0) throw new IllegalArgumentException("--user <id> of an existing customer is required");
+        if (batches.isEmpty()) batches.addAll(List.of(16, 64, 256));
+
+        KitchenService service = new KitchenService();
+        List<MenuCatalog.Item> dishes = new ArrayList<>();
+        for (MenuCatalog.Item it : service.loadMenu().items()) if (it.available && !it.tracksStock()) dishes.add(it);
+        if (dishes.isEmpty()) throw new IllegalStateException("Needs at least one available dish without a stock count");
+        List<List<OrderDao.Line>> carts = new ArrayList<>();
+        for (int i = 0; i < burst; i++) {
+            List<OrderDao.Line> cart = new ArrayList<>();
+            for (int j = 0; j <= i % maxLines; j++) {
+                MenuCatalog.Item it = dishes.get((i + j) % dishes.size());
+                cart.add(new OrderDao.Line(it.id, 1, it.options.defaultSelection()));
+            }
+            carts.add(service.validateCart(cart));
+        }
+
+        System.out.printf("burst=%d rounds=%d lines<=%d pool=%s%n", burst, rounds, maxLines, DBUtil.poolStats());
+        System.out.printf("%-14s %8s %12s %10s %10s %10s %8s%n", "case", "batch", "orders/s", "p50_ms", "p99_ms", "max_ms", "failed");
+        run("per-order", 1, userId, carts, rounds, (u, cart) -> {
+            try (Connection conn = DBUtil.getConnection()) {
+                return OrderDao.insertOrder(conn, u, cart);
+            }
+        });
+        for (int b : batches) {
+            OrderWriter writer = new OrderWriter(b, lingerMs);
+            run("group-commit", b, userId, carts, rounds, (u, cart) -> writer.place(u, cart, null));
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, int batch, int userId, List<List<OrderDao.Line>> carts, int rounds, Placer placer)
+            throws Exception {
+        // one thread per customer, so the whole burst is in flight at once on any JVM
+        ExecutorService pool = Executors.newFixedThreadPool(carts.size());
+        LatencyHistogram h = new LatencyHistogram();
+        AtomicLong failed = new AtomicLong();
+        long elapsed = 0;
+        try {
+            fire(pool, userId, carts.subList(0, Math.min(carts.size(), 50)), placer, new LatencyHistogram(), new AtomicLong()); // warm-up
+            for (int r = 0; r < rounds; r++) elapsed += fire(pool, userId, carts, placer, h, failed);
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("%-14s %8d %12.1f %10.2f %10.2f %10.2f %8d%n", name, batch,
+                (double) carts.size() * rounds * 1e9 / elapsed, h.percentile(50) / 1e6, h.percentile(99) / 1e6,
+                h.max() / 1e6, failed.get());
+    }
+
+    private static long fire(ExecutorService pool, int userId, List<List<OrderDao.Line>> carts, Placer placer,
+                             LatencyHistogram h, AtomicLong failed) throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        long[] released = new long[1];
+        List<Future<?>> done = new ArrayList<>(carts.size());
+        for (List<OrderDao.Line> cart : carts) {
+            done.add(pool.submit(() -> {
+                go.await();
+                try {
+                    placer.place(userId, cart);
+                } catch (Exception ex) {
+                    failed.incrementAndGet();
+                }
+                h.record(System.nanoTime() - released[0]);
+                return null;
+            }));
+        }
+        released[0] = System.nanoTime();
+        go.countDown();
+        for (Future<?> f : done) f.get();
+        return System.nanoTime() - released[0];
+    }
+}
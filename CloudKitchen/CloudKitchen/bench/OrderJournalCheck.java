@@ -0,0 +1,104 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Checks how OrderJournal drains into the database, on StubOrderTables:
+// which errors are retried, an outage keeps orders queued without spending
+// their attempts, a refused order is recorded and doesn't hold up its batch,
+// and an order that keeps failing is given up on after its attempts.
+//
+//   java -cp out OrderJournalCheck
+//
+// Starts a second JVM pointed at StubDriver. Prints one line per check and
+// exits non-zero if any fails.
+public class OrderJournalCheck {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final StubOrderTables DB = new StubOrderTables();
+
+    public static void main(String[] args) throws Exception {
+        Checks.relaunchWith(OrderJournalCheck.class, Map.of("CLOUDKITCHEN_DB_URL", "jdbc:stub:orders"));
+        StubDriver.install(DB);
+        retryable();
+        Path dir = Files.createTempDirectory("order-journal-check");
+        OrderJournal journal = new OrderJournal(dir, 1 << 20, MAX_ATTEMPTS);
+        outage(journal);
+        refused(journal);
+        givenUp(journal);
+        Checks.finish();
+    }
+
+    private static void retryable() {
+        Checks.check("a dropped link is retried", OrderJournal.retryable(new SQLException("Communications link failure", "08S01")));
+        Checks.check("a pool timeout is retried", OrderJournal.retryable(new SQLTransientConnectionException("Timed out", "08001")));
+        Checks.check("a lost deadlock or lock wait is retried", OrderJournal.retryable(new SQLException("Deadlock", "40001", 1213))
+                && OrderJournal.retryable(new SQLException("Lock wait timeout", "HY000", 1205)));
+        Checks.check("a read-only server during failover is retried", OrderJournal.retryable(new SQLException("read-only", "HY000", 1290)));
+        Checks.check("a duplicate key or bad data is not", !OrderJournal.retryable(new SQLException("Duplicate", "23000", 1062))
+                && !OrderJournal.retryable(new SQLException("Data too long", "22001", 1406)));
+    }
+
+    private static void outage(OrderJournal journal) throws Exception {
+        DB.down = true;
+        List<OrderJournal.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 3; i++) entries.add(journal.append(100 + i, cart(1)));
+        Thread.sleep(1_500);
+        boolean waiting = true;
+        for (OrderJournal.Entry e : entries) waiting &= !e.result.isDone() && e.attempts == 0 && journal.waiting(e.reference()) == e;
+        Checks.check("during an outage orders stay queued without spending attempts", waiting);
+
+        DB.down = false;
+        Set<Integer> ids = new HashSet<>();
+        boolean stored = true;
+        for (OrderJournal.Entry e : entries) {
+            OrderDao.Placed p = e.result.get(15, TimeUnit.SECONDS);
+            ids.add(p.orderId);
+            stored &= DB.order(p.orderId) != null && journal.waiting(e.reference()) == null;
+        }
+        Checks.check("once the database is back they are all stored", stored && ids.size() == entries.size());
+    }
+
+    // Dish 9 isn't on the menu, so its order is refused; the others share its batch.
+    private static void refused(OrderJournal journal) throws Exception {
+        OrderJournal.Entry before = journal.append(200, cart(1));
+        OrderJournal.Entry bad = journal.append(201, cart(9));
+        OrderJournal.Entry after = journal.append(202, cart(2));
+        Throwable cause = failure(bad);
+        Checks.check("an order the database refuses fails with that reason", cause instanceof OrderDao.Unavailable);
+        Checks.check("and is recorded under its reference", DB.rejection(bad.reference()) != null);
+        Checks.check("the rest of its batch is stored", before.result.get(5, TimeUnit.SECONDS).orderId > 0
+                && after.result.get(5, TimeUnit.SECONDS).orderId > 0);
+    }
+
+    // User 300's order loses a deadlock every time; user 301's only while it shares the batch.
+    private static void givenUp(OrderJournal journal) throws Exception {
+        DB.deadlock(300);
+        OrderJournal.Entry stuck = journal.append(300, cart(1));
+        OrderJournal.Entry other = journal.append(301, cart(1));
+        Throwable cause = failure(stuck);
+        Checks.check("an order that keeps failing is given up on after its attempts", stuck.attempts == MAX_ATTEMPTS
+                && cause != null && String.valueOf(cause.getMessage()).startsWith("Gave up after " + MAX_ATTEMPTS));
+        Checks.check("and is recorded as refused", DB.rejection(stuck.reference()) != null);
+        Checks.check("the order that shared its batch is stored on its retry", other.result.get(5, TimeUnit.SECONDS).orderId > 0);
+    }
+
+    private static Throwable failure(OrderJournal.Entry e) throws Exception {
+        try {
+            e.result.get(15, TimeUnit.SECONDS);
+            return null;
+        } catch (ExecutionException ex) {
+            return ex.getCause();
+        }
+    }
+
+    private static List<OrderDao.Line> cart(int menuId) {
+        return List.of(new OrderDao.Line(menuId, 1, (String) null));
+    }
+}
@@ -0,0 +1,121 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Checks OrderWriter's group commit against StubOrderTables, an in-memory
+// stand-in for the order tables behind StubDriver: a burst becomes a few
+// commits with every caller getting its own order, a sold-out dish fails only
+// its own order, a dropped link fails the whole batch, and a resubmitted
+// idempotency key returns the stored order.
+//
+//   java -cp out OrderWriterCheck
+//
+// DBUtil reads its URL from the environment once, so the check starts a
+// second JVM pointed at the stub. Prints one line per check and exits
+// non-zero if any fails.
+public class OrderWriterCheck {
+    private static final StubOrderTables DB = new StubOrderTables();
+
+    public static void main(String[] args) throws Exception {
+        Checks.relaunchWith(OrderWriterCheck.class, Map.of("CLOUDKITCHEN_DB_URL", "jdbc:stub:orders"));
+        StubDriver.install(DB);
+        burst();
+        soldOut();
+        linkDown();
+        resubmitted();
+        Checks.finish();
+    }
+
+    // 200 customers at once: a handful of commits, and each caller gets the row written for it.
+    private static void burst() throws Exception {
+        OrderWriter writer = new OrderWriter(64, 2);
+        int n = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<OrderDao.Placed>> placed = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int user = 1000 + i, qty = 1 + i % 3;
+            placed.add(pool.submit(() -> {
+                go.await();
+                return writer.place(user, List.of(new OrderDao.Line(1, qty, (String) null), new OrderDao.Line(2, 1, (String) null)), null);
+            }));
+        }
+        int commitsBefore = DB.commits();
+        go.countDown();
+        Set<Integer> ids = new HashSet<>();
+        boolean matches = true;
+        for (int i = 0; i < n; i++) {
+            OrderDao.Placed p = placed.get(i).get();
+            ids.add(p.orderId);
+            StubOrderTables.Order row = DB.order(p.orderId);
+            matches &= row != null && row.userId == 1000 + i && Math.abs(p.total - ((1 + i % 3) * 5.0 + 7.0)) < 1e-9
+                    && Math.abs(row.total - p.total) < 1e-9;
+        }
+        pool.shutdown();
+        int commits = DB.commits() - commitsBefore;
+        System.out.printf("  %d orders in %d commits%n", n, commits);
+        Checks.check("every caller got its own order id", ids.size() == n);
+        Checks.check("each id points at that caller's order and total", matches);
+        Checks.check("the burst went in as a few commits", commits <= n / 10);
+    }
+
+    // Five orders for the last two portions of dish 3, all in one batch.
+    private static void soldOut() throws Exception {
+        OrderWriter writer = new OrderWriter(64, 100);
+        DB.setStock(3, 2);
+        int stored = DB.orderCount();
+        List<CompletableFuture<OrderDao.Placed>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) results.add(writer.submit(2000 + i, List.of(new OrderDao.Line(3, 1, (String) null)), null));
+        int ok = 0, soldOut = 0;
+        for (CompletableFuture<OrderDao.Placed> f : results) {
+            try {
+                f.get();
+                ok++;
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof OrderDao.Unavailable) soldOut++;
+            }
+        }
+        Checks.check("a sold-out dish fails only the orders that didn't get one", ok == 2 && soldOut == 3);
+        Checks.check("stock and stored orders match what was sold", DB.stock(3) == 0 && DB.orderCount() == stored + 2);
+    }
+
+    private static void linkDown() throws Exception {
+        OrderWriter writer = new OrderWriter(64, 50);
+        int stored = DB.orderCount();
+        DB.down = true;
+        List<CompletableFuture<OrderDao.Placed>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) results.add(writer.submit(3000 + i, List.of(new OrderDao.Line(1, 1, (String) null)), null));
+        int linkErrors = 0;
+        for (CompletableFuture<OrderDao.Placed> f : results) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof SQLException && "08S01".equals(((SQLException) ex.getCause()).getSQLState())) linkErrors++;
+            }
+        }
+        DB.down = false;
+        Checks.check("a dropped link fails every order in the batch with that error", linkErrors == 3);
+        Checks.check("nothing was stored", DB.orderCount() == stored);
+    }
+
+    // The order journal resubmits with the same key after a lost acknowledgement.
+    private static void resubmitted() throws Exception {
+        OrderWriter writer = new OrderWriter(64, 50);
+        List<OrderDao.Line> cart = List.of(new OrderDao.Line(1, 2, (String) null));
+        OrderDao.Placed first = writer.place(4000, cart, "ref-1");
+        int stored = DB.orderCount();
+        CompletableFuture<OrderDao.Placed> again = writer.submit(4000, cart, "ref-1");
+        CompletableFuture<OrderDao.Placed> other = writer.submit(4001, cart, "ref-2");
+        Checks.check("a resubmitted key returns the stored order", again.get().orderId == first.orderId);
+        Checks.check("the rest of its batch is still written", other.get().orderId > 0 && DB.orderCount() == stored + 1);
+    }
+}
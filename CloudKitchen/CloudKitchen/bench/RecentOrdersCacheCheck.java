@@ -0,0 +1,108 @@
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Checks RecentOrdersCache without a database: write-through, status events,
+// events racing a load, TTL expiry, resync, and that W-TinyLFU admission keeps
+// regular customers cached through a flood of one-off ones.
+//
+//   java -cp out RecentOrdersCacheCheck
+//
+// Prints one line per check and exits non-zero if any fails.
+public class RecentOrdersCacheCheck {
+    public static void main(String[] args) throws Exception {
+        readAndWriteThrough();
+        events();
+        ttlAndResync();
+        admission();
+        Checks.finish();
+    }
+
+    private static void readAndWriteThrough() {
+        RecentOrdersCache c = new RecentOrdersCache(100, 60_000, 5_000);
+        Checks.check("first read is a miss", c.get(1, 3) == null);
+        c.fill(1, 3, orders(30, 20, 10));
+        List<KitchenService.OrderSummary> got = c.get(1, 3);
+        Checks.check("filled list is served", got != null && ids(got).equals(List.of(30, 20, 10)));
+        Checks.check("a deeper read than was loaded misses", c.get(1, 5) == null);
+
+        c.placed(1, order(40, "PENDING"));
+        Checks.check("placed order is written through, list kept at its depth", ids(c.get(1, 3)).equals(List.of(40, 30, 20)));
+
+        c.fill(2, 5, orders(7));
+        Checks.check("a short list is complete, so deeper reads hit", c.get(2, 20) != null);
+    }
+
+    private static void events() {
+        RecentOrdersCache c = new RecentOrdersCache(100, 60_000, 5_000);
+        c.fill(1, 3, orders(30, 20, 10));
+        c.onStatus(20, 1, "PREPARING");
+        Checks.check("status event updates the cached order", "PREPARING".equals(c.get(1, 3).get(1).status));
+
+        // an event that arrived while the list was being read from a lagging replica
+        c.onStatus(55, 2, "READY");
+        List<KitchenService.OrderSummary> read = c.fill(2, 3, List.of(order(55, "PENDING")));
+        Checks.check("status seen before the load is laid over it", "READY".equals(read.get(0).status)
+                && "READY".equals(c.get(2, 3).get(0).status));
+
+        // a new order placed on another node: the list no longer has the newest
+        c.onStatus(31, 1, "PENDING");
+        Checks.check("new order from elsewhere drops the list", c.get(1, 3) == null);
+        c.fill(1, 3, orders(30, 20, 10));
+        Checks.check("a load missing an order already heard of is not stored", c.get(1, 3) == null);
+        c.fill(1, 3, orders(31, 30, 20));
+        Checks.check("a load that has it is stored", c.get(1, 3) != null);
+    }
+
+    private static void ttlAndResync() throws InterruptedException {
+        RecentOrdersCache c = new RecentOrdersCache(100, 50, 5_000);
+        c.fill(1, 3, orders(3, 2, 1));
+        Checks.check("fresh list is served", c.get(1, 3) != null);
+        Thread.sleep(80);
+        Checks.check("expired list is re-read", c.get(1, 3) == null);
+
+        c.fill(1, 3, orders(3, 2, 1));
+        c.fill(2, 3, orders(6, 5, 4));
+        c.clear();
+        Checks.check("resync empties the cache", c.size() == 0 && c.get(1, 3) == null && c.get(2, 3) == null);
+    }
+
+    // 200 regulars refresh all lunch long; each of 100000 one-off customers looks once.
+    private static void admission() {
+        RecentOrdersCache c = new RecentOrdersCache(1_000, 3_600_000, 5_000);
+        Random rnd = new Random(42);
+        int oneOff = 1_000_000;
+        long regularReads = 0, regularHits = 0;
+        for (int i = 0; i < 200_000; i++) {
+            boolean regular = (i & 1) == 0;
+            int user = regular ? 1 + rnd.nextInt(200) : oneOff++;
+            boolean hit = c.get(user, 3) != null;
+            if (!hit) c.fill(user, 3, orders(user * 10 + 1));
+            if (regular && i >= 20_000) {
+                regularReads++;
+                if (hit) regularHits++;
+            }
+        }
+        double rate = (double) regularHits / regularReads;
+        System.out.printf("  regular hit rate %.1f%% with 100000 one-off customers%n", rate * 100);
+        Checks.check("regulars stay cached through a flood of one-off customers", rate > 0.95);
+        Checks.check("cache stays within its bound", c.size() <= 1_000);
+    }
+
+    private static List<KitchenService.OrderSummary> orders(int... ids) {
+        List<KitchenService.OrderSummary> out = new ArrayList<>();
+        for (int id : ids) out.add(order(id, "PENDING"));
+        return out;
+    }
+
+    private static KitchenService.OrderSummary order(int id, String status) {
+        return new KitchenService.OrderSummary(id, null, 10.0, status, new Timestamp(System.currentTimeMillis()));
+    }
+
+    private static List<Integer> ids(List<KitchenService.OrderSummary> orders) {
+        List<Integer> out = new ArrayList<>();
+        for (KitchenService.OrderSummary o : orders) out.add(o.id);
+        return out;
+    }
+}
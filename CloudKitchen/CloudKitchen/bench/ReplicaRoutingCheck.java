@@ -0,0 +1,144 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Checks DBUtil's replica routing against StubDriver, no database needed:
+// reads go to healthy replicas and spread across them, a key written recently
+// reads from the primary, a replica connection refuses writes, and a
+// lagging, stopped or unreachable replica is taken out of rotation.
+//
+//   java -cp out ReplicaRoutingCheck
+//
+// DBUtil reads its configuration from the environment once, so the check
+// starts a second JVM with stub URLs set. Prints one line per check and exits
+// non-zero if any fails.
+public class ReplicaRoutingCheck {
+    private static final long STICKY_MS = 500;
+
+    private static final long STOPPED = -1;
+    // server -> replication lag in seconds, or STOPPED
+    private static final Map<String, Long> LAG = new ConcurrentHashMap<>();
+    private static final Set<String> DOWN = ConcurrentHashMap.newKeySet();
+
+    public static void main(String[] args) throws Exception {
+        Checks.relaunchWith(ReplicaRoutingCheck.class, Map.of(
+                "CLOUDKITCHEN_DB_URL", "jdbc:stub:primary",
+                "CLOUDKITCHEN_DB_REPLICA_URLS", "jdbc:stub:r1,jdbc:stub:r2",
+                "CLOUDKITCHEN_DB_REPLICA_CHECK_MS", "50",
+                "CLOUDKITCHEN_DB_REPLICA_MAX_LAG_MS", "5000",
+                "CLOUDKITCHEN_DB_STICKY_MS", String.valueOf(STICKY_MS),
+                "CLOUDKITCHEN_DB_POOL_TIMEOUT_MS", "200"));
+        StubDriver.install(new Servers());
+        LAG.put("r1", 0L);
+        LAG.put("r2", 0L);
+        // the first probe also opens the connections, so give it longer
+        long until = System.currentTimeMillis() + 5_000;
+        while (!allHealthy() && System.currentTimeMillis() < until) Thread.sleep(20);
+
+        List<String> servers = reads(20, null);
+        Checks.check("reads go to the replicas", !servers.contains("primary"));
+        Checks.check("reads are spread over both replicas", servers.contains("r1") && servers.contains("r2"));
+
+        DBUtil.recordWrite(DBUtil.userKey(7));
+        Checks.check("a key written just now reads from the primary", reads(5, DBUtil.userKey(7)).equals(repeat("primary", 5)));
+        Checks.check("other keys still read from replicas", !reads(5, DBUtil.userKey(8)).contains("primary"));
+        Thread.sleep(STICKY_MS + 50);
+        Checks.check("after the stickiness window it reads from replicas again", !reads(5, DBUtil.userKey(7)).contains("primary"));
+
+        try (Connection a = DBUtil.getReadConnection(); Connection b = DBUtil.getReadConnection();
+             Connection c = DBUtil.getReadConnection()) {
+            // three borrowed over two replicas: one of them is busier
+            int onR1 = 0;
+            for (Connection held : List.of(a, b, c)) if (server(held).equals("r1")) onR1++;
+            String idler = onR1 >= 2 ? "r2" : "r1";
+            Checks.check("the least busy replica is picked", reads(5, null).equals(repeat(idler, 5)));
+        }
+
+        try (Connection c = DBUtil.getReadConnection(); PreparedStatement ps = c.prepareStatement("UPDATE orders SET status='DONE'")) {
+            ps.executeUpdate();
+            Checks.check("a write through a replica connection is refused", false);
+        } catch (SQLException refused) {
+            Checks.check("a write through a replica connection is refused", "25006".equals(refused.getSQLState()));
+        }
+
+        LAG.put("r1", 60L);
+        probed();
+        Checks.check("a replica lagging past the limit is skipped", reads(10, null).equals(repeat("r2", 10)));
+
+        LAG.put("r2", STOPPED);
+        probed();
+        Checks.check("with no healthy replica reads fall back to the primary", reads(5, null).equals(repeat("primary", 5)));
+
+        LAG.put("r1", 0L);
+        LAG.put("r2", 0L);
+        DOWN.add("r2");
+        probed();
+        Checks.check("an unreachable replica is taken out of rotation", reads(10, null).equals(repeat("r1", 10)));
+        DOWN.remove("r2");
+        probed();
+        Checks.check("it is back once it answers again", reads(20, null).contains("r2"));
+
+        Checks.finish();
+    }
+
+    // Lets the replica checker run a few times.
+    private static void probed() throws InterruptedException {
+        Thread.sleep(250);
+    }
+
+    private static boolean allHealthy() {
+        for (DBUtil.ReplicaStats r : DBUtil.replicaStats()) if (!r.healthy) return false;
+        return true;
+    }
+
+    private static List<String> reads(int n, String key) throws SQLException {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            try (Connection c = DBUtil.getReadConnection(key)) {
+                out.add(server(c));
+            }
+        }
+        return out;
+    }
+
+    private static String server(Connection c) throws SQLException {
+        return c.getCatalog();
+    }
+
+    private static List<String> repeat(String s, int n) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) out.add(s);
+        return out;
+    }
+
+    // Replicas answer the replica status query with LAG; everything else has no rows.
+    static final class Servers implements StubDriver.Database {
+        @Override public void connect(String server) throws SQLException {
+            if (DOWN.contains(server)) throw new SQLException("Communications link failure", "08S01");
+        }
+
+        @Override public boolean isValid(String server) { return !DOWN.contains(server); }
+
+        @Override public StubDriver.Result query(String server, String sql, Map<Integer, Object> params) throws SQLException {
+            if (DOWN.contains(server)) throw new SQLException("Communications link failure", "08S01");
+            List<Object[]> rows = new ArrayList<>();
+            if (sql.startsWith("SHOW REPLICA STATUS") && !server.equals("primary")) {
+                long lag = LAG.get(server);
+                rows.add(new Object[]{lag == STOPPED ? null : lag});
+            }
+            return new StubDriver.Result(List.of("Seconds_Behind_Source"), rows);
+        }
+
+        // writes "succeed" unless the connection is read-only
+        @Override public int update(String server, String sql, Map<Integer, Object> params, List<Object[]> keys,
+                                    Deque<Runnable> undo) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+// A JDBC driver for jdbc:stub:<server> URLs, so checks can run DBUtil and the
+// DAOs without a database. Connections, statements and result sets are
+// proxies that hand every statement to the installed Database; anything else
+// is a no-op returning false, 0 or null. A connection reports its server as
+// its catalog, and refuses writes while it is read-only, like MySQL.
+final class StubDriver implements Driver {
+    interface Database {
+        // Throw to refuse the connection.
+        default void connect(String server) throws SQLException {}
+
+        default boolean isValid(String server) { return true; }
+
+        Result query(String server, String sql, Map<Integer, Object> params) throws SQLException;
+
+        // Returns the update count. Generated keys go into 'keys'; 'undo'
+        // collects what rolling back has to revert.
+        default int update(String server, String sql, Map<Integer, Object> params, List<Object[]> keys,
+                           Deque<Runnable> undo) throws SQLException {
+            throw new SQLException("Stub can't run: " + sql);
+        }
+
+        default void commit(Deque<Runnable> undo) { undo.clear(); }
+
+        default void rollback(Deque<Runnable> undo) {
+            while (!undo.isEmpty()) undo.pop().run();
+        }
+    }
+
+    // Rows of a query; columns are read by index, or by label if labels are given.
+    static final class Result {
+        final List<String> labels;
+        final List<Object[]> rows;
+
+        Result(List<String> labels, List<Object[]> rows) {
+            this.labels = labels;
+            this.rows = rows;
+        }
+
+        static Result of(List<Object[]> rows) {
+            return new Result(List.of(), rows);
+        }
+    }
+
+    private final Database db;
+
+    private StubDriver(Database db) {
+        this.db = db;
+    }
+
+    static void install(Database db) throws SQLException {
+        DriverManager.registerDriver(new StubDriver(db));
+    }
+
+    @Override public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) return null;
+        String server = url.substring("jdbc:stub:".length());
+        db.connect(server);
+        Deque<Runnable> undo = new ArrayDeque<>();
+        boolean[] autoCommit = {true};
+        boolean[] readOnly = {false};
+        return (Connection) Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (p, m, a) -> {
+                    switch (m.getName()) {
+                        case "getCatalog": return server;
+                        case "isValid": return db.isValid(server);
+                        case "getAutoCommit": return autoCommit[0];
+                        case "setAutoCommit":
+                            if (!autoCommit[0] && (Boolean) a[0]) db.commit(undo);
+                            autoCommit[0] = (Boolean) a[0];
+                            return null;
+                        case "isReadOnly": return readOnly[0];
+                        case "setReadOnly": readOnly[0] = (Boolean) a[0]; return null;
+                        case "commit": db.commit(undo); return null;
+                        case "rollback": db.rollback(undo); return null;
+                        case "prepareStatement": return statement(server, (String) a[0], undo, readOnly);
+                        default: return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    private PreparedStatement statement(String server, String sql, Deque<Runnable> undo, boolean[] readOnly) {
+        Map<Integer, Object> params = new TreeMap<>();
+        List<Object[]> keys = new ArrayList<>();
+        return (PreparedStatement) Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (p, m, a) -> {
+                    String name = m.getName();
+                    if (name.startsWith("set") && a != null && a.length == 2 && a[0] instanceof Integer) {
+                        params.put((Integer) a[0], name.equals("setNull") ? null : a[1]);
+                        return null;
+                    }
+                    switch (name) {
+                        case "clearParameters": params.clear(); return null;
+                        case "executeQuery": return result(db.query(server, sql, params));
+                        case "executeUpdate":
+                            if (readOnly[0]) throw new SQLException("Cannot execute statement in a READ ONLY transaction.", "25006", 1792);
+                            keys.clear();
+                            return db.update(server, sql, params, keys, undo);
+                        case "getGeneratedKeys": return result(Result.of(new ArrayList<>(keys)));
+                        default: return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    private static ResultSet result(Result r) {
+        int[] at = {-1};
+        boolean[] wasNull = {false};
+        return (ResultSet) Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (p, m, a) -> {
+                    String name = m.getName();
+                    switch (name) {
+                        case "next": return ++at[0] < r.rows.size();
+                        case "wasNull": return wasNull[0];
+                        case "getInt": case "getLong": case "getDouble": case "getBoolean": case "getString": case "getObject": {
+                            int col = a[0] instanceof String ? r.labels.indexOf(a[0]) : (Integer) a[0] - 1;
+                            if (col < 0) throw new SQLException("Column '" + a[0] + "' not found", "S0022");
+                            Object v = r.rows.get(at[0])[col];
+                            wasNull[0] = v == null;
+                            if (name.equals("getString")) return v == null ? null : v.toString();
+                            if (name.equals("getObject")) return v;
+                            Number n = v == null ? 0 : (Number) v;
+                            if (name.equals("getInt")) return n.intValue();
+                            if (name.equals("getLong")) return n.longValue();
+                            if (name.equals("getDouble")) return n.doubleValue();
+                            return n.intValue() != 0;
+                        }
+                        default: return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+
+    @Override public boolean acceptsURL(String url) { return url.startsWith("jdbc:stub:"); }
+    @Override public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) { return new DriverPropertyInfo[0]; }
+    @Override public int getMajorVersion() { return 1; }
+    @Override public int getMinorVersion() { return 0; }
+    @Override public boolean jdbcCompliant() { return false; }
+    @Override public Logger getParentLogger() { return Logger.getGlobal(); }
+}
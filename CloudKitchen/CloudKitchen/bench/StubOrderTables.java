@@ -0,0 +1,123 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// The tables OrderDao and OrderJournal touch, in memory, with just enough SQL
+// to run them through StubDriver. Menu: dishes 1, 2 and 3 at 5.00, 7.00 and
+// 4.00, none counted until setStock. While 'down' every statement fails as if
+// the link dropped.
+final class StubOrderTables implements StubDriver.Database {
+    static final class Order {
+        final int id, userId;
+        final double total;
+        final String key;
+
+        Order(int id, int userId, double total, String key) {
+            this.id = id;
+            this.userId = userId;
+            this.total = total;
+            this.key = key;
+        }
+    }
+
+    private final Map<Integer, Double> prices = new HashMap<>(Map.of(1, 5.0, 2, 7.0, 3, 4.0));
+    private final Map<Integer, Integer> stock = new HashMap<>(); // counted dishes only
+    private final Map<Integer, Order> orders = new TreeMap<>();
+    private final Map<String, Order> byKey = new HashMap<>();
+    private final Map<String, String> rejections = new HashMap<>();
+    private final Set<Integer> deadlocked = new HashSet<>(); // users whose order insert always loses a deadlock
+    private int nextId = 1, items, commits;
+    volatile boolean down;
+
+    synchronized int commits() { return commits; }
+    synchronized int orderCount() { return orders.size(); }
+    synchronized Order order(int id) { return orders.get(id); }
+    synchronized void setStock(int menuId, int n) { stock.put(menuId, n); }
+    synchronized int stock(int menuId) { return stock.get(menuId); }
+    synchronized String rejection(String key) { return rejections.get(key); }
+    synchronized void deadlock(int userId) { deadlocked.add(userId); }
+
+    @Override public boolean isValid(String server) { return !down; }
+
+    @Override public synchronized StubDriver.Result query(String server, String sql, Map<Integer, Object> p) throws SQLException {
+        if (down) throw new SQLException("Communications link failure", "08S01");
+        List<Object[]> rows = new ArrayList<>();
+        if (sql.startsWith("SELECT id, price FROM menu_items")) {
+            for (Object id : p.values()) if (prices.containsKey(id)) rows.add(new Object[]{id, prices.get(id)});
+        } else if (sql.startsWith("SELECT id, available, stock FROM menu_items")) {
+            for (Object id : p.values()) if (prices.containsKey(id)) rows.add(new Object[]{id, 1, stock.get(id)});
+        } else if (sql.startsWith("SELECT id, total FROM orders WHERE idempotency_key")) {
+            Order o = byKey.get(p.get(1));
+            if (o != null) rows.add(new Object[]{o.id, o.total});
+        } else {
+            throw new SQLException("Stub can't run: " + sql);
+        }
+        return StubDriver.Result.of(rows);
+    }
+
+    @Override public synchronized int update(String server, String sql, Map<Integer, Object> p, List<Object[]> keys,
+                                             Deque<Runnable> undo) throws SQLException {
+        if (down) throw new SQLException("Communications link failure", "08S01");
+        if (sql.startsWith("INSERT INTO orders")) {
+            int rows = p.size() / 4;
+            for (int r = 0; r < rows; r++) {
+                String key = (String) p.get(r * 4 + 4);
+                if (key != null && byKey.containsKey(key)) throw new SQLException("Duplicate entry '" + key + "'", "23000", 1062);
+                if (deadlocked.contains(p.get(r * 4 + 1))) throw new SQLException("Deadlock found when trying to get lock", "40001", 1213);
+            }
+            for (int r = 0; r < rows; r++) {
+                Order o = new Order(nextId++, (Integer) p.get(r * 4 + 1), (Double) p.get(r * 4 + 2), (String) p.get(r * 4 + 4));
+                orders.put(o.id, o);
+                if (o.key != null) byKey.put(o.key, o);
+                keys.add(new Object[]{o.id});
+                undo.push(() -> {
+                    orders.remove(o.id);
+                    if (o.key != null) byKey.remove(o.key);
+                });
+            }
+            return rows;
+        }
+        if (sql.startsWith("INSERT IGNORE INTO order_rejections")) {
+            // autocommit, so no undo
+            if (rejections.containsKey(p.get(1))) return 0;
+            rejections.put((String) p.get(1), (String) p.get(3));
+            return 1;
+        }
+        if (sql.startsWith("INSERT INTO order_items")) {
+            int rows = p.size() / 5;
+            items += rows;
+            undo.push(() -> items -= rows);
+            return rows;
+        }
+        if (sql.startsWith("UPDATE menu_items m JOIN")) {
+            int matched = 0;
+            for (int i = 1; i <= p.size(); i += 2) {
+                int id = (Integer) p.get(i), qty = (Integer) p.get(i + 1);
+                if (!prices.containsKey(id)) continue;
+                Integer left = stock.get(id);
+                if (left == null) { matched++; continue; }
+                if (left < qty) continue;
+                stock.put(id, left - qty);
+                undo.push(() -> stock.put(id, stock.get(id) + qty));
+                matched++;
+            }
+            return matched;
+        }
+        throw new SQLException("Stub can't run: " + sql);
+    }
+
+    @Override public synchronized void commit(Deque<Runnable> undo) {
+        undo.clear();
+        commits++;
+    }
+
+    @Override public synchronized void rollback(Deque<Runnable> undo) {
+        while (!undo.isEmpty()) undo.pop().run();
+    }
+}
@@ -0,0 +1,72 @@
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks OrderStateMachine.transitionAll against a driver whose batches only
+// report SUCCESS_NO_INFO: the batch must be rolled back and redone one
+// statement at a time, so a lost race comes back as CONFLICT, not APPLIED.
+// Runs on a stub connection, no database needed.
+//
+//   java -cp out TransitionCheck
+public class TransitionCheck {
+    public static void main(String[] args) throws Exception {
+        List<String> log = new ArrayList<>();
+        // order 1 is still PENDING, order 2 was moved by someone else
+        Connection conn = stub(log, orderId -> orderId == 1 ? 1 : 0);
+        OrderStateMachine sm = OrderStateMachine.defaults();
+        List<OrderStateMachine.Change> changes = List.of(
+                new OrderStateMachine.Change(1, OrderStatus.PENDING, OrderStatus.PREPARING),
+                new OrderStateMachine.Change(2, OrderStatus.PENDING, OrderStatus.PREPARING));
+        List<OrderStateMachine.Outcome> out = sm.transitionAll(conn, changes);
+        System.out.println("calls: " + log);
+        boolean ok = out.get(0) == OrderStateMachine.Outcome.APPLIED
+                && out.get(1) == OrderStateMachine.Outcome.CONFLICT
+                && log.contains("rollback") && log.indexOf("rollback") < log.lastIndexOf("commit");
+        System.out.println((ok ? "ok    " : "FAIL  ") + "SUCCESS_NO_INFO batch redone per statement: " + out);
+        System.exit(ok ? 0 : 1);
+    }
+
+    interface Matches {
+        int rows(int orderId);
+    }
+
+    private static Connection stub(List<String> log, Matches matches) {
+        boolean[] autoCommit = {true};
+        return (Connection) Proxy.newProxyInstance(TransitionCheck.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (p, m, a) -> {
+                    switch (m.getName()) {
+                        case "getAutoCommit": return autoCommit[0];
+                        case "setAutoCommit": autoCommit[0] = (Boolean) a[0]; return null;
+                        case "commit": log.add("commit"); return null;
+                        case "rollback": log.add("rollback"); return null;
+                        case "prepareStatement": return statement(log, (String) a[0], matches);
+                        default: return null;
+                    }
+                });
+    }
+
+    private static PreparedStatement statement(List<String> log, String sql, Matches matches) {
+        List<Integer> batch = new ArrayList<>();
+        int[] orderId = {0};
+        boolean cas = sql.equals(Queries.ORDER_CAS.sql);
+        return (PreparedStatement) Proxy.newProxyInstance(TransitionCheck.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (p, m, a) -> {
+                    switch (m.getName()) {
+                        case "setInt": if ((Integer) a[0] == (cas ? 2 : 1)) orderId[0] = (Integer) a[1]; return null;
+                        case "addBatch": batch.add(orderId[0]); return null;
+                        case "executeBatch":
+                            log.add((cas ? "cas" : "history") + "-batch" + batch);
+                            int[] r = new int[batch.size()];
+                            java.util.Arrays.fill(r, cas ? Statement.SUCCESS_NO_INFO : 1);
+                            return r;
+                        case "executeUpdate":
+                            log.add("cas-single[" + orderId[0] + "]");
+                            return matches.rows(orderId[0]);
+                        default: return null;
+                    }
+                });
+    }
+}
@@ -1,18 +1,66 @@
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.sql.*;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 public class AdminPanel extends JPanel {
     private final JTable table;
-    private final DefaultTableModel ordersModel = new DefaultTableModel(
-            new Object[]{"Order ID","Customer","Total","Status","Created"}, 0) {
-        @Override public boolean isCellEditable(int r, int c) { return false; }
-    }; 
+    private static final int ORDERS_PAGE_SIZE = 100;
+    private static final int ORDERS_REFRESH_MS = 5000;
+    private static final int KITCHEN_REDRAW_MS = 1000;
+    private static final int KITCHEN_ROWS = 200;
+    private static final String[] DATE_FILTERS = {"All time", "Today", "Last 7 days", "Last 30 days"};
+
+    private final OrdersTableModel ordersModel = new OrdersTableModel();
     private final JTable ordersTable = new JTable(ordersModel);
+    private final JComboBox<String> statusFilter = new JComboBox<>(statusFilters());
+    private final JComboBox<String> dateFilter = new JComboBox<>(DATE_FILTERS);
+    private final KitchenQueue kitchen = KitchenQueue.fromEnv();
+    private final DefaultTableModel kitchenModel = new DefaultTableModel(
+            new Object[]{"Station", "Order", "Status", "Start by", "Promised", "Prep (min)"}, 0) {
+        @Override public boolean isCellEditable(int r, int c) { return false; }
+    };
+    private final JTable kitchenTable = new JTable(kitchenModel);
+    private final JTabbedPane tabs = new JTabbedPane();
+    private JPanel ordersTab;
+    private JPanel kitchenTab;
+    private final MainApp app;
+    // high-water mark for the delta refresher; null until the first page is requested
+    private Timestamp changesSince;
+    // the delta read in flight; a read cancelled with the screen counts as done
+    private CompletableFuture<?> refreshing;
+    // Kitchen tab state, EDT only. Nothing here runs until an admin opens the tab.
+    private OrderEventBus.Subscription ordersSub;
+    private OrderEventBus.Subscription kitchenSub;
+    private List<OrderEventBus.OrderEvent> kitchenBacklog; // events that arrived while the queue was being read
+    private final Set<Integer> kitchenMissing = new HashSet<>(); // open orders seen without their lines
+    private Timestamp kitchenSince; // high-water mark for the kitchen's own catch-up
+    private boolean kitchenStale = true;
+    private CompletableFuture<?> kitchenRefreshing; // like refreshing
+    private int kitchenGen = 0;
 
-    public AdminPanel(MainApp app, JTable table, DefaultTableModel model) {
+    private static final class KitchenSnapshot {
+        final Timestamp since;
+        final List<KitchenService.OpenOrder> open;
+
+        KitchenSnapshot(Timestamp since, List<KitchenService.OpenOrder> open) {
+            this.since = since;
+            this.open = open;
+        }
+    }
+
+    public AdminPanel(MainApp app, JTable table, MenuTableModel model) {
         super(new BorderLayout());
+        this.app = app;
         // bind the provided admin table instance
         this.table = table;
         JLabel lbl = new JLabel("Admin", SwingConstants.CENTER);
@@ -24,16 +72,33 @@ public class AdminPanel extends JPanel {
         top.add(logout, BorderLayout.EAST);
         add(top, BorderLayout.NORTH);
 
-        // Tabs: Menu and Orders
-        JTabbedPane tabs = new JTabbedPane();
+        // Tabs: Menu, Orders and the kitchen display
+        ordersTab = buildOrdersTab(app);
+        kitchenTab = buildKitchenTab();
         tabs.addTab("Menu", buildMenuTab(app, table, model));
-        tabs.addTab("Orders", buildOrdersTab(app));
+        tabs.addTab("Orders", ordersTab);
+        tabs.addTab("Kitchen", kitchenTab);
         add(tabs, BorderLayout.CENTER);
+        tabs.addChangeListener(e -> {
+            if (tabs.getSelectedComponent() == ordersTab) refreshChangedOrders();
+            if (tabs.getSelectedComponent() == kitchenTab) {
+                if (kitchenStale) loadKitchen();
+                else refreshKitchen();
+            }
+        });
+
+        // Order events are only followed once an admin is signed in (see loadOrders
+        // and loadKitchen); other terminals' changes are also pulled by the refreshers,
+        // which do nothing until then
+        Timer refresher = new Timer(ORDERS_REFRESH_MS, e -> { refreshChangedOrders(); refreshKitchen(); });
+        refresher.start();
+        Timer redraw = new Timer(KITCHEN_REDRAW_MS, e -> redrawKitchen());
+        redraw.start();
     }
 
     public JTable getTable() { return table; }
 
-    private JPanel buildMenuTab(MainApp app, JTable table, DefaultTableModel model) {
+    private JPanel buildMenuTab(MainApp app, JTable table, MenuTableModel model) {
         JPanel panel = new JPanel(new BorderLayout());
 
         table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
@@ -49,6 +114,7 @@ public class AdminPanel extends JPanel {
         JScrollPane sp = new JScrollPane(table);
         sp.setViewportView(table);
         sp.setColumnHeaderView(table.getTableHeader());
+        panel.add(MainApp.menuFilterBar(model), BorderLayout.NORTH);
         panel.add(sp, BorderLayout.CENTER);
 
         JPanel bot = new JPanel();
@@ -66,95 +132,367 @@ public class AdminPanel extends JPanel {
     private JPanel buildOrdersTab(MainApp app) {
         JPanel panel = new JPanel(new BorderLayout());
         ordersTable.setRowHeight(24);
+        ordersTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         JScrollPane sp = new JScrollPane(ordersTable);
+        // fetch the next page when the user scrolls near the bottom
+        sp.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - ordersTable.getRowHeight() * 10) {
+                loadNextOrdersPage();
+            }
+        });
         panel.add(sp, BorderLayout.CENTER);
 
         JPanel top = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        statusFilter.addActionListener(e -> loadOrders());
+        dateFilter.addActionListener(e -> loadOrders());
         JButton refresh = new JButton("Refresh Orders");
         refresh.addActionListener(e -> loadOrders());
         JButton advance = new JButton("Advance Status");
-        advance.addActionListener(e -> advanceSelectedOrder());
-        top.add(refresh); top.add(advance);
+        advance.setToolTipText("Advances all selected orders one step");
+        advance.addActionListener(e -> advanceSelectedOrders());
+        JButton cancel = new JButton("Cancel Order");
+        cancel.addActionListener(e -> cancelSelectedOrders());
+        top.add(statusFilter); top.add(dateFilter);
+        top.add(refresh); top.add(advance); top.add(cancel);
         panel.add(top, BorderLayout.NORTH);
-
-        loadOrders();
         return panel;
     }
 
-    private void editSelectedMenu(MainApp app, DefaultTableModel model) {
+    private void editSelectedMenu(MainApp app, MenuTableModel model) {
         int r = table.getSelectedRow();
         if (r < 0) { JOptionPane.showMessageDialog(this, "Select a row"); return; }
-        int id = (Integer) model.getValueAt(r, 0);
-        String currName = String.valueOf(model.getValueAt(r,1));
-        double currPrice = ((Number) model.getValueAt(r,2)).doubleValue();
-        boolean currAvail = (Boolean) model.getValueAt(r,3);
-        String currOptions = String.valueOf(model.getValueAt(r,4));
+        int id = model.getMenuId(r);
+        String currName = String.valueOf(model.getValueAt(r, MenuTableModel.COL_NAME));
+        double currPrice = ((Number) model.getValueAt(r, MenuTableModel.COL_PRICE)).doubleValue();
+        boolean currAvail = (Boolean) model.getValueAt(r, MenuTableModel.COL_AVAILABLE);
+        // the Options cell only holds the selected choice; edit the groups from the catalog
+        MenuCatalog.Item item = MenuCatalog.current().get(id);
+        String currOptions = item != null ? item.options.format() : "";
 
         JTextField name = new JTextField(currName);
         JTextField price = new JTextField(String.valueOf(currPrice));
         JCheckBox avail = new JCheckBox("Available", currAvail);
-        JTextField options = new JTextField(currOptions);
-        Object[] fields = {"Name", name, "Price", price, "Options (comma separated, optional)", options, avail};
+        JTextArea options = new JTextArea(currOptions, 4, 30);
+        JTextField stock = new JTextField(item != null && item.tracksStock() ? String.valueOf(item.stock) : "");
+        JTextField category = new JTextField(String.valueOf(model.getValueAt(r, MenuTableModel.COL_CATEGORY)));
+        Object[] fields = {"Name", name, "Price", price, "Category (optional)", category,
+                MainApp.OPTIONS_HELP, new JScrollPane(options), "Stock (blank = not counted)", stock, avail};
         int ok = JOptionPane.showConfirmDialog(this, fields, "Edit Menu Item", JOptionPane.OK_CANCEL_OPTION);
         if (ok == JOptionPane.OK_OPTION) {
-            try (Connection conn = DBUtil.getConnection();
-                 PreparedStatement ps = conn.prepareStatement("UPDATE menu_items SET name=?, price=?, available=?, options=? WHERE id=?")) {
-                ps.setString(1, name.getText().trim());
-                ps.setDouble(2, Double.parseDouble(price.getText().trim()));
-                ps.setBoolean(3, avail.isSelected());
-                String opts = options.getText().trim();
-                if (opts.isEmpty()) ps.setNull(4, Types.VARCHAR); else ps.setString(4, opts);
-                ps.setInt(5, id);
-                ps.executeUpdate();
+            double p;
+            Integer st;
+            MenuOptions opts;
+            try {
+                p = Double.parseDouble(price.getText().trim());
+                st = MainApp.parseStock(stock.getText());
+            } catch (NumberFormatException nfe) {
+                JOptionPane.showMessageDialog(this, "Bad price or stock");
+                return;
+            }
+            try {
+                opts = MenuOptions.parse(options.getText());
+            } catch (IllegalArgumentException bad) {
+                JOptionPane.showMessageDialog(this, "Bad options: " + bad.getMessage());
+                return;
+            }
+            String n = name.getText().trim();
+            String cat = category.getText().trim();
+            boolean available = avail.isSelected();
+            app.getUiScope().run(() -> { app.getService().updateMenuItem(id, n, p, available, opts, st, cat); return null; }, v -> {
                 app.loadMenu();
-                app.adjustColumnWidths(app.getCustomerTable());
-                app.adjustColumnWidths(table);
-            } catch (Exception ex) {
+            }, ex -> {
                 ex.printStackTrace();
                 JOptionPane.showMessageDialog(this, "Update failed: " + ex.getMessage());
+            });
+        }
+    }
+
+    private JPanel buildKitchenTab() {
+        JPanel panel = new JPanel(new BorderLayout());
+        kitchenTable.setRowHeight(24);
+        kitchenTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        panel.add(new JScrollPane(kitchenTable), BorderLayout.CENTER);
+
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton reload = new JButton("Reload");
+        reload.addActionListener(e -> loadKitchen());
+        JButton advance = new JButton("Advance Status");
+        advance.setToolTipText("Start cooking / finish the selected tickets");
+        advance.addActionListener(e -> advanceSelectedTickets());
+        top.add(reload); top.add(advance);
+        panel.add(top, BorderLayout.NORTH);
+        return panel;
+    }
+
+    // Full read of the open tickets; after this the queue follows order events.
+    // Subscribes first and holds events back until the read is in, so none are
+    // lost and none are overwritten by an older row.
+    private void loadKitchen() {
+        if (app.getCurrentUserId() <= 0) return;
+        if (kitchenSub == null) {
+            kitchenSub = OrderEventBus.get().subscribeAll(new OrderEventBus.Listener() {
+                @Override public void onEvent(OrderEventBus.OrderEvent e) {
+                    SwingUtilities.invokeLater(() -> kitchenEvent(e));
+                }
+                @Override public void onResync() {
+                    SwingUtilities.invokeLater(() -> {
+                        kitchenStale = true;
+                        if (tabs.getSelectedComponent() == kitchenTab) loadKitchen();
+                    });
+                }
+            });
+        }
+        if (kitchenBacklog == null) kitchenBacklog = new ArrayList<>();
+        kitchenStale = false;
+        int gen = ++kitchenGen;
+        app.getUiScope().run(() -> {
+            // the DB clock before the read: the catch-up starts from here
+            Timestamp since = app.getService().listOrdersChangedSince(null, 0).highWater;
+            return new KitchenSnapshot(since, app.getService().listOpenOrders(null));
+        }, snap -> {
+            if (gen != kitchenGen) return;
+            kitchen.load(snap.open);
+            kitchenSince = snap.since;
+            kitchenMissing.clear();
+            replayKitchenBacklog();
+            redrawKitchen();
+        }, ex -> {
+            if (gen != kitchenGen) return;
+            kitchenStale = true;
+            replayKitchenBacklog();
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Load kitchen queue error: " + ex.getMessage());
+        });
+    }
+
+    private void replayKitchenBacklog() {
+        List<OrderEventBus.OrderEvent> backlog = kitchenBacklog;
+        kitchenBacklog = null;
+        if (backlog != null) for (OrderEventBus.OrderEvent e : backlog) kitchenEvent(e);
+    }
+
+    private void kitchenEvent(OrderEventBus.OrderEvent e) {
+        if (kitchenBacklog != null) {
+            kitchenBacklog.add(e);
+            return;
+        }
+        if (kitchen.onStatus(e.orderId, e.status)) return;
+        if (e.lines != null) {
+            // a new order, placed here or on another terminal: the event carries the ticket
+            KitchenService.OpenOrder o = new KitchenService.OpenOrder(e.orderId, e.userId, e.status, new Timestamp(e.placedAt));
+            o.lines.addAll(e.lines);
+            kitchen.add(o);
+        } else {
+            kitchenMissing.add(e.orderId); // fetched with the next catch-up, in one query
+        }
+    }
+
+    // While the Kitchen tab is up: applies orders changed since the last pull
+    // (changes whose events never reached this terminal) and reads the lines of
+    // any open order still unknown here, all in one round trip each.
+    private void refreshKitchen() {
+        if (busy(kitchenRefreshing) || kitchenBacklog != null || kitchenSince == null
+                || !isShowing() || tabs.getSelectedComponent() != kitchenTab) return;
+        Timestamp since = kitchenSince;
+        int gen = kitchenGen;
+        kitchenRefreshing = app.getUiScope().run(() -> app.getService().listOrdersChangedSince(since, 500), changes -> {
+            if (gen != kitchenGen) return;
+            kitchenSince = changes.highWater;
+            for (KitchenService.OrderSummary o : changes.orders) {
+                if (!kitchen.onStatus(o.id, o.status)) kitchenMissing.add(o.id);
             }
+            if (kitchenMissing.isEmpty()) {
+                redrawKitchen();
+                return;
+            }
+            List<Integer> ids = new ArrayList<>(kitchenMissing);
+            kitchenMissing.clear();
+            kitchenRefreshing = app.getUiScope().run(() -> app.getService().listOpenOrders(ids), open -> {
+                if (gen != kitchenGen) return;
+                for (KitchenService.OpenOrder o : open) kitchen.add(o);
+                redrawKitchen();
+            }, ex -> {
+                kitchenMissing.addAll(ids);
+                ex.printStackTrace();
+            });
+        }, Throwable::printStackTrace);
+    }
+
+    // Updates the rows in place and keeps the cook's selection on the same
+    // tickets, even when they move up or down the list.
+    private void redrawKitchen() {
+        if (!kitchenTable.isShowing()) return;
+        List<KitchenQueue.Slot> slots = kitchen.snapshot(KITCHEN_ROWS);
+        Set<Integer> selected = new HashSet<>();
+        for (int r : kitchenTable.getSelectedRows()) selected.add((Integer) kitchenModel.getValueAt(r, 1));
+        SimpleDateFormat hm = new SimpleDateFormat("HH:mm");
+        while (kitchenModel.getRowCount() > slots.size()) kitchenModel.removeRow(kitchenModel.getRowCount() - 1);
+        for (int i = 0; i < slots.size(); i++) {
+            KitchenQueue.Slot sl = slots.get(i);
+            KitchenQueue.Ticket t = sl.ticket;
+            Object[] row = { t.station, t.orderId, t.status.name(), hm.format(new Date(sl.startBy)),
+                    hm.format(new Date(t.promisedAt)), t.prepMillis / 60_000 };
+            if (i == kitchenModel.getRowCount()) {
+                kitchenModel.addRow(row);
+                continue;
+            }
+            for (int c = 0; c < row.length; c++) {
+                if (!row[c].equals(kitchenModel.getValueAt(i, c))) kitchenModel.setValueAt(row[c], i, c);
+            }
+        }
+        ListSelectionModel sel = kitchenTable.getSelectionModel();
+        sel.setValueIsAdjusting(true);
+        sel.clearSelection();
+        for (int i = 0; i < slots.size(); i++) {
+            if (selected.contains(slots.get(i).ticket.orderId)) sel.addSelectionInterval(i, i);
         }
+        sel.setValueIsAdjusting(false);
+    }
+
+    private void advanceSelectedTickets() {
+        int[] selected = kitchenTable.getSelectedRows();
+        if (selected.length == 0) { JOptionPane.showMessageDialog(this, "Select a ticket"); return; }
+        List<OrderStateMachine.Change> changes = new ArrayList<>();
+        for (int r : selected) {
+            int orderId = (Integer) kitchenModel.getValueAt(r, 1);
+            OrderStatus from = OrderStatus.parse((String) kitchenModel.getValueAt(r, 2));
+            OrderStatus to = from == null ? null : app.getService().stateMachine().next(from);
+            if (to != null) changes.add(new OrderStateMachine.Change(orderId, from, to));
+        }
+        applyChanges(changes, selected.length - changes.size(), "already finished");
+    }
+
+    // Restart the list from the newest order under the current filters.
+    public void loadOrders() {
+        if (ordersSub == null) {
+            // status changes made in this process (or relayed by the broker) land immediately
+            ordersSub = OrderEventBus.get().subscribeAll(e ->
+                    SwingUtilities.invokeLater(() -> ordersModel.updateStatus(e.orderId, e.status)));
+        }
+        if (tabs.getSelectedComponent() == kitchenTab) loadKitchen();
+        String status = statusFilter.getSelectedIndex() == 0 ? null : (String) statusFilter.getSelectedItem();
+        ordersModel.reset(status, sinceForDateFilter(dateFilter.getSelectedIndex()));
+        changesSince = null;
+        refreshChangedOrders(); // takes the DB clock as the starting high-water mark
+        loadNextOrdersPage();
+    }
+
+    // Pulls only the orders changed since the last pull and merges them into the model.
+    private void refreshChangedOrders() {
+        if (ordersSub == null || busy(refreshing)) return; // no admin signed in yet
+        // only the first call (taking the starting mark) runs while the list isn't on screen;
+        // selecting the tab again catches up from the mark
+        if (changesSince != null && (!isShowing() || tabs.getSelectedComponent() != ordersTab)) return;
+        Timestamp since = changesSince;
+        refreshing = app.getUiScope().run(() -> app.getService().listOrdersChangedSince(since, 500), changes -> {
+            if (since != changesSince) return; // a reload restarted tracking meanwhile
+            changesSince = changes.highWater;
+            ordersModel.merge(changes.orders);
+        }, Throwable::printStackTrace);
+    }
+
+    // A read cancelled by uiScope.cancelAll never calls back, but its future is done.
+    private static boolean busy(CompletableFuture<?> read) {
+        return read != null && !read.isDone();
     }
 
-    private void loadOrders() {
-        ordersModel.setRowCount(0);
-        String sql = "SELECT o.id, u.name, o.total, o.status, o.created_at FROM orders o JOIN users u ON o.user_id=u.id ORDER BY o.created_at DESC";
-        try (Connection conn = DBUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                ordersModel.addRow(new Object[]{
-                        rs.getInt(1), rs.getString(2), rs.getDouble(3), rs.getString(4), rs.getTimestamp(5)
+    // Signed out: stop following orders and forget the queue.
+    public void stop() {
+        if (ordersSub != null) { ordersSub.close(); ordersSub = null; }
+        if (kitchenSub != null) { kitchenSub.close(); kitchenSub = null; }
+        // in-flight reads are cancelled with the screen and never call back
+        refreshing = null;
+        changesSince = null;
+        kitchenRefreshing = null;
+        kitchenGen++;
+        kitchenBacklog = null;
+        kitchenMissing.clear();
+        kitchenSince = null;
+        kitchenStale = true;
+        kitchen.load(new ArrayList<>());
+        kitchenModel.setRowCount(0);
+    }
+
+    private void loadNextOrdersPage() {
+        int gen = ordersModel.beginLoad();
+        if (gen < 0) return;
+        String status = statusFilter.getSelectedIndex() == 0 ? null : (String) statusFilter.getSelectedItem();
+        Timestamp since = sinceForDateFilter(dateFilter.getSelectedIndex());
+        KitchenService.OrderSummary last = ordersModel.last();
+        Timestamp afterCreated = last == null ? null : last.created;
+        int afterId = last == null ? 0 : last.id;
+        app.getUiScope().run(() -> app.getService().listOrdersPage(status, since, afterCreated, afterId, ORDERS_PAGE_SIZE),
+                page -> ordersModel.appendPage(gen, page, ORDERS_PAGE_SIZE),
+                ex -> {
+                    ordersModel.loadFailed(gen);
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(this, "Load orders error: " + ex.getMessage());
                 });
-            }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Load orders error: " + ex.getMessage());
+    }
+
+    private static String[] statusFilters() {
+        List<String> names = new ArrayList<>();
+        names.add("All statuses");
+        for (OrderStatus st : OrderStatus.values()) names.add(st.name());
+        return names.toArray(new String[0]);
+    }
+
+    private static Timestamp sinceForDateFilter(int idx) {
+        if (idx <= 0) return null;
+        LocalDate today = LocalDate.now();
+        LocalDate from = idx == 1 ? today : today.minusDays(idx == 2 ? 6 : 29);
+        return Timestamp.valueOf(from.atStartOfDay());
+    }
+
+    // Advances every selected order one step in a single batched compare-and-set.
+    private void advanceSelectedOrders() {
+        transitionSelected(app.getService().stateMachine()::next, "already finished");
+    }
+
+    private void cancelSelectedOrders() {
+        int ok = JOptionPane.showConfirmDialog(this, "Cancel the selected orders?", "Confirm", JOptionPane.YES_NO_OPTION);
+        if (ok != JOptionPane.YES_OPTION) return;
+        transitionSelected(from -> app.getService().stateMachine().canTransition(from, OrderStatus.CANCELLED)
+                ? OrderStatus.CANCELLED : null, "already finished");
+    }
+
+    private void transitionSelected(Function<OrderStatus, OrderStatus> target, String skippedReason) {
+        int[] selected = ordersTable.getSelectedRows();
+        if (selected.length == 0) { JOptionPane.showMessageDialog(this, "Select an order"); return; }
+        List<OrderStateMachine.Change> changes = new ArrayList<>();
+        int done = 0;
+        for (int r : selected) {
+            KitchenService.OrderSummary order = ordersModel.getOrder(ordersTable.convertRowIndexToModel(r));
+            OrderStatus from = OrderStatus.parse(order.status);
+            OrderStatus to = from == null ? null : target.apply(from);
+            if (to == null) { done++; continue; }
+            changes.add(new OrderStateMachine.Change(order.id, from, to));
         }
+        applyChanges(changes, done, skippedReason);
     }
 
-    private void advanceSelectedOrder() {
-        int r = ordersTable.getSelectedRow();
-        if (r < 0) { JOptionPane.showMessageDialog(this, "Select an order"); return; }
-        int orderId = (Integer) ordersModel.getValueAt(r, 0);
-        String status = String.valueOf(ordersModel.getValueAt(r, 3));
-        String next = nextStatus(status);
-        if (next == null) { JOptionPane.showMessageDialog(this, "Order already COMPLETED"); return; }
-        try (Connection conn = DBUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement("UPDATE orders SET status=? WHERE id=?")) {
-            ps.setString(1, next); ps.setInt(2, orderId); ps.executeUpdate();
-            loadOrders();
-        } catch (SQLException ex) {
+    private void applyChanges(List<OrderStateMachine.Change> changes, int skipped, String skippedReason) {
+        if (changes.isEmpty()) { JOptionPane.showMessageDialog(this, "Selected order(s) " + skippedReason); return; }
+        app.getUiScope().run(() -> app.getService().transitionOrders(changes), result -> {
+            for (OrderStateMachine.Change c : result.applied) ordersModel.updateStatus(c.orderId, c.to.name());
+            if (!result.conflicts.isEmpty()) {
+                JOptionPane.showMessageDialog(this, result.conflicts.size() + " order(s) were changed by someone else and were not updated: "
+                        + orderIds(result.conflicts) + (skipped > 0 ? "\n" + skipped + " " + skippedReason + "." : ""));
+                refreshChangedOrders();
+            }
+        }, ex -> {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(this, "Update status error: " + ex.getMessage());
-        }
+        });
     }
 
-    private String nextStatus(String s) {
-        if (s == null) return "PENDING";
-        s = s.toUpperCase();
-        if ("PENDING".equals(s)) return "PREPARING";
-        if ("PREPARING".equals(s)) return "COMPLETED";
-        return null;
+    private static String orderIds(List<OrderStateMachine.Change> changes) {
+        StringBuilder ids = new StringBuilder();
+        for (OrderStateMachine.Change c : changes) {
+            if (ids.length() > 0) ids.append(", ");
+            ids.append(c.orderId);
+        }
+        return ids.toString();
     }
 }
@@ -0,0 +1,415 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Small bounded JDBC pool. Connections handed out are proxies whose close()
+// returns the physical connection to the pool instead of closing it.
+//
+// Each physical connection also keeps an LRU cache of its prepared statements
+// (prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys)), so a
+// statement is parsed once per connection and close() just parks it again.
+// A statement checked out twice at once gets a second, uncached copy.
+public class ConnectionPool {
+    private final String url;
+    private final String user;
+    private final String pass;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long validateAfterMs;
+    private final int statementCacheSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int total = 0;   // idle + active + being opened
+    private int active = 0;
+    private int waiters = 0;
+    private boolean closed = false;
+
+    // statistics
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong borrowNanos = new AtomicLong();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    private final ScheduledExecutorService housekeeper;
+
+    public ConnectionPool(String url, String user, String pass, int maxSize, long borrowTimeoutMs,
+                          long idleTimeoutMs, long maxLifetimeMs, long validateAfterMs, int statementCacheSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be >= 1");
+        this.url = url;
+        this.user = user;
+        this.pass = pass;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxLifetimeMs = maxLifetimeMs;
+        this.validateAfterMs = validateAfterMs;
+        this.statementCacheSize = statementCacheSize;
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMs, 30_000) / 2);
+        housekeeper.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+        while (true) {
+            PooledConnection pc = null;
+            boolean open = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) throw new SQLException("Connection pool is closed");
+                    pc = idle.pollFirst();
+                    if (pc != null) break;
+                    if (total < maxSize) { total++; open = true; break; }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeouts.incrementAndGet();
+                        throw new SQLTransientConnectionException("Timed out after " + borrowTimeoutMs
+                                + " ms waiting for a DB connection (" + active + " active, pool max " + maxSize + ")", "08001");
+                    }
+                    waiters++;
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a DB connection", ie);
+                    } finally {
+                        waiters--;
+                    }
+                }
+                active++;
+            } finally {
+                lock.unlock();
+            }
+
+            if (open) {
+                try {
+                    pc = new PooledConnection(DriverManager.getConnection(url, user, pass));
+                    created.incrementAndGet();
+                } catch (SQLException | RuntimeException ex) {
+                    release();
+                    throw ex;
+                }
+            } else if (!isUsable(pc)) {
+                // stale or broken: drop it and try again without counting it as a borrow
+                discard(pc);
+                continue;
+            }
+            recordBorrow(System.nanoTime() - start);
+            return pc.lease();
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        long now = System.currentTimeMillis();
+        if (maxLifetimeMs > 0 && now - pc.createdAt >= maxLifetimeMs) return false;
+        if (now - pc.lastReturnedAt < validateAfterMs) return true;
+        try {
+            return pc.physical.isValid(2);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void recordBorrow(long nanos) {
+        borrows.incrementAndGet();
+        borrowNanos.addAndGet(nanos);
+        long prev;
+        while (nanos > (prev = maxBorrowNanos.get())) {
+            if (maxBorrowNanos.compareAndSet(prev, nanos)) break;
+        }
+    }
+
+    // Called by the proxy's close(): reset state and hand the connection back.
+    private void giveBack(PooledConnection pc) {
+        boolean keep = !pc.broken;
+        if (keep) {
+            try {
+                if (!pc.physical.getAutoCommit()) {
+                    pc.physical.rollback();
+                    pc.physical.setAutoCommit(true);
+                }
+                if (pc.physical.isReadOnly()) pc.physical.setReadOnly(false);
+            } catch (SQLException ex) {
+                keep = false;
+            }
+        }
+        if (keep && maxLifetimeMs > 0 && System.currentTimeMillis() - pc.createdAt >= maxLifetimeMs) keep = false;
+        if (!keep) { discard(pc); return; }
+        pc.lastReturnedAt = System.currentTimeMillis();
+        lock.lock();
+        try {
+            active--;
+            if (closed) {
+                total--;
+                closeQuietly(pc);
+            } else {
+                idle.addFirst(pc); // LIFO keeps a warm core and lets the tail idle out
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        evicted.incrementAndGet();
+        closeQuietly(pc);
+        release();
+    }
+
+    // Frees one active slot (used when a connection is dropped rather than returned).
+    private void release() {
+        lock.lock();
+        try {
+            active--;
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Deque<PooledConnection> dead = new ArrayDeque<>();
+        lock.lock();
+        try {
+            idle.removeIf(pc -> {
+                boolean expired = (idleTimeoutMs > 0 && now - pc.lastReturnedAt >= idleTimeoutMs)
+                        || (maxLifetimeMs > 0 && now - pc.createdAt >= maxLifetimeMs);
+                if (expired) { dead.add(pc); total--; }
+                return expired;
+            });
+            if (!dead.isEmpty()) available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledConnection pc : dead) {
+            evicted.incrementAndGet();
+            closeQuietly(pc);
+        }
+    }
+
+    public void close() {
+        Deque<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayDeque<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for (PooledConnection pc : toClose) closeQuietly(pc);
+    }
+
+    private static void closeQuietly(PooledConnection pc) {
+        try { pc.physical.close(); } catch (SQLException ignored) {}
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try { ps.close(); } catch (SQLException ignored) {}
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            long n = borrows.get();
+            return new Stats(active, idle.size(), waiters, total, maxSize, n,
+                    n == 0 ? 0 : borrowNanos.get() / n, maxBorrowNanos.get(),
+                    timeouts.get(), created.get(), evicted.get(), statementHits.get(), statementMisses.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static class Stats {
+        public final int active;
+        public final int idle;
+        public final int waiters;
+        public final int total;
+        public final int maxSize;
+        public final long borrows;
+        public final long avgBorrowNanos;
+        public final long maxBorrowNanos;
+        public final long timeouts;
+        public final long created;
+        public final long evicted;
+        public final long statementHits;
+        public final long statementMisses;
+
+        Stats(int active, int idle, int waiters, int total, int maxSize, long borrows, long avgBorrowNanos,
+              long maxBorrowNanos, long timeouts, long created, long evicted, long statementHits, long statementMisses) {
+            this.active = active; this.idle = idle; this.waiters = waiters; this.total = total;
+            this.maxSize = maxSize; this.borrows = borrows; this.avgBorrowNanos = avgBorrowNanos;
+            this.maxBorrowNanos = maxBorrowNanos; this.timeouts = timeouts; this.created = created;
+            this.evicted = evicted;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        @Override public String toString() {
+            return String.format("active=%d idle=%d waiters=%d total=%d/%d borrows=%d avgBorrow=%.3fms maxBorrow=%.3fms timeouts=%d created=%d evicted=%d stmtHits=%d stmtMisses=%d",
+                    active, idle, waiters, total, maxSize, borrows, avgBorrowNanos / 1e6, maxBorrowNanos / 1e6,
+                    timeouts, created, evicted, statementHits, statementMisses);
+        }
+    }
+
+    // One physical connection. Each borrow gets a fresh proxy so a stale
+    // reference closed twice cannot return the connection a second time.
+    private class PooledConnection {
+        final Connection physical;
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastReturnedAt = createdAt;
+        volatile boolean broken = false;
+        // only touched by the current borrower; statements in use are taken out
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+
+        PooledConnection(Connection physical) { this.physical = physical; }
+
+        private boolean cacheable(Method m, Object[] args) {
+            if (statementCacheSize <= 0 || !"prepareStatement".equals(m.getName())) return false;
+            Class<?>[] types = m.getParameterTypes();
+            return types.length == 1 || (types.length == 2 && types[1] == int.class);
+        }
+
+        private PreparedStatement checkOut(Connection lease, Method m, Object[] args) throws Throwable {
+            String key = args.length == 1 ? (String) args[0] : args[1] + "|" + args[0];
+            PreparedStatement ps = statements.remove(key);
+            if (ps != null && !ps.isClosed()) {
+                statementHits.incrementAndGet();
+            } else {
+                statementMisses.incrementAndGet();
+                ps = (PreparedStatement) invokePhysical(m, args);
+            }
+            return cachedProxy(lease, key, ps);
+        }
+
+        private void checkIn(String key, PreparedStatement ps) {
+            try {
+                ResultSet open = ps.getResultSet();
+                if (open != null) open.close();
+                ps.clearParameters();
+                ps.clearBatch();
+            } catch (SQLException ex) {
+                closeQuietly(ps);
+                return;
+            }
+            PreparedStatement other = statements.put(key, ps);
+            if (other != null && other != ps) closeQuietly(other); // a second copy was checked out meanwhile
+        }
+
+        private PreparedStatement cachedProxy(Connection lease, String key, PreparedStatement ps) {
+            InvocationHandler h = new InvocationHandler() {
+                private boolean closed = false;
+
+                @Override
+                public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                    String name = m.getName();
+                    if ("close".equals(name)) {
+                        if (closed) return null;
+                        closed = true;
+                        // after the connection went back to the pool another borrower owns the cache
+                        if (lease.isClosed()) closeQuietly(ps); else checkIn(key, ps);
+                        return null;
+                    }
+                    if ("isClosed".equals(name)) return closed;
+                    if ("getConnection".equals(name)) return lease;
+                    if ("equals".equals(name)) return proxy == args[0];
+                    if ("hashCode".equals(name)) return System.identityHashCode(proxy);
+                    if ("toString".equals(name)) return "Cached[" + ps + "]";
+                    if (closed) throw new SQLException("Statement already closed");
+                    try {
+                        return m.invoke(ps, args);
+                    } catch (InvocationTargetException ite) {
+                        throw markIfBroken(ite.getCause());
+                    }
+                }
+            };
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, h);
+        }
+
+        private Object invokePhysical(Method m, Object[] args) throws Throwable {
+            try {
+                return m.invoke(physical, args);
+            } catch (InvocationTargetException ite) {
+                throw markIfBroken(ite.getCause());
+            }
+        }
+
+        // connection-level failures (SQLState class 08) mean the socket is gone
+        private Throwable markIfBroken(Throwable cause) {
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.startsWith("08")) broken = true;
+            }
+            return cause;
+        }
+
+        Connection lease() {
+            InvocationHandler h = new InvocationHandler() {
+                private boolean returned = false;
+
+                @Override
+                public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+                    String name = m.getName();
+                    if ("close".equals(name)) {
+                        if (!returned) { returned = true; giveBack(PooledConnection.this); }
+                        return null;
+                    }
+                    if ("isClosed".equals(name)) return returned || physical.isClosed();
+                    if ("equals".equals(name)) return proxy == args[0];
+                    if ("hashCode".equals(name)) return System.identityHashCode(proxy);
+                    if ("toString".equals(name)) return "Pooled[" + physical + "]";
+                    if (returned) throw new SQLException("Connection already returned to the pool");
+                    if (cacheable(m, args)) return checkOut((Connection) proxy, m, args);
+                    return invokePhysical(m, args);
+                }
+            };
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, h);
+        }
+    }
+}
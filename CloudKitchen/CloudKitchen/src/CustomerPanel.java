@@ -1,7 +1,6 @@
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.sql.*;
 
 public class CustomerPanel extends JPanel {
     private final JTable table;
@@ -14,10 +13,11 @@ public class CustomerPanel extends JPanel {
     private final JLabel trackingTitle = new JLabel("No active tracking", SwingConstants.CENTER);
     private final JLabel trackingStatus = new JLabel(" ", SwingConstants.CENTER);
     private final JProgressBar trackingBar = new JProgressBar();
-    private Timer trackingTimer;
+    private OrderEventBus.Subscription trackingSub;
     private Integer trackingOrderId = null;
+    private String trackedStatus = null; // last status shown for trackingOrderId
 
-    public CustomerPanel(MainApp app, JTable table, DefaultTableModel model) {
+    public CustomerPanel(MainApp app, JTable table, MenuTableModel model) {
         super(new BorderLayout());
         JLabel lbl = new JLabel("Customer - Menu", SwingConstants.CENTER);
         lbl.setFont(lbl.getFont().deriveFont(Font.BOLD, 18f));
@@ -48,7 +48,10 @@ public class CustomerPanel extends JPanel {
         JScrollPane spMenu = new JScrollPane(table);
         spMenu.setViewportView(table);
         spMenu.setColumnHeaderView(table.getTableHeader());
-        add(spMenu, BorderLayout.CENTER);
+        JPanel menu = new JPanel(new BorderLayout());
+        menu.add(MainApp.menuFilterBar(model), BorderLayout.NORTH);
+        menu.add(spMenu, BorderLayout.CENTER);
+        add(menu, BorderLayout.CENTER);
 
         // Right sidebar: recent orders
         JPanel right = new JPanel(new BorderLayout(6,6));
@@ -103,46 +106,71 @@ public class CustomerPanel extends JPanel {
     public JTable getTable() { return table; }
 
     public void refreshOrders(MainApp app) {
-        ordersModel.setRowCount(0);
         int uid = app.getCurrentUserId();
-        if (uid <= 0) return;
-        String sql = "SELECT id, total, status, created_at FROM orders WHERE user_id=? ORDER BY created_at DESC LIMIT 20";
-        try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, uid);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    ordersModel.addRow(new Object[]{ rs.getInt(1), rs.getDouble(2), rs.getString(3), rs.getTimestamp(4) });
-                }
+        if (uid <= 0) { ordersModel.setRowCount(0); return; }
+        app.getUiScope().run(() -> app.getService().listRecentOrders(uid, 20), orders -> {
+            ordersModel.setRowCount(0);
+            for (KitchenService.OrderSummary o : orders) {
+                ordersModel.addRow(new Object[]{ o.id, o.total, o.status, o.created });
             }
-        } catch (SQLException ex) {
-            // show non-intrusive error
-        }
+        }, ex -> {
+            // non-intrusive: log it and keep the last list on screen
+            Metrics.increment("ui.refreshOrders.failed");
+            ex.printStackTrace();
+        });
     }
 
     public void startTracking(MainApp app, int orderId) {
-        // stop previous timer if any
-        if (trackingTimer != null) trackingTimer.stop();
+        // drop the previous subscription if any
+        stopTracking();
         trackingOrderId = orderId;
+        trackedStatus = null;
         trackingTitle.setText("Tracking Order " + orderId);
         trackingStatus.setText("Checking...");
         trackingBar.setIndeterminate(true);
         trackingBar.setValue(0);
 
-        trackingTimer = new Timer(2000, e -> {
-            try {
-                String st = app.fetchOrderStatus(orderId);
-                if (st == null) st = "UNKNOWN";
-                trackingStatus.setText("Status: " + st);
-                if ("COMPLETED".equalsIgnoreCase(st)) {
-                    trackingBar.setIndeterminate(false);
-                    trackingBar.setValue(100);
-                    trackingTimer.stop();
-                }
-            } catch (SQLException ex) {
-                trackingStatus.setText("Error: " + ex.getMessage());
-                trackingTimer.stop();
+        // subscribe first so a change racing the initial read is not missed
+        trackingSub = OrderEventBus.get().subscribe(orderId, new OrderEventBus.Listener() {
+            @Override public void onEvent(OrderEventBus.OrderEvent e) {
+                SwingUtilities.invokeLater(() -> showTrackedStatus(app, orderId, e.status));
+            }
+            // the broker link dropped: pushed changes may have been missed
+            @Override public void onResync() {
+                SwingUtilities.invokeLater(() -> readTrackedStatus(app, orderId));
             }
         });
-        trackingTimer.start();
+        readTrackedStatus(app, orderId);
+    }
+
+    private void readTrackedStatus(MainApp app, int orderId) {
+        if (trackingOrderId == null || trackingOrderId != orderId) return;
+        app.getUiScope().run(() -> app.getService().fetchOrderStatus(orderId),
+                st -> showTrackedStatus(app, orderId, st == null ? "UNKNOWN" : st),
+                ex -> {
+                    if (trackingOrderId == null || trackingOrderId != orderId) return;
+                    trackingStatus.setText("Error: " + ex.getMessage());
+                    stopTracking();
+                });
+    }
+
+    public void stopTracking() {
+        if (trackingSub != null) {
+            trackingSub.close();
+            trackingSub = null;
+        }
+    }
+
+    private void showTrackedStatus(MainApp app, int orderId, String st) {
+        if (trackingOrderId == null || trackingOrderId != orderId) return;
+        // a read that lagged behind a pushed event mustn't put the status back
+        if (!app.getService().stateMachine().supersedes(st, trackedStatus)) return;
+        trackedStatus = st;
+        trackingStatus.setText("Status: " + st);
+        if (OrderStatus.isTerminal(st)) {
+            trackingBar.setIndeterminate(false);
+            trackingBar.setValue(100);
+            stopTracking();
+        }
     }
 }
@@ -1,14 +1,26 @@
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DBUtil {
     // Configuration can be provided via environment variables:
     // CLOUDKITCHEN_DB_URL, CLOUDKITCHEN_DB_USER, CLOUDKITCHEN_DB_PASS
     // Falls back to the defaults below if env vars are not set.
+    // Custom URLs should keep rewriteBatchedStatements=true so JDBC batches go out as one statement,
+    // and useServerPrepStmts=true so the pool's cached statements are parsed by the server only once.
     private static final String URL = firstNonEmpty(
             System.getenv("CLOUDKITCHEN_DB_URL"),
-            "jdbc:mysql://localhost:3306/cloud_kitchen?useSSL=false&serverTimezone=UTC"
+            "jdbc:mysql://localhost:3306/cloud_kitchen?useSSL=false&serverTimezone=UTC&rewriteBatchedStatements=true&useServerPrepStmts=true"
     );
     private static final String USER = firstNonEmpty(
             System.getenv("CLOUDKITCHEN_DB_USER"),
@@ -19,20 +31,277 @@ public class DBUtil {
             "asdfghjkl;'"
     );
 
+    // Pool tuning (all optional):
+    // CLOUDKITCHEN_DB_POOL_MAX            max open connections (default 10)
+    // CLOUDKITCHEN_DB_POOL_TIMEOUT_MS     how long getConnection() waits for a free one (default 5000)
+    // CLOUDKITCHEN_DB_POOL_IDLE_MS        idle connections older than this are closed (default 600000)
+    // CLOUDKITCHEN_DB_POOL_LIFETIME_MS    connections are recycled after this age (default 1800000)
+    // CLOUDKITCHEN_DB_POOL_VALIDATE_MS    validate on borrow if idle longer than this (default 5000)
+    // CLOUDKITCHEN_DB_STMT_CACHE          prepared statements kept per connection, 0 = off (default 64)
+    private static final ConnectionPool POOL;
+
+    // Read replicas (optional). Reads that can live with a little lag go to the
+    // least busy healthy replica; everything else, and any read of something
+    // this process wrote within the stickiness window, goes to the primary.
+    // CLOUDKITCHEN_DB_REPLICA_URLS        comma-separated JDBC URLs, same user/password as the primary
+    // CLOUDKITCHEN_DB_REPLICA_POOL_MAX    max open connections per replica (default: CLOUDKITCHEN_DB_POOL_MAX)
+    // CLOUDKITCHEN_DB_REPLICA_MAX_LAG_MS  a replica further behind than this is skipped (default 5000)
+    // CLOUDKITCHEN_DB_REPLICA_CHECK_MS    how often replicas are probed (default 2000)
+    // CLOUDKITCHEN_DB_STICKY_MS           reads of a key written this recently use the primary
+    //                                     (default: max lag + 1 s, as lag is reported in whole seconds)
+    // Stickiness is per process: a write on another terminal is only seen once the replica has it.
+    public static final String MENU_KEY = "menu";
+
+    private static final List<Replica> REPLICAS = new ArrayList<>();
+    private static final AtomicInteger NEXT_REPLICA = new AtomicInteger();
+    private static final Map<String, Long> LAST_WRITE = new ConcurrentHashMap<>();
+    private static final AtomicInteger WRITES = new AtomicInteger();
+    private static final long MAX_LAG_MS = intEnv("CLOUDKITCHEN_DB_REPLICA_MAX_LAG_MS", 5_000);
+    private static final long STICKY_MS = intEnv("CLOUDKITCHEN_DB_STICKY_MS", (int) MAX_LAG_MS + 1_000);
+
+    private static final class Replica {
+        final String url;
+        final ConnectionPool pool;
+        volatile boolean healthy;   // false until the first probe succeeds
+        volatile long lagMs = -1;   // -1 while unknown
+        volatile String problem;
+
+        Replica(String url, ConnectionPool pool) {
+            this.url = url;
+            this.pool = pool;
+        }
+
+        int load() {
+            ConnectionPool.Stats st = pool.stats();
+            return st.active + st.waiters;
+        }
+    }
+
     static {
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
         } catch (ClassNotFoundException ex) {
             ex.printStackTrace();
         }
+        POOL = new ConnectionPool(URL, USER, PASS,
+                intEnv("CLOUDKITCHEN_DB_POOL_MAX", 10),
+                intEnv("CLOUDKITCHEN_DB_POOL_TIMEOUT_MS", 5_000),
+                intEnv("CLOUDKITCHEN_DB_POOL_IDLE_MS", 600_000),
+                intEnv("CLOUDKITCHEN_DB_POOL_LIFETIME_MS", 1_800_000),
+                intEnv("CLOUDKITCHEN_DB_POOL_VALIDATE_MS", 5_000),
+                intEnv("CLOUDKITCHEN_DB_STMT_CACHE", 64));
+        Runtime.getRuntime().addShutdownHook(new Thread(POOL::close, "db-pool-shutdown"));
+
+        String replicas = System.getenv("CLOUDKITCHEN_DB_REPLICA_URLS");
+        if (replicas != null && !replicas.trim().isEmpty()) {
+            for (String url : replicas.split("\\s*,\\s*")) {
+                if (url.trim().isEmpty()) continue;
+                ConnectionPool pool = new ConnectionPool(url.trim(), USER, PASS,
+                        intEnv("CLOUDKITCHEN_DB_REPLICA_POOL_MAX", intEnv("CLOUDKITCHEN_DB_POOL_MAX", 10)),
+                        intEnv("CLOUDKITCHEN_DB_POOL_TIMEOUT_MS", 5_000),
+                        intEnv("CLOUDKITCHEN_DB_POOL_IDLE_MS", 600_000),
+                        intEnv("CLOUDKITCHEN_DB_POOL_LIFETIME_MS", 1_800_000),
+                        intEnv("CLOUDKITCHEN_DB_POOL_VALIDATE_MS", 5_000),
+                        intEnv("CLOUDKITCHEN_DB_STMT_CACHE", 64));
+                REPLICAS.add(new Replica(url.trim(), pool));
+                Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "db-pool-shutdown"));
+            }
+            ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "db-replica-check");
+                t.setDaemon(true);
+                return t;
+            });
+            checker.scheduleWithFixedDelay(DBUtil::probeReplicas, 0,
+                    intEnv("CLOUDKITCHEN_DB_REPLICA_CHECK_MS", 2_000), TimeUnit.MILLISECONDS);
+        }
     }
 
+    // Borrows a pooled connection; close() hands it back to the pool.
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASS);
+        long t = Metrics.start();
+        try {
+            Connection c = POOL.borrow();
+            Metrics.stop("db.acquire", t);
+            return c;
+        } catch (SQLException ex) {
+            Metrics.error("db.acquire");
+            throw ex;
+        }
+    }
+
+    // A connection for a read that may be slightly stale: a replica if one is
+    // healthy, otherwise the primary. Don't write through it: a replica
+    // connection is read-only, so a misrouted write fails instead of landing
+    // on a replica.
+    public static Connection getReadConnection() throws SQLException {
+        return getReadConnection(null);
+    }
+
+    // Same, but on the primary if 'key' was written by this process within the
+    // stickiness window, so e.g. a customer sees the order they just placed.
+    public static Connection getReadConnection(String key) throws SQLException {
+        if (REPLICAS.isEmpty()) return getConnection();
+        if (key != null) {
+            Long at = LAST_WRITE.get(key);
+            if (at != null && System.currentTimeMillis() - at < STICKY_MS) {
+                Metrics.increment("db.read.sticky");
+                return getConnection();
+            }
+        }
+        Replica r = pickReplica();
+        if (r == null) {
+            Metrics.increment("db.read.fallback");
+            return getConnection();
+        }
+        long t = Metrics.start();
+        try {
+            Connection c = r.pool.borrow();
+            try {
+                c.setReadOnly(true); // the pool resets it on return
+            } catch (SQLException ex) {
+                c.close();
+                throw ex;
+            }
+            Metrics.stop("db.acquire.replica", t);
+            return c;
+        } catch (SQLException ex) {
+            // unreachable: skip it until the next probe says otherwise
+            Metrics.error("db.acquire.replica");
+            r.healthy = false;
+            r.problem = ex.getMessage();
+            Metrics.increment("db.read.fallback");
+            return getConnection();
+        }
+    }
+
+    // Records a write so reads of 'key' stick to the primary for a while.
+    public static void recordWrite(String key) {
+        if (REPLICAS.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        LAST_WRITE.put(key, now);
+        if ((WRITES.incrementAndGet() & 1023) == 0) {
+            for (Iterator<Long> it = LAST_WRITE.values().iterator(); it.hasNext(); ) {
+                if (now - it.next() >= STICKY_MS) it.remove();
+            }
+        }
+    }
+
+    // How long after a write a replica may still not have it.
+    static long stickyMillis() { return STICKY_MS; }
+
+    public static String userKey(int userId) { return "user:" + userId; }
+
+    public static String orderKey(int orderId) { return "order:" + orderId; }
+
+    // Least busy healthy replica; ties go round-robin. Null if none is healthy.
+    private static Replica pickReplica() {
+        int n = REPLICAS.size();
+        int start = Math.floorMod(NEXT_REPLICA.getAndIncrement(), n);
+        Replica best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Replica r = REPLICAS.get((start + i) % n);
+            if (!r.healthy) continue;
+            int load = r.load();
+            if (load < bestLoad) {
+                best = r;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    // A replica is healthy if it answers and its replication is running and
+    // no more than MAX_LAG_MS behind. Without the REPLICATION CLIENT privilege
+    // the lag can't be read; such a replica is used as long as it answers.
+    private static void probeReplicas() {
+        for (Replica r : REPLICAS) {
+            boolean was = r.healthy;
+            try (Connection c = r.pool.borrow()) {
+                Long lag = replicationLagMs(c);
+                r.lagMs = lag == null ? -1 : lag;
+                r.healthy = lag != null && lag <= MAX_LAG_MS;
+                r.problem = lag == null ? "replication stopped" : r.healthy ? null : "lagging " + lag + " ms";
+            } catch (SQLException | RuntimeException ex) {
+                r.healthy = false;
+                r.problem = ex.getMessage();
+            }
+            if (was != r.healthy) {
+                ReplicaStats st = new ReplicaStats(r);
+                System.err.println("DB replica " + st.host + (st.healthy ? " in rotation" : " out of rotation: " + st.problem));
+            }
+        }
+    }
+
+    // Milliseconds behind the source; 0 if the server isn't replicating at all
+    // or the lag isn't visible to us; null if replication is configured but stopped.
+    private static Long replicationLagMs(Connection c) throws SQLException {
+        String[][] forms = {
+                {"SHOW REPLICA STATUS", "Seconds_Behind_Source"},  // MySQL 8.0.22+
+                {"SHOW SLAVE STATUS", "Seconds_Behind_Master"}};
+        for (String[] f : forms) {
+            try (PreparedStatement ps = c.prepareStatement(f[0]); ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return 0L;
+                long seconds = rs.getLong(f[1]);
+                return rs.wasNull() ? null : seconds * 1000;
+            } catch (SQLException ex) {
+                if (ex.getErrorCode() == 1227) return 0L; // access denied: no REPLICATION CLIENT
+                if (ex.getErrorCode() != 1064) throw ex;  // syntax error: older server, try the old name
+            }
+        }
+        return 0L;
+    }
+
+    public static ConnectionPool.Stats poolStats() {
+        return POOL.stats();
+    }
+
+    public static final class ReplicaStats {
+        public final String host;     // URL without its query string
+        public final boolean healthy;
+        public final long lagMs;      // -1 if unknown
+        public final String problem;  // why it is out of rotation, null if healthy
+        public final ConnectionPool.Stats pool;
+
+        ReplicaStats(Replica r) {
+            this.host = r.url.replaceAll("\\?.*", "");
+            this.healthy = r.healthy;
+            this.lagMs = r.lagMs;
+            this.problem = r.problem;
+            this.pool = r.pool.stats();
+        }
+
+        @Override public String toString() {
+            return host + (healthy ? " healthy" : " DOWN (" + problem + ")") + " lag=" + (lagMs < 0 ? "?" : lagMs + "ms") + " " + pool;
+        }
+    }
+
+    public static List<ReplicaStats> replicaStats() {
+        List<ReplicaStats> out = new ArrayList<>(REPLICAS.size());
+        for (Replica r : REPLICAS) out.add(new ReplicaStats(r));
+        return out;
     }
 
     private static String firstNonEmpty(String a, String b) {
         if (a != null && !a.trim().isEmpty()) return a;
         return b;
     }
+
+    // Like intEnv, but a value outside min..max is reported and replaced by the default.
+    static int intEnv(String name, int def, int min, int max) {
+        int v = intEnv(name, def);
+        if (v >= min && v <= max) return v;
+        System.err.println("Ignoring " + name + "=" + v + ": expected " + min + ".." + max + ", using " + def);
+        return def;
+    }
+
+    static int intEnv(String name, int def) {
+        String v = System.getenv(name);
+        if (v == null || v.trim().isEmpty()) return def;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException ex) {
+            return def;
+        }
+    }
 }
@@ -0,0 +1,90 @@
+import javax.swing.SwingUtilities;
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Runs blocking JDBC work off the Swing Event Dispatch Thread and hands results
+// back to it. Uses virtual threads when the JVM has them (21+), otherwise a
+// small daemon pool; either way DBUtil's pool bounds real DB concurrency.
+public final class DataAccess {
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private DataAccess() {}
+
+    public static ExecutorService executor() { return EXECUTOR; }
+
+    public static <T> CompletableFuture<T> supply(Task<T> task) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        EXECUTOR.execute(() -> {
+            if (f.isDone()) return; // cancelled before it started
+            try {
+                f.complete(task.run());
+            } catch (Throwable t) {
+                f.completeExceptionally(t);
+            }
+        });
+        return f;
+    }
+
+    // Delivers the outcome on the EDT. Nothing is delivered if the future was cancelled.
+    public static <T> CompletableFuture<T> onEdt(CompletableFuture<T> f, Consumer<? super T> ok, Consumer<Throwable> err) {
+        f.whenComplete((v, t) -> SwingUtilities.invokeLater(() -> {
+            if (f.isCancelled()) return;
+            if (t == null) ok.accept(v);
+            else if (!(unwrap(t) instanceof CancellationException)) err.accept(unwrap(t));
+        }));
+        return f;
+    }
+
+    public static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) t = t.getCause();
+        return t;
+    }
+
+    // Tracks the in-flight work of one screen so it can be dropped when the
+    // user logs out or switches cards. Running JDBC calls finish in the
+    // background but their results are discarded.
+    public static final class Scope {
+        private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+        public <T> CompletableFuture<T> track(CompletableFuture<T> f) {
+            inFlight.add(f);
+            f.whenComplete((v, t) -> inFlight.remove(f));
+            return f;
+        }
+
+        public <T> CompletableFuture<T> run(Task<T> task, Consumer<? super T> ok, Consumer<Throwable> err) {
+            return onEdt(track(supply(task)), ok, err);
+        }
+
+        public void cancelAll() {
+            for (CompletableFuture<?> f : inFlight) f.cancel(false);
+            inFlight.clear();
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "data-access-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
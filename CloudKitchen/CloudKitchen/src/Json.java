@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough JSON for the HTTP endpoints: a writer for strings and a small
+// parser producing Map / List / String / Double / Boolean / null.
+public final class Json {
+    private Json() {}
+
+    public static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public static Object parse(String text) {
+        Parser p = new Parser(text);
+        Object v = p.value();
+        p.skipWs();
+        if (p.pos != text.length()) throw p.error("trailing characters");
+        return v;
+    }
+
+    private static final class Parser {
+        final String s;
+        int pos = 0;
+
+        Parser(String s) { this.s = s; }
+
+        Object value() {
+            skipWs();
+            if (pos >= s.length()) throw error("unexpected end");
+            char c = s.charAt(pos);
+            switch (c) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                case 't': literal("true"); return Boolean.TRUE;
+                case 'f': literal("false"); return Boolean.FALSE;
+                case 'n': literal("null"); return null;
+                default: return number();
+            }
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            pos++;
+            skipWs();
+            if (peek() == '}') { pos++; return m; }
+            while (true) {
+                skipWs();
+                if (peek() != '"') throw error("expected key");
+                String k = string();
+                skipWs();
+                expect(':');
+                m.put(k, value());
+                skipWs();
+                if (peek() == ',') { pos++; continue; }
+                expect('}');
+                return m;
+            }
+        }
+
+        List<Object> array() {
+            List<Object> l = new ArrayList<>();
+            pos++;
+            skipWs();
+            if (peek() == ']') { pos++; return l; }
+            while (true) {
+                l.add(value());
+                skipWs();
+                if (peek() == ',') { pos++; continue; }
+                expect(']');
+                return l;
+            }
+        }
+
+        String string() {
+            pos++; // opening quote
+            StringBuilder sb = new StringBuilder();
+            while (pos < s.length()) {
+                char c = s.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') { sb.append(c); continue; }
+                if (pos >= s.length()) break;
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > s.length()) throw error("bad unicode escape");
+                        sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        Double number() {
+            int start = pos;
+            while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) pos++;
+            if (start == pos) throw error("unexpected character");
+            try {
+                return Double.valueOf(s.substring(start, pos));
+            } catch (NumberFormatException ex) {
+                throw error("bad number");
+            }
+        }
+
+        void literal(String word) {
+            if (!s.startsWith(word, pos)) throw error("expected " + word);
+            pos += word.length();
+        }
+
+        void expect(char c) {
+            if (peek() != c) throw error("expected '" + c + "'");
+            pos++;
+        }
+
+        char peek() { return pos < s.length() ? s.charAt(pos) : '\0'; }
+
+        void skipWs() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException("Invalid JSON at " + pos + ": " + msg);
+        }
+    }
+}
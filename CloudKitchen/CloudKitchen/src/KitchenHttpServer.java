@@ -0,0 +1,337 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// JSON-over-HTTP front end for KitchenService, for web and mobile ordering.
+//   GET    /menu                -> current menu, with option groups and their choice indices
+//   POST   /sessions            -> {"email":..,"password":..} gives 201 {"token":..,"userId":..,"role":..}
+//   DELETE /sessions            -> signs the bearer token out
+//   POST   /orders              -> {"lines":[{"menuId":3,"qty":2,"choices":[1,4]}]}
+//                                  ("option":"Large" by name still works for single-choice dishes)
+//                                  201 with the order id, or 202 {"reference":..,"status":"QUEUED"}
+//                                  when the order journal accepted it but the database hasn't yet
+//   GET    /orders/{id}/status  -> {"orderId":..,"status":".."}
+//   GET    /orders/by-reference/{reference}
+//                               -> {"reference":..,"status":"QUEUED"}, {..,"status":"REJECTED","reason":..},
+//                                  or {..,"status":..,"orderId":..} once the order is stored
+//   GET    /metrics             -> Prometheus text (see Metrics)
+// /orders needs "Authorization: Bearer <token>" from POST /sessions. Orders are
+// placed for the token's user, and a customer only sees their own orders.
+// 401 means no or an expired session; another customer's order is a 404.
+// Requests run on DataAccess's executor (virtual threads on 21+).
+// Start with: java KitchenHttpServer [port]   (or CLOUDKITCHEN_HTTP_PORT, default 8080)
+public class KitchenHttpServer {
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+
+    private final KitchenService service;
+    private final HttpServer server;
+    // menu JSON is rebuilt only when the catalog version changes
+    private volatile long menuVersion = -1;
+    private volatile byte[] menuJson;
+
+    public KitchenHttpServer(KitchenService service, int port) throws IOException {
+        this.service = service;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/menu", this::handleMenu);
+        server.createContext("/sessions", this::handleSessions);
+        server.createContext("/orders", this::handleOrders);
+        server.createContext("/metrics", this::handleMetrics);
+        server.setExecutor(DataAccess.executor());
+    }
+
+    public void start() { server.start(); }
+
+    public void stop() { server.stop(1); }
+
+    public int port() { return server.getAddress().getPort(); }
+
+    private void handleMenu(HttpExchange ex) throws IOException {
+        try (HttpExchange e = ex) {
+            if (!"GET".equals(e.getRequestMethod())) { send(e, 405, error("GET only")); return; }
+            MenuCatalog catalog;
+            try {
+                catalog = service.catalog();
+            } catch (SQLException sqle) {
+                send(e, 503, error("Database unavailable"));
+                return;
+            }
+            byte[] body = menuJson;
+            if (body == null || menuVersion != catalog.version()) {
+                body = menuToJson(catalog).getBytes(StandardCharsets.UTF_8);
+                menuJson = body;
+                menuVersion = catalog.version();
+            }
+            send(e, 200, body);
+        }
+    }
+
+    private void handleMetrics(HttpExchange ex) throws IOException {
+        try (HttpExchange e = ex) {
+            byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            e.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            e.sendResponseHeaders(200, body.length);
+            try (OutputStream out = e.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private void handleSessions(HttpExchange ex) throws IOException {
+        try (HttpExchange e = ex) {
+            try {
+                sessions(e);
+            } catch (SQLException sqle) {
+                send(e, 503, error("Database unavailable"));
+            }
+        }
+    }
+
+    private void sessions(HttpExchange e) throws IOException, SQLException {
+        if ("POST".equals(e.getRequestMethod())) {
+            String email, password;
+            try {
+                Object parsed = Json.parse(readBody(e));
+                if (!(parsed instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+                Map<?, ?> req = (Map<?, ?>) parsed;
+                email = stringField(req, "email");
+                password = stringField(req, "password");
+            } catch (IllegalArgumentException bad) {
+                send(e, 400, error(bad.getMessage()));
+                return;
+            }
+            KitchenService.User user = service.login(email, password);
+            if (user == null) { send(e, 401, error("Invalid login")); return; }
+            send(e, 201, ("{\"token\":" + Json.quote(user.sessionToken) + ",\"userId\":" + user.id
+                    + ",\"role\":" + Json.quote(user.role) + "}").getBytes(StandardCharsets.UTF_8));
+        } else if ("DELETE".equals(e.getRequestMethod())) {
+            String token = bearer(e);
+            if (token != null) service.logout(token);
+            send(e, 200, "{}".getBytes(StandardCharsets.UTF_8));
+        } else {
+            send(e, 405, error("POST or DELETE only"));
+        }
+    }
+
+    private void handleOrders(HttpExchange ex) throws IOException {
+        try (HttpExchange e = ex) {
+            KitchenService.User user;
+            try {
+                user = service.resumeSession(bearer(e));
+            } catch (SQLException sqle) {
+                send(e, 503, error("Database unavailable"));
+                return;
+            }
+            if (user == null) {
+                e.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                send(e, 401, error("Sign in with POST /sessions and send the token as a Bearer header"));
+                return;
+            }
+            String path = e.getRequestURI().getPath();
+            String[] parts = path.split("/");
+            // "/orders" -> ["", "orders"]; "/orders/12/status" -> ["", "orders", "12", "status"]
+            if (parts.length == 2 && "POST".equals(e.getRequestMethod())) {
+                placeOrder(e, user);
+            } else if (parts.length == 4 && "by-reference".equals(parts[2]) && "GET".equals(e.getRequestMethod())) {
+                orderByReference(e, user, parts[3]);
+            } else if (parts.length == 4 && "status".equals(parts[3]) && "GET".equals(e.getRequestMethod())) {
+                orderStatus(e, user, parts[2]);
+            } else {
+                send(e, 404, error("Not found"));
+            }
+        }
+    }
+
+    // The token from "Authorization: Bearer <token>", or null.
+    private static String bearer(HttpExchange e) {
+        String h = e.getRequestHeaders().getFirst("Authorization");
+        if (h == null || !h.regionMatches(true, 0, "Bearer ", 0, 7)) return null;
+        String token = h.substring(7).trim();
+        return token.isEmpty() ? null : token;
+    }
+
+    private void placeOrder(HttpExchange e, KitchenService.User user) throws IOException {
+        int userId = user.id;
+        List<OrderDao.Line> lines = new ArrayList<>();
+        try {
+            Object parsed = Json.parse(readBody(e));
+            if (!(parsed instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+            Map<?, ?> req = (Map<?, ?>) parsed;
+            // older clients still send userId; it has to be the signed-in user
+            if (req.get("userId") != null && intField(req, "userId") != userId) {
+                send(e, 403, error("Orders can only be placed for the signed-in user"));
+                return;
+            }
+            Object ls = req.get("lines");
+            if (!(ls instanceof List)) throw new IllegalArgumentException("'lines' must be an array");
+            for (Object o : (List<?>) ls) {
+                if (!(o instanceof Map)) throw new IllegalArgumentException("Each line must be an object");
+                Map<?, ?> l = (Map<?, ?>) o;
+                Object choices = l.get("choices");
+                if (choices != null) {
+                    if (!(choices instanceof List)) throw new IllegalArgumentException("'choices' must be an array");
+                    List<?> cs = (List<?>) choices;
+                    int[] sel = new int[cs.size()];
+                    for (int i = 0; i < sel.length; i++) {
+                        if (!(cs.get(i) instanceof Double)) throw new IllegalArgumentException("'choices' must hold numbers");
+                        sel[i] = ((Double) cs.get(i)).intValue();
+                    }
+                    lines.add(new OrderDao.Line(intField(l, "menuId"), intField(l, "qty"), sel));
+                } else {
+                    Object opt = l.get("option");
+                    lines.add(new OrderDao.Line(intField(l, "menuId"), intField(l, "qty"), opt == null ? null : opt.toString()));
+                }
+            }
+        } catch (IllegalArgumentException bad) {
+            send(e, 400, error(bad.getMessage()));
+            return;
+        }
+        try {
+            OrderDao.Placed placed = service.placeOrder(userId, lines);
+            if (placed.isQueued()) {
+                send(e, 202, ("{\"reference\":" + Json.quote(placed.reference) + ",\"total\":" + placed.total
+                        + ",\"status\":\"QUEUED\"}").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            send(e, 201, ("{\"orderId\":" + placed.orderId + ",\"total\":" + placed.total + ",\"status\":\"PENDING\"}")
+                    .getBytes(StandardCharsets.UTF_8));
+        } catch (OrderRejectedException rejected) {
+            send(e, 422, error(rejected.getMessage()));
+        } catch (SQLException sqle) {
+            send(e, 503, error("Order could not be stored: " + sqle.getMessage()));
+        }
+    }
+
+    private void orderStatus(HttpExchange e, KitchenService.User user, String idText) throws IOException {
+        int orderId;
+        try {
+            orderId = Integer.parseInt(idText);
+        } catch (NumberFormatException nfe) {
+            send(e, 400, error("Bad order id"));
+            return;
+        }
+        try {
+            String status = user.isAdmin() ? service.fetchOrderStatus(orderId) : service.fetchOwnOrderStatus(orderId, user.id);
+            if (status == null) { send(e, 404, error("No such order")); return; }
+            send(e, 200, ("{\"orderId\":" + orderId + ",\"status\":" + Json.quote(status) + "}").getBytes(StandardCharsets.UTF_8));
+        } catch (SQLException sqle) {
+            send(e, 503, error("Database unavailable"));
+        }
+    }
+
+    private void orderByReference(HttpExchange e, KitchenService.User user, String reference) throws IOException {
+        try {
+            KitchenService.ReferenceStatus s = service.orderByReference(reference, user);
+            if (s == null) { send(e, 404, error("No such order")); return; }
+            StringBuilder sb = new StringBuilder("{\"reference\":").append(Json.quote(reference))
+                    .append(",\"status\":").append(Json.quote(s.status));
+            if (s.orderId > 0) sb.append(",\"orderId\":").append(s.orderId);
+            if (s.reason != null) sb.append(",\"reason\":").append(Json.quote(s.reason));
+            send(e, 200, sb.append('}').toString().getBytes(StandardCharsets.UTF_8));
+        } catch (SQLException sqle) {
+            send(e, 503, error("Database unavailable"));
+        }
+    }
+
+    static String menuToJson(MenuCatalog catalog) {
+        StringBuilder sb = new StringBuilder(64 + catalog.size() * 96);
+        sb.append("{\"version\":").append(catalog.version()).append(",\"items\":[");
+        boolean first = true;
+        for (MenuCatalog.Item it : catalog.items()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append("{\"id\":").append(it.id)
+              .append(",\"name\":").append(Json.quote(it.name))
+              .append(",\"price\":").append(it.price)
+              .append(",\"available\":").append(it.available)
+              .append(",\"options\":[");
+            // flat choice names, kept for clients that predate optionGroups
+            for (int i = 0; i < it.optionCount(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(Json.quote(it.option(i)));
+            }
+            sb.append("],\"optionGroups\":[");
+            MenuOptions opts = it.options;
+            for (int g = 0; g < opts.groupCount(); g++) {
+                MenuOptions.Group group = opts.group(g);
+                if (g > 0) sb.append(',');
+                sb.append("{\"name\":").append(Json.quote(group.name))
+                  .append(",\"min\":").append(group.min)
+                  .append(",\"max\":").append(group.max)
+                  .append(",\"choices\":[");
+                for (int c = 0; c < group.size(); c++) {
+                    if (c > 0) sb.append(',');
+                    sb.append("{\"index\":").append(opts.indexOf(g, c))
+                      .append(",\"name\":").append(Json.quote(group.choice(c).name))
+                      .append(",\"priceDelta\":").append(group.choice(c).priceDelta).append('}');
+                }
+                sb.append("]}");
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static int intField(Map<?, ?> m, String name) {
+        Object v = m.get(name);
+        if (!(v instanceof Double)) throw new IllegalArgumentException("'" + name + "' must be a number");
+        double d = (Double) v;
+        if (d != Math.rint(d)) throw new IllegalArgumentException("'" + name + "' must be an integer");
+        return (int) d;
+    }
+
+    private static String stringField(Map<?, ?> m, String name) {
+        Object v = m.get(name);
+        if (!(v instanceof String) || ((String) v).isEmpty()) throw new IllegalArgumentException("'" + name + "' is required");
+        return (String) v;
+    }
+
+    private static String readBody(HttpExchange e) throws IOException {
+        try (InputStream in = e.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                if (out.size() > MAX_BODY_BYTES) throw new IllegalArgumentException("Request body too large");
+            }
+            return out.toString(StandardCharsets.UTF_8.name());
+        }
+    }
+
+    private static byte[] error(String msg) {
+        return ("{\"error\":" + Json.quote(msg) + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange e, int code, byte[] body) throws IOException {
+        e.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        e.sendResponseHeaders(code, body.length);
+        try (OutputStream out = e.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String env = System.getenv("CLOUDKITCHEN_HTTP_PORT");
+        int port = args.length > 0 ? Integer.parseInt(args[0])
+                : env != null && !env.trim().isEmpty() ? Integer.parseInt(env.trim()) : 8080;
+        try {
+            Migrations.migrateAtStartup();
+        } catch (SQLException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+        KitchenHttpServer http = new KitchenHttpServer(new KitchenService(), port);
+        http.start();
+        System.out.println("Cloud Kitchen HTTP API listening on " + http.port());
+    }
+}
@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// In-memory scheduler for the kitchen display. Every open ticket (PENDING or
+// PREPARING) is kept here and updated incrementally from order events, so the
+// "what to cook next" list never goes back to the database.
+//
+// A ticket's latest start is its promised time minus its prep estimate. Waiting
+// tickets sit in one indexed min-heap per station keyed on that, so adding,
+// re-keying or removing one is O(log n). Across stations the next ticket is the
+// one with the least slack: latest start minus the work already cooking at its
+// station, which is what a busy station has to get through first.
+//
+// Estimates come from the environment:
+//   CLOUDKITCHEN_PREP_MINUTES   per-dish prep, e.g. "3=15,7=4" (others use the default)
+//   CLOUDKITCHEN_STATIONS       dish -> station, e.g. "grill=1,2,3;cold=7,8" (others: "main")
+//   CLOUDKITCHEN_PROMISE_MINUTES  promised time after the order is placed (default 45)
+public final class KitchenQueue {
+    public static final String DEFAULT_STATION = "main";
+    static final int DEFAULT_PREP_MINUTES = 10;
+    // each extra portion beyond the longest line adds plating/batch time
+    static final long EXTRA_PORTION_MILLIS = 60_000;
+
+    public static final class Ticket {
+        public final int orderId;
+        public final int userId;
+        public final OrderStatus status;
+        public final long createdAt;
+        public final long promisedAt;
+        public final long prepMillis;
+        public final String station;
+
+        Ticket(int orderId, int userId, OrderStatus status, long createdAt, long promisedAt, long prepMillis, String station) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.status = status;
+            this.createdAt = createdAt;
+            this.promisedAt = promisedAt;
+            this.prepMillis = prepMillis;
+            this.station = station;
+        }
+
+        public long latestStart() { return promisedAt - prepMillis; }
+
+        Ticket withStatus(OrderStatus s) {
+            return new Ticket(orderId, userId, s, createdAt, promisedAt, prepMillis, station);
+        }
+    }
+
+    // One row of the display: the ticket plus when it has to start given its station's load.
+    public static final class Slot {
+        public final Ticket ticket;
+        public final long startBy;
+
+        Slot(Ticket ticket, long startBy) {
+            this.ticket = ticket;
+            this.startBy = startBy;
+        }
+    }
+
+    private final Map<Integer, Integer> prepMinutes;
+    private final Map<Integer, String> stations;
+    private final long promiseMillis;
+
+    private final Map<Integer, Ticket> tickets = new HashMap<>();
+    private final Map<String, Station> byStation = new TreeMap<>();
+
+    public KitchenQueue(Map<Integer, Integer> prepMinutes, Map<Integer, String> stations, int promiseMinutes) {
+        this.prepMinutes = new HashMap<>(prepMinutes);
+        this.stations = new HashMap<>(stations);
+        this.promiseMillis = promiseMinutes * 60_000L;
+    }
+
+    public static KitchenQueue fromEnv() {
+        Map<Integer, Integer> prep = new HashMap<>();
+        String p = System.getenv("CLOUDKITCHEN_PREP_MINUTES");
+        if (p != null && !p.trim().isEmpty()) {
+            for (String pair : p.split("\\s*,\\s*")) {
+                String[] kv = pair.split("\\s*=\\s*");
+                prep.put(Integer.parseInt(kv[0].trim()), Integer.parseInt(kv[1].trim()));
+            }
+        }
+        Map<Integer, String> st = new HashMap<>();
+        String s = System.getenv("CLOUDKITCHEN_STATIONS");
+        if (s != null && !s.trim().isEmpty()) {
+            for (String group : s.split("\\s*;\\s*")) {
+                String[] kv = group.split("\\s*=\\s*");
+                for (String id : kv[1].split("\\s*,\\s*")) st.put(Integer.parseInt(id.trim()), kv[0].trim());
+            }
+        }
+        String promise = System.getenv("CLOUDKITCHEN_PROMISE_MINUTES");
+        int minutes = promise == null || promise.trim().isEmpty() ? 45 : Integer.parseInt(promise.trim());
+        return new KitchenQueue(prep, st, minutes);
+    }
+
+    // Replaces everything with a fresh read of the open orders.
+    public synchronized void load(Collection<KitchenService.OpenOrder> open) {
+        tickets.clear();
+        byStation.clear();
+        for (KitchenService.OpenOrder o : open) put(o);
+    }
+
+    public synchronized void add(KitchenService.OpenOrder order) {
+        put(order);
+    }
+
+    // Applies a status change. Returns false if the order isn't known here yet
+    // (placed elsewhere), in which case the caller should add() it, from the
+    // PENDING event's lines or a read of the order.
+    public synchronized boolean onStatus(int orderId, String status) {
+        OrderStatus s = OrderStatus.parse(status);
+        Ticket t = tickets.get(orderId);
+        if (t == null) return s != OrderStatus.PENDING && s != OrderStatus.PREPARING;
+        remove(t);
+        if (s == OrderStatus.PENDING || s == OrderStatus.PREPARING) insert(t.withStatus(s));
+        return true;
+    }
+
+    public synchronized int size() { return tickets.size(); }
+
+    // Tickets being cooked (oldest first), then the next 'limit' waiting tickets in cooking order.
+    public synchronized List<Slot> snapshot(int limit) {
+        List<Slot> out = new ArrayList<>();
+        List<Ticket> cooking = new ArrayList<>();
+        for (Station st : byStation.values()) cooking.addAll(st.cooking.values());
+        cooking.sort((a, b) -> Long.compare(a.createdAt, b.createdAt));
+        for (Ticket t : cooking) out.add(new Slot(t, t.latestStart()));
+
+        // k-way merge over copies of the station heaps: O(limit * stations * log n)
+        List<Station> sts = new ArrayList<>(byStation.values());
+        Heap[] copies = new Heap[sts.size()];
+        for (int i = 0; i < copies.length; i++) copies[i] = sts.get(i).waiting.copy();
+        for (int n = 0; n < limit; n++) {
+            int best = -1;
+            long bestKey = Long.MAX_VALUE;
+            for (int i = 0; i < copies.length; i++) {
+                if (copies[i].size == 0) continue;
+                long k = copies[i].peek().latestStart() - sts.get(i).cookingMillis;
+                if (k < bestKey) { bestKey = k; best = i; }
+            }
+            if (best < 0) break;
+            out.add(new Slot(copies[best].poll(), bestKey));
+        }
+        return out;
+    }
+
+    private void put(KitchenService.OpenOrder o) {
+        OrderStatus s = OrderStatus.parse(o.status);
+        if (s != OrderStatus.PENDING && s != OrderStatus.PREPARING) return;
+        Ticket old = tickets.get(o.id);
+        if (old != null) remove(old);
+        insert(ticketFor(o, s));
+    }
+
+    Ticket ticketFor(KitchenService.OpenOrder o, OrderStatus s) {
+        // lines cook in parallel: the longest one sets the station and the base time
+        long longest = 0;
+        String station = DEFAULT_STATION;
+        int portions = 0;
+        for (OrderDao.Line l : o.lines) {
+            long prep = prepMinutes.getOrDefault(l.menuId, DEFAULT_PREP_MINUTES) * 60_000L;
+            if (prep > longest) {
+                longest = prep;
+                station = stations.getOrDefault(l.menuId, DEFAULT_STATION);
+            }
+            portions += l.qty;
+        }
+        long prep = longest + Math.max(0, portions - 1) * EXTRA_PORTION_MILLIS;
+        long created = o.created.getTime();
+        return new Ticket(o.id, o.userId, s, created, created + promiseMillis, prep, station);
+    }
+
+    private void insert(Ticket t) {
+        tickets.put(t.orderId, t);
+        Station st = byStation.computeIfAbsent(t.station, k -> new Station());
+        if (t.status == OrderStatus.PREPARING) {
+            st.cooking.put(t.orderId, t);
+            st.cookingMillis += t.prepMillis;
+        } else {
+            st.waiting.add(t);
+        }
+    }
+
+    private void remove(Ticket t) {
+        tickets.remove(t.orderId);
+        Station st = byStation.get(t.station);
+        if (st == null) return;
+        if (st.cooking.remove(t.orderId) != null) st.cookingMillis -= t.prepMillis;
+        else st.waiting.remove(t.orderId);
+        if (st.cooking.isEmpty() && st.waiting.size == 0) byStation.remove(t.station);
+    }
+
+    private static final class Station {
+        final Heap waiting = new Heap();
+        final Map<Integer, Ticket> cooking = new HashMap<>();
+        long cookingMillis;
+    }
+
+    // Binary min-heap on latestStart with an orderId -> slot index for O(log n) removal.
+    static final class Heap {
+        private Ticket[] items = new Ticket[16];
+        private int size;
+        private final Map<Integer, Integer> index;
+
+        Heap() { this(new HashMap<>()); }
+
+        private Heap(Map<Integer, Integer> index) { this.index = index; }
+
+        // The copy doesn't keep an index; it's only ever polled.
+        Heap copy() {
+            Heap h = new Heap(null);
+            h.items = Arrays.copyOf(items, Math.max(1, size));
+            h.size = size;
+            return h;
+        }
+
+        Ticket peek() { return items[0]; }
+
+        void add(Ticket t) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size] = t;
+            siftUp(size++);
+        }
+
+        Ticket poll() {
+            Ticket top = items[0];
+            removeAt(0);
+            return top;
+        }
+
+        void remove(int orderId) {
+            Integer i = index.remove(orderId);
+            if (i != null) removeAt(i);
+        }
+
+        private void removeAt(int i) {
+            if (index != null && i == 0) index.remove(items[0].orderId);
+            Ticket last = items[--size];
+            items[size] = null;
+            if (i == size) return;
+            set(i, last);
+            siftDown(i);
+            if (items[i] == last) siftUp(i);
+        }
+
+        private void siftUp(int i) {
+            Ticket t = items[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (less(items[parent], t)) break;
+                set(i, items[parent]);
+                i = parent;
+            }
+            set(i, t);
+        }
+
+        private void siftDown(int i) {
+            Ticket t = items[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int c = 2 * i + 1;
+                if (c + 1 < size && less(items[c + 1], items[c])) c++;
+                if (less(t, items[c])) break;
+                set(i, items[c]);
+                i = c;
+            }
+            set(i, t);
+        }
+
+        private void set(int i, Ticket t) {
+            items[i] = t;
+            if (index != null) index.put(t.orderId, i);
+        }
+
+        // ties go to the older order
+        private static boolean less(Ticket a, Ticket b) {
+            long ka = a.latestStart(), kb = b.latestStart();
+            return ka != kb ? ka < kb : a.createdAt < b.createdAt;
+        }
+    }
+}
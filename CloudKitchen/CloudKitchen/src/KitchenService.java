@@ -0,0 +1,674 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Headless application API: login, menu, ordering and order status. The Swing
+// panels and KitchenHttpServer both drive it. Methods that touch the database
+// block, so UI code calls them through DataAccess.
+public class KitchenService {
+    private final OrderStateMachine stateMachine = OrderStateMachine.fromEnv();
+    private final MenuSearchIndex searchIndex = new MenuSearchIndex();
+    private final PasswordHasher hasher = PasswordHasher.fromEnv();
+    private final SessionStore sessions = SessionStore.fromEnv();
+    private final OrderJournal journal = OrderJournal.shared(); // null unless CLOUDKITCHEN_ORDER_JOURNAL is set
+    private final OrderWriter writer = OrderWriter.shared();    // null unless CLOUDKITCHEN_ORDER_BATCH is set
+    private final RecentOrdersCache recent = RecentOrdersCache.shared(); // null if CLOUDKITCHEN_RECENT_ORDERS_CACHE=0
+    private final long journalWaitMs = journalWaitFromEnv();
+
+    public static class User {
+        public final int id;
+        public final String role;
+        public final String sessionToken; // resume with resumeSession(); null if none was opened
+
+        User(int id, String role, String sessionToken) {
+            this.id = id;
+            this.role = role;
+            this.sessionToken = sessionToken;
+        }
+
+        public boolean isAdmin() { return "ADMIN".equalsIgnoreCase(role); }
+    }
+
+    public static class OrderSummary {
+        public final int id;
+        public final String customer; // null when listing a single customer's orders
+        public final double total;
+        public final String status;
+        public final Timestamp created;
+
+        OrderSummary(int id, String customer, double total, String status, Timestamp created) {
+            this.id = id;
+            this.customer = customer;
+            this.total = total;
+            this.status = status;
+            this.created = created;
+        }
+
+        public OrderSummary withStatus(String newStatus) {
+            return new OrderSummary(id, customer, total, newStatus, created);
+        }
+    }
+
+    // Where an order acknowledged with a journal reference stands.
+    public static class ReferenceStatus {
+        public final String status;  // QUEUED, REJECTED, or the stored order's status
+        public final int orderId;    // 0 unless the order is in the database
+        public final String reason;  // why a REJECTED order was refused
+
+        ReferenceStatus(String status, int orderId, String reason) {
+            this.status = status;
+            this.orderId = orderId;
+            this.reason = reason;
+        }
+    }
+
+    public static class OrderChanges {
+        public final List<OrderSummary> orders;
+        public final Timestamp highWater; // pass back as 'since' on the next call
+
+        OrderChanges(List<OrderSummary> orders, Timestamp highWater) {
+            this.orders = orders;
+            this.highWater = highWater;
+        }
+    }
+
+    // An order the kitchen still has to cook, with its lines (option not loaded).
+    public static class OpenOrder {
+        public final int id;
+        public final int userId;
+        public final String status;
+        public final Timestamp created;
+        public final List<OrderDao.Line> lines = new ArrayList<>();
+
+        OpenOrder(int id, int userId, String status, Timestamp created) {
+            this.id = id;
+            this.userId = userId;
+            this.status = status;
+            this.created = created;
+        }
+    }
+
+    private static class Credentials {
+        final int id;
+        final String role;
+        final String password; // stored hash (or a legacy plain-text value)
+
+        Credentials(int id, String role, String password) {
+            this.id = id;
+            this.role = role;
+            this.password = password;
+        }
+    }
+
+    // Re-read window for changes whose transaction committed after a later updated_at was seen.
+    private static final long CHANGE_OVERLAP_MS = 2_000;
+
+    // Returns null if the credentials don't match; otherwise the user with a new
+    // session token. The hash is checked after the connection is back in the
+    // pool, so a burst of logins doesn't hold connections while burning CPU.
+    public User login(String email, String pass) throws SQLException {
+        Credentials row = Metrics.timeSql(Queries.USER_LOGIN.name, () -> {
+            try (Connection conn = DBUtil.getConnection();
+                 PreparedStatement ps = Queries.USER_LOGIN.prepare(conn)) {
+                ps.setString(1, email);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) return new Credentials(rs.getInt("id"), rs.getString("role"), rs.getString("password"));
+                }
+            }
+            return null;
+        });
+        long t = Metrics.start();
+        boolean ok = hasher.verify(pass.toCharArray(), row == null ? null : row.password);
+        Metrics.stop("user.verify", t);
+        if (!ok) {
+            Metrics.increment("user.login.failed");
+            return null;
+        }
+        if (hasher.needsRehash(row.password)) {
+            try {
+                rehash(row.id, pass, row.password);
+            } catch (SQLException ex) {
+                // the password checked out; the upgrade is retried at the next login
+                Metrics.increment("user.rehash.failed");
+                System.err.println("Could not upgrade the password hash of user " + row.id + ": " + ex.getMessage());
+            }
+        }
+        return new User(row.id, row.role, sessions.create(row.id, row.role));
+    }
+
+    // Upgrades a plain-text or older-cost hash; loses quietly to a concurrent password change.
+    // Best effort: login goes ahead if this fails.
+    private void rehash(int userId, String pass, String old) throws SQLException {
+        String fresh = hasher.hash(pass.toCharArray());
+        Metrics.timeSql(Queries.USER_REHASH.name, () -> {
+            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = Queries.USER_REHASH.prepare(conn)) {
+                ps.setString(1, fresh); ps.setInt(2, userId); ps.setString(3, old);
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // The signed-in user for a token from an earlier login, or null if the session is gone.
+    public User resumeSession(String token) throws SQLException {
+        SessionStore.Session s = sessions.resume(token);
+        return s == null ? null : new User(s.userId, s.role, token);
+    }
+
+    public void logout(String token) throws SQLException {
+        sessions.revoke(token);
+    }
+
+    public void register(String name, String email, String pwd) throws SQLException {
+        String hashed = hasher.hash(pwd.toCharArray());
+        Metrics.timeSql(Queries.USER_REGISTER.name, () -> {
+            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = Queries.USER_REGISTER.prepare(conn)) {
+                ps.setString(1, name); ps.setString(2, email); ps.setString(3, hashed);
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    public String databaseName() throws SQLException {
+        return Metrics.timeSql(Queries.DB_NAME.name, () -> {
+            try (Connection conn = DBUtil.getConnection();
+                 PreparedStatement ps = Queries.DB_NAME.prepare(conn); ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString("db") : null;
+            }
+        });
+    }
+
+    public MenuCatalog loadMenu() throws SQLException {
+        return Metrics.timeSql(Queries.MENU_LOAD.name, () -> {
+            MenuCatalog catalog;
+            try (Connection conn = DBUtil.getReadConnection(DBUtil.MENU_KEY)) {
+                catalog = MenuCatalog.load(conn);
+            }
+            searchIndex.sync(catalog); // re-tokenises only dishes that changed
+            return catalog;
+        });
+    }
+
+    public MenuSearchIndex searchIndex() { return searchIndex; }
+
+    // Menu ids for a search box query, best match first.
+    public int[] searchMenu(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    // stock: null for dishes that aren't counted; category: null or blank for none.
+    // The dish and its option groups are written in one transaction.
+    public void addMenuItem(String name, double price, boolean available, MenuOptions options, Integer stock,
+                            String category) throws SQLException {
+        Metrics.timeSql(Queries.MENU_ADD.name, () -> {
+            try (Connection conn = DBUtil.getConnection()) {
+                inTransaction(conn, () -> {
+                    int id;
+                    try (PreparedStatement ps = Queries.MENU_ADD.prepare(conn, Statement.RETURN_GENERATED_KEYS)) {
+                        bindMenuRow(ps, name, price, available, stock, category);
+                        ps.executeUpdate();
+                        try (ResultSet gk = ps.getGeneratedKeys()) {
+                            if (!gk.next()) throw new SQLException("Cannot create menu item");
+                            id = gk.getInt(1);
+                        }
+                    }
+                    MenuOptions.store(conn, id, options);
+                    return null;
+                });
+            }
+            DBUtil.recordWrite(DBUtil.MENU_KEY);
+            MenuCatalog.invalidate();
+            return null;
+        });
+    }
+
+    public void updateMenuItem(int id, String name, double price, boolean available, MenuOptions options, Integer stock,
+                               String category) throws SQLException {
+        Metrics.timeSql(Queries.MENU_UPDATE.name, () -> {
+            try (Connection conn = DBUtil.getConnection()) {
+                inTransaction(conn, () -> {
+                    try (PreparedStatement ps = Queries.MENU_UPDATE.prepare(conn)) {
+                        bindMenuRow(ps, name, price, available, stock, category);
+                        ps.setInt(6, id);
+                        ps.executeUpdate();
+                    }
+                    MenuOptions.store(conn, id, options);
+                    return null;
+                });
+            }
+            DBUtil.recordWrite(DBUtil.MENU_KEY);
+            MenuCatalog.invalidate();
+            // searchable right away, before the next menu load
+            searchIndex.put(id, name, options.choiceNames(), category == null || category.isEmpty() ? null : category);
+            return null;
+        });
+    }
+
+    private static void bindMenuRow(PreparedStatement ps, String name, double price, boolean available, Integer stock,
+                                    String category) throws SQLException {
+        ps.setString(1, name);
+        ps.setDouble(2, price);
+        ps.setBoolean(3, available);
+        if (stock == null) ps.setNull(4, Types.INTEGER); else ps.setInt(4, stock);
+        if (category == null || category.isEmpty()) ps.setNull(5, Types.VARCHAR); else ps.setString(5, category);
+    }
+
+    private static <T> T inTransaction(Connection conn, Metrics.SqlWork<T> work) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            T v = work.run();
+            conn.commit();
+            return v;
+        } catch (SQLException | RuntimeException ex) {
+            try { conn.rollback(); } catch (SQLException ignored) {}
+            throw ex;
+        } finally {
+            try { conn.setAutoCommit(autoCommit); } catch (SQLException ignored) {}
+        }
+    }
+
+    public void deleteMenuItem(int id) throws SQLException {
+        Metrics.timeSql(Queries.MENU_DELETE.name, () -> {
+            try (Connection conn = DBUtil.getConnection()) {
+                inTransaction(conn, () -> {
+                    MenuOptions.store(conn, id, MenuOptions.NONE);
+                    try (PreparedStatement ps = Queries.MENU_DELETE.prepare(conn)) {
+                        ps.setInt(1, id);
+                        ps.executeUpdate();
+                    }
+                    return null;
+                });
+            }
+            DBUtil.recordWrite(DBUtil.MENU_KEY);
+            MenuCatalog.invalidate();
+            searchIndex.remove(id);
+            return null;
+        });
+    }
+
+    // The current menu snapshot, reloading it first if an admin change invalidated it.
+    public MenuCatalog catalog() throws SQLException {
+        return MenuCatalog.isStale() ? loadMenu() : MenuCatalog.current();
+    }
+
+    // Checks a cart against the in-memory catalog and returns the lines to store:
+    // quantities must be positive, items must exist and be available, and the
+    // option selection must satisfy every group's min/max. The returned lines
+    // carry the option text for the kitchen and the options' price delta.
+    public List<OrderDao.Line> validateCart(List<OrderDao.Line> cart) throws OrderRejectedException {
+        return validateCart(MenuCatalog.current(), cart);
+    }
+
+    private List<OrderDao.Line> validateCart(MenuCatalog catalog, List<OrderDao.Line> cart) throws OrderRejectedException {
+        List<OrderDao.Line> out = new ArrayList<>(cart.size());
+        for (OrderDao.Line l : cart) {
+            if (l.qty <= 0) continue;
+            MenuCatalog.Item item = catalog.get(l.menuId);
+            if (item == null || !item.available) {
+                String name = item == null ? "Item " + l.menuId : item.name;
+                throw new OrderRejectedException(name + " is no longer available. Click Refresh.");
+            }
+            // early answer from the snapshot; the reservation in OrderDao is what counts
+            if (item.tracksStock() && l.qty > item.stock) {
+                throw new OrderRejectedException(item.stock == 0 ? item.name + " is sold out."
+                        : "Only " + item.stock + " x " + item.name + " left.");
+            }
+            MenuOptions opts = item.options;
+            if (opts.isEmpty()) {
+                out.add(new OrderDao.Line(l.menuId, l.qty, null, null, 0)); // no option stored
+                continue;
+            }
+            int[] sel = l.choices != null ? l.choices : selectionByName(item, l.option);
+            String problem = opts.check(sel);
+            if (problem != null && !ascending(sel)) {
+                sel = sel.clone();
+                Arrays.sort(sel);
+                problem = opts.check(sel);
+            }
+            if (problem != null) throw new OrderRejectedException(item.name + ": " + problem);
+            out.add(new OrderDao.Line(l.menuId, l.qty, opts.describe(sel), sel, opts.priceDelta(sel)));
+        }
+        if (out.isEmpty()) throw new OrderRejectedException("Choose at least one item");
+        return out;
+    }
+
+    private static int[] selectionByName(MenuCatalog.Item item, String option) throws OrderRejectedException {
+        String name = option == null ? "" : option.trim();
+        if (name.isEmpty()) return new int[0];
+        int k = item.options.indexOfName(name);
+        if (k < 0) throw new OrderRejectedException("Unknown option '" + name + "' for " + item.name);
+        return new int[]{k};
+    }
+
+    private static boolean ascending(int[] sel) {
+        for (int i = 1; i < sel.length; i++) if (sel[i] <= sel[i - 1]) return false;
+        return true;
+    }
+
+    // With the order journal on, the order is acknowledged once it is on local
+    // disk. The caller still gets the real order id (or a sold-out rejection)
+    // if the database takes it within CLOUDKITCHEN_JOURNAL_WAIT_MS; otherwise
+    // the result is queued (Placed.isQueued()) and written when the database
+    // is reachable again.
+    public OrderDao.Placed placeOrder(int userId, List<OrderDao.Line> cart) throws SQLException, OrderRejectedException {
+        try {
+            catalog();
+        } catch (SQLException ex) {
+            // an outage is what the journal is for; the last snapshot is good enough to validate against
+            if (journal == null || MenuCatalog.current().items().isEmpty()) throw ex;
+        }
+        // one snapshot for validating and for the queued total, even if the menu reloads meanwhile
+        MenuCatalog snapshot = MenuCatalog.current();
+        List<OrderDao.Line> lines = validateCart(snapshot, cart);
+        OrderDao.Placed placed;
+        try {
+            if (journal != null) return placeJournaled(userId, lines, snapshot);
+            placed = Metrics.timeSql("order.place", () -> {
+                if (writer != null) return writer.place(userId, lines, null);
+                try (Connection conn = DBUtil.getConnection()) {
+                    return OrderDao.insertOrder(conn, userId, lines);
+                }
+            });
+        } catch (OrderDao.Unavailable ex) {
+            // stock or availability moved since the snapshot; make the next read see it
+            MenuCatalog.invalidate();
+            Metrics.increment("order.rejected.stock");
+            List<String> names = new ArrayList<>();
+            for (int id : ex.menuIds) {
+                MenuCatalog.Item item = MenuCatalog.current().get(id);
+                names.add(item == null ? "Item " + id : item.name);
+            }
+            throw new OrderRejectedException(String.join(", ", names) + " sold out or no longer available. Click Refresh.");
+        }
+        // before placed() publishes, so the event finds the order already in the list
+        if (recent != null) {
+            recent.placed(userId, new OrderSummary(placed.orderId, null, placed.total, "PENDING",
+                    new Timestamp(System.currentTimeMillis())));
+        }
+        placed(placed.orderId, userId, lines);
+        return placed;
+    }
+
+    // A new order is in the database: read it back from the primary for a
+    // while and tell the tracking views and kitchen displays, which ticket it
+    // from the event. Also called by OrderJournal's flusher.
+    static void placed(int orderId, int userId, List<OrderDao.Line> lines) {
+        DBUtil.recordWrite(DBUtil.userKey(userId));
+        DBUtil.recordWrite(DBUtil.orderKey(orderId));
+        OrderEventBus.get().publish(new OrderEventBus.OrderEvent(orderId, userId, "PENDING", System.currentTimeMillis(), lines));
+    }
+
+    // The journal's flusher publishes the PENDING event once the order is stored.
+    private OrderDao.Placed placeJournaled(int userId, List<OrderDao.Line> lines, MenuCatalog catalog) throws SQLException {
+        OrderJournal.Entry e = journal.append(userId, lines);
+        try {
+            return e.result.get(journalWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException slow) {
+            if (slow instanceof InterruptedException) Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) throw (SQLException) ex.getCause();
+            throw new SQLException(ex.getCause());
+        }
+        Metrics.increment("order.journal.queued");
+        // priced from the snapshot the cart was validated against, so every dish is
+        // in it; the stored total is recomputed from menu_items
+        double total = 0;
+        for (OrderDao.Line l : lines) total += (catalog.get(l.menuId).price + l.priceDelta) * l.qty;
+        return new OrderDao.Placed(0, total, e.reference());
+    }
+
+    // Completes when a queued order reaches the database, or exceptionally with
+    // the reason it was refused; null if it isn't waiting in this process's journal.
+    public CompletableFuture<OrderDao.Placed> queuedResult(String reference) {
+        OrderJournal.Entry e = journal == null ? null : journal.waiting(reference);
+        return e == null ? null : e.result;
+    }
+
+    // Looks up an order by its journal reference. Null if there is no such
+    // order or it belongs to someone else (admins see every order).
+    public ReferenceStatus orderByReference(String reference, User user) throws SQLException {
+        OrderJournal.Entry e = journal == null ? null : journal.waiting(reference);
+        if (e != null) return e.userId == user.id || user.isAdmin() ? new ReferenceStatus("QUEUED", 0, null) : null;
+        ReferenceStatus stored = Metrics.timeSql(Queries.ORDER_BY_REFERENCE.name, () -> {
+            // the primary: a replica may not have the order the journal just wrote
+            try (Connection conn = DBUtil.getConnection();
+                 PreparedStatement ps = Queries.ORDER_BY_REFERENCE.prepare(conn)) {
+                ps.setString(1, reference);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next() || (rs.getInt(2) != user.id && !user.isAdmin())) return null;
+                    return new ReferenceStatus(rs.getString(3), rs.getInt(1), null);
+                }
+            }
+        });
+        if (stored != null) return stored;
+        return Metrics.timeSql(Queries.ORDER_REJECTION.name, () -> {
+            try (Connection conn = DBUtil.getConnection();
+                 PreparedStatement ps = Queries.ORDER_REJECTION.prepare(conn)) {
+                ps.setString(1, reference);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next() || (rs.getInt(1) != user.id && !user.isAdmin())) return null;
+                    return new ReferenceStatus("REJECTED", 0, rs.getString(2));
+                }
+            }
+        });
+    }
+
+    private static long journalWaitFromEnv() {
+        return DBUtil.intEnv("CLOUDKITCHEN_JOURNAL_WAIT_MS", 500, 0, 60_000);
+    }
+
+    public String fetchOrderStatus(int orderId) throws SQLException {
+        return Metrics.timeSql(Queries.ORDER_STATUS.name, () -> {
+            try (Connection conn = DBUtil.getReadConnection(DBUtil.orderKey(orderId));
+                 PreparedStatement ps = Queries.ORDER_STATUS.prepare(conn)) {
+                ps.setInt(1, orderId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) return rs.getString(1);
+                }
+            }
+            return null;
+        });
+    }
+
+    // Like fetchOrderStatus, but null unless the order belongs to userId; for the
+    // HTTP API, where a customer may only look at their own orders.
+    public String fetchOwnOrderStatus(int orderId, int userId) throws SQLException {
+        return Metrics.timeSql(Queries.ORDER_STATUS_OWN.name, () -> {
+            try (Connection conn = DBUtil.getReadConnection(DBUtil.orderKey(orderId));
+                 PreparedStatement ps = Queries.ORDER_STATUS_OWN.prepare(conn)) {
+                ps.setInt(1, orderId);
+                ps.setInt(2, userId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) return rs.getString(1);
+                }
+            }
+            return null;
+        });
+    }
+
+    public static class BulkResult {
+        public final List<OrderStateMachine.Change> applied = new ArrayList<>();
+        // orders whose status was no longer 'from' (someone else moved them first)
+        public final List<OrderStateMachine.Change> conflicts = new ArrayList<>();
+        // transitions the state machine doesn't allow
+        public final List<OrderStateMachine.Change> illegal = new ArrayList<>();
+    }
+
+    public OrderStateMachine stateMachine() { return stateMachine; }
+
+    // Compare-and-set status changes for any number of orders. With
+    // rewriteBatchedStatements the guarded updates go out in a single round trip
+    // and still report per order (see OrderStateMachine.transitionAll).
+    public BulkResult transitionOrders(List<OrderStateMachine.Change> changes) throws SQLException {
+        BulkResult result = new BulkResult();
+        if (changes.isEmpty()) return result;
+        List<OrderStateMachine.Outcome> outcomes;
+        outcomes = Metrics.timeSql("order.transition", () -> {
+            try (Connection conn = DBUtil.getConnection()) {
+                return stateMachine.transitionAll(conn, changes);
+            }
+        });
+        for (int i = 0; i < changes.size(); i++) {
+            OrderStateMachine.Change c = changes.get(i);
+            switch (outcomes.get(i)) {
+                case APPLIED:
+                    result.applied.add(c);
+                    DBUtil.recordWrite(DBUtil.orderKey(c.orderId));
+                    OrderEventBus.get().publish(c.orderId, -1, c.to.name());
+                    break;
+                case CONFLICT: result.conflicts.add(c); break;
+                default: result.illegal.add(c);
+            }
+        }
+        return result;
+    }
+
+    // One keyset page of the admin order list, newest first. Pass afterCreated=null
+    // for the first page, otherwise the (created_at, id) of the last row already shown.
+    // status and since are optional filters applied in SQL.
+    //
+    // Served by idx_orders_created / idx_orders_status_created (Migrations v2).
+    public List<OrderSummary> listOrdersPage(String status, Timestamp since, Timestamp afterCreated, int afterId,
+                                             int limit) throws SQLException {
+        return Metrics.timeSql("orders.page", () -> {
+            String sql = ordersPageSql(status != null, since != null, afterCreated != null);
+            List<OrderSummary> out = new ArrayList<>(limit);
+            try (Connection conn = DBUtil.getReadConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                int i = 1;
+                if (status != null) ps.setString(i++, status);
+                if (since != null) ps.setTimestamp(i++, since);
+                if (afterCreated != null) {
+                    ps.setTimestamp(i++, afterCreated);
+                    ps.setTimestamp(i++, afterCreated);
+                    ps.setInt(i++, afterId);
+                }
+                ps.setInt(i, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        out.add(new OrderSummary(rs.getInt(1), rs.getString(2), rs.getDouble(3), rs.getString(4), rs.getTimestamp(5)));
+                    }
+                }
+            }
+            return out;
+        });
+    }
+
+    static String ordersPageSql(boolean byStatus, boolean since, boolean after) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT o.id, u.name, o.total, o.status, o.created_at FROM orders o JOIN users u ON o.user_id=u.id WHERE 1=1");
+        if (byStatus) sql.append(" AND o.status=?");
+        if (since) sql.append(" AND o.created_at>=?");
+        if (after) sql.append(" AND (o.created_at<? OR (o.created_at=? AND o.id<?))");
+        return sql.append(" ORDER BY o.created_at DESC, o.id DESC LIMIT ?").toString();
+    }
+
+    // Orders whose updated_at is at or after 'since' (minus a small overlap), oldest change
+    // first. With since=null nothing is returned and the high-water mark starts at the DB clock.
+    // Relies on orders.updated_at and idx_orders_updated (Migrations v3).
+    // Always on the primary: a lagging replica's clock and rows would move the
+    // high-water mark past changes it hasn't applied yet.
+    public OrderChanges listOrdersChangedSince(Timestamp since, int limit) throws SQLException {
+        return Metrics.timeSql(Queries.ORDERS_CHANGED.name, () -> {
+            try (Connection conn = DBUtil.getConnection()) {
+                if (since == null) {
+                    try (PreparedStatement ps = Queries.DB_NOW.prepare(conn); ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        return new OrderChanges(new ArrayList<>(), rs.getTimestamp(1));
+                    }
+                }
+                List<OrderSummary> out = new ArrayList<>();
+                Timestamp high = since;
+                try (PreparedStatement ps = Queries.ORDERS_CHANGED.prepare(conn)) {
+                    ps.setTimestamp(1, new Timestamp(since.getTime() - CHANGE_OVERLAP_MS));
+                    ps.setInt(2, limit);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            out.add(new OrderSummary(rs.getInt(1), rs.getString(2), rs.getDouble(3), rs.getString(4), rs.getTimestamp(5)));
+                            Timestamp u = rs.getTimestamp(6);
+                            if (u != null && u.after(high)) high = u;
+                        }
+                    }
+                }
+                return new OrderChanges(out, high);
+            }
+        });
+    }
+
+    // Served from RecentOrdersCache when it is on; the query only runs on a miss.
+    public List<OrderSummary> listRecentOrders(int userId, int limit) throws SQLException {
+        if (recent != null) {
+            List<OrderSummary> hit = recent.get(userId, limit);
+            if (hit != null) return hit;
+        }
+        List<OrderSummary> read = Metrics.timeSql(Queries.ORDERS_RECENT.name, () -> {
+            List<OrderSummary> out = new ArrayList<>();
+            try (Connection conn = DBUtil.getReadConnection(DBUtil.userKey(userId));
+                 PreparedStatement ps = Queries.ORDERS_RECENT.prepare(conn)) {
+                ps.setInt(1, userId);
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        out.add(new OrderSummary(rs.getInt(1), null, rs.getDouble(2), rs.getString(3), rs.getTimestamp(4)));
+                    }
+                }
+            }
+            return out;
+        });
+        return recent == null ? read : recent.fill(userId, limit, read);
+    }
+
+    // PENDING/PREPARING orders and their lines for the kitchen queue; all of
+    // them when orderIds is null. Uses idx_orders_status_created for the scan.
+    // On the primary: the kitchen asks for orders the moment they are placed.
+    public List<OpenOrder> listOpenOrders(Collection<Integer> orderIds) throws SQLException {
+        return Metrics.timeSql("orders.open", () -> {
+            List<OpenOrder> out = new ArrayList<>();
+            if (orderIds != null && orderIds.isEmpty()) return out;
+            String sql = openOrdersSql(orderIds == null ? -1 : orderIds.size());
+            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+                int i = 1;
+                if (orderIds != null) for (int id : orderIds) ps.setInt(i++, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    OpenOrder cur = null;
+                    while (rs.next()) {
+                        int id = rs.getInt(1);
+                        if (cur == null || cur.id != id) {
+                            cur = new OpenOrder(id, rs.getInt(2), rs.getString(3), rs.getTimestamp(4));
+                            out.add(cur);
+                        }
+                        cur.lines.add(new OrderDao.Line(rs.getInt(5), rs.getInt(6), (String) null));
+                    }
+                }
+            }
+            return out;
+        });
+    }
+
+    // idCount < 0 for every open order
+    static String openOrdersSql(int idCount) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT o.id, o.user_id, o.status, o.created_at, oi.menu_item_id, oi.qty FROM orders o"
+                + " JOIN order_items oi ON oi.order_id=o.id WHERE o.status IN ('PENDING','PREPARING')");
+        if (idCount >= 0) {
+            sql.append(" AND o.id IN (");
+            OrderDao.appendPlaceholders(sql, idCount, 1);
+            sql.append(')');
+        }
+        return sql.append(" ORDER BY o.id").toString();
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed-memory latency histogram in the spirit of HdrHistogram: values are
+// bucketed by power of two, each power split into 64 linear sub-buckets, so
+// every recorded value is kept to within ~1.6%. Recording is lock-free and
+// safe from any number of threads.
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;        // 64
+    private static final int MAGNITUDES = 64 - SUB_BITS;        // covers the full long range
+    private static final int BUCKETS = (MAGNITUDES + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) { }
+        while (value < (m = min.get()) && !min.compareAndSet(m, value)) { }
+    }
+
+    // Records 'count' occurrences of the same value (e.g. a batch timed as a whole).
+    public void record(long value, long count) {
+        if (count <= 0) return;
+        if (value < 0) value = 0;
+        counts.addAndGet(indexOf(value), count);
+        total.addAndGet(count);
+        sum.addAndGet(value * count);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) { }
+        while (value < (m = min.get()) && !min.compareAndSet(m, value)) { }
+    }
+
+    public long count() { return total.get(); }
+    public long max() { return total.get() == 0 ? 0 : max.get(); }
+    public long min() { return total.get() == 0 ? 0 : min.get(); }
+
+    public double mean() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    // Upper bound of the bucket containing the given percentile (0..100).
+    public long percentile(double p) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max());
+        }
+        return max();
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        long m;
+        long omax = other.max.get();
+        while (omax > (m = max.get()) && !max.compareAndSet(m, omax)) { }
+        long omin = other.min.get();
+        while (omin < (m = min.get()) && !min.compareAndSet(m, omin)) { }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+        min.set(Long.MAX_VALUE);
+    }
+
+    // Values below 64 map 1:1; above that, the top 6 bits after the leading one
+    // pick the sub-bucket within the value's power of two.
+    private static int indexOf(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int magnitude = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS + 1; // >= 1
+        int sub = (int) (v >>> (magnitude - 1)) & (SUB_COUNT - 1);
+        return magnitude * SUB_COUNT + sub;
+    }
+
+    private static long upperBound(int index) {
+        int magnitude = index / SUB_COUNT;
+        int sub = index % SUB_COUNT;
+        if (magnitude == 0) return sub;
+        long base = (long) (SUB_COUNT + sub) << (magnitude - 1);
+        return base + (1L << (magnitude - 1)) - 1;
+    }
+}
@@ -1,12 +1,18 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.JTableHeader;
 import java.awt.*;
-import java.sql.*;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.EventObject;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.prefs.Preferences;
 
 
 public class MainApp extends JFrame {
@@ -16,28 +22,28 @@ public class MainApp extends JFrame {
     private JTextField emailField = new JTextField(20);
     private JPasswordField passField = new JPasswordField(20);
 
-    // Columns: ID, Name, Price, Available, Options, Qty
-    private DefaultTableModel menuModel = new DefaultTableModel(
-            new Object[]{"ID", "Name", "Price", "Available", "Options", "Qty"}, 0) {
-        @Override public boolean isCellEditable(int row, int col) {
-            // allow editing Options (col 4) and Qty (col 5)
-            return col == 4 || col == 5;
-        }
-        @Override public Class<?> getColumnClass(int columnIndex) {
-            if (columnIndex == 0) return Integer.class;
-            if (columnIndex == 2) return Double.class;
-            if (columnIndex == 3) return Boolean.class;
-            if (columnIndex == 5) return Integer.class;
-            return Object.class;
-        }
-    };
+    // Columns: ID, Name, Price, Available, Options, Qty, Category. Customer and
+    // admin get separate models so each screen keeps its own filter.
+    private final KitchenService service = new KitchenService();
+    private final MenuTableModel menuModel = new MenuTableModel(service.searchIndex());
+    private final MenuTableModel adminMenuModel = new MenuTableModel(service.searchIndex());
     private JTable customerTable = new JTable(menuModel);
-    private JTable adminTable = new JTable(menuModel);
+    private JTable adminTable = new JTable(adminMenuModel);
     private CustomerPanel customerPanel;
     private AdminPanel adminPanel;
 
     private int currentUserId = -1;
     private String currentUserRole = null;
+    private String sessionToken = null;
+
+    // remembers the session token between runs so a restart doesn't ask for the password again;
+    // only when "Remember me" was ticked, since a shared kiosk would sign the last customer back in
+    private final JCheckBox rememberBox = new JCheckBox("Remember me");
+    private static final Preferences PREFS = Preferences.userRoot().node("cloudkitchen");
+    private static final String PREF_SESSION = "session";
+
+    // JDBC runs on DataAccess threads; results come back to the EDT through this scope
+    private final DataAccess.Scope uiScope = new DataAccess.Scope();
 
     public MainApp() {
         setTitle("Cloud Kitchen");
@@ -45,18 +51,28 @@ public class MainApp extends JFrame {
         setSize(980, 560);
         setLocationRelativeTo(null);
 
-        // setup both tables (separate instances sharing one model)
+        // setup both tables
         setupTable(customerTable);
         setupTable(adminTable);
 
         root.add(buildLoginPanel(), "login");
         customerPanel = new CustomerPanel(this, customerTable, menuModel);
-        adminPanel = new AdminPanel(this, adminTable, menuModel);
+        adminPanel = new AdminPanel(this, adminTable, adminMenuModel);
         root.add(customerPanel, "customer");
         root.add(adminPanel, "admin");
 
         add(root);
         cards.show(root, "login");
+        resumeSession();
+    }
+
+    private void resumeSession() {
+        String token = PREFS.get(PREF_SESSION, null);
+        if (token == null) return;
+        uiScope.run(() -> service.resumeSession(token), user -> {
+            if (user == null) { PREFS.remove(PREF_SESSION); return; }
+            enter(user);
+        }, ex -> ex.printStackTrace());
     }
 
     private JPanel buildLoginPanel() {
@@ -69,7 +85,9 @@ public class MainApp extends JFrame {
         c.gridx = 0; c.gridy = 1; form.add(new JLabel("Password:"), c);
         c.gridx = 1; form.add(passField, c);
 
-        c.gridy = 2; c.gridx = 0;
+        c.gridx = 1; c.gridy = 2; form.add(rememberBox, c);
+
+        c.gridy = 3; c.gridx = 0;
         JButton loginBtn = new JButton("Login");
         loginBtn.addActionListener(e -> doLogin());
         form.add(loginBtn, c);
@@ -151,28 +169,27 @@ public class MainApp extends JFrame {
         String pass = new String(passField.getPassword()).trim();
         if (email.isEmpty() || pass.isEmpty()) { JOptionPane.showMessageDialog(this, "Enter both fields"); return; }
 
-        String sql = "SELECT id,role FROM users WHERE email=? AND password=?";
-        try (Connection conn = DBUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, email);
-            ps.setString(2, pass);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    currentUserId = rs.getInt("id");
-                    currentUserRole = rs.getString("role");
-                    loadMenu();
-                    adjustColumnWidths(customerTable);
-                    adjustColumnWidths(adminTable);
-                    if ("ADMIN".equalsIgnoreCase(currentUserRole)) cards.show(root, "admin");
-                    else cards.show(root, "customer");
-                } else {
-                    JOptionPane.showMessageDialog(this, "Invalid login");
-                }
-            }
-        } catch (SQLException ex) {
+        uiScope.run(() -> service.login(email, pass), user -> {
+            if (user == null) { JOptionPane.showMessageDialog(this, "Invalid login"); return; }
+            if (rememberBox.isSelected()) PREFS.put(PREF_SESSION, user.sessionToken);
+            else PREFS.remove(PREF_SESSION);
+            enter(user);
+        }, ex -> {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(this, "DB error: " + ex.getMessage());
-        }
+        });
+    }
+
+    private void enter(KitchenService.User user) {
+        currentUserId = user.id;
+        currentUserRole = user.role;
+        sessionToken = user.sessionToken;
+        showCard(user.isAdmin() ? "admin" : "customer");
+        loadMenu();
+        if (user.isAdmin()) adminPanel.loadOrders();
+        else customerPanel.refreshOrders(this);
+        // Diagnose current schema to ensure we're reading the expected DB
+        uiScope.run(service::databaseName, db -> { if (db != null) setTitle("Cloud Kitchen - DB: " + db); }, ex -> {});
     }
 
     private void showRegisterDialog() {
@@ -187,225 +204,189 @@ public class MainApp extends JFrame {
             String pwd = new String(pwdF.getPassword()).trim();
             if (name.isEmpty() || email.isEmpty() || pwd.isEmpty()) { JOptionPane.showMessageDialog(this, "All required"); return; }
 
-            String sql = "INSERT INTO users (name,email,password,role) VALUES (?,?,?,'CUSTOMER')";
-            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, name); ps.setString(2, email); ps.setString(3, pwd);
-                ps.executeUpdate();
-                JOptionPane.showMessageDialog(this, "Registered. You can login now.");
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(this, "Registration failed: " + ex.getMessage());
-            }
+            uiScope.run(() -> { service.register(name, email, pwd); return null; },
+                    v -> JOptionPane.showMessageDialog(this, "Registered. You can login now."),
+                    ex -> {
+                        ex.printStackTrace();
+                        JOptionPane.showMessageDialog(this, "Registration failed: " + ex.getMessage());
+                    });
         }
     }
 
     public void loadMenu() {
-        menuModel.setRowCount(0);
-        String sql = "SELECT id,name,price,available,options FROM menu_items";
-        try (Connection conn = DBUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            // Diagnose current schema to ensure we're reading the expected DB
-            try (Statement s = conn.createStatement(); ResultSet dbRs = s.executeQuery("SELECT DATABASE() AS db")) {
-                if (dbRs.next()) {
-                    String db = dbRs.getString("db");
-                    setTitle("Cloud Kitchen - DB: " + db);
-                }
-            } catch (SQLException ignored) {}
-            while (rs.next()) {
-                String options = rs.getString("options");
-                if (options == null) options = "";
-                String defaultOption = "";
-                if (!options.trim().isEmpty()) {
-                    String[] opts = options.split("\\s*,\\s*");
-                    if (opts.length > 0) defaultOption = opts[0];
-                }
-                menuModel.addRow(new Object[]{
-                        rs.getInt("id"),
-                        rs.getString("name"),
-                        rs.getDouble("price"),
-                        rs.getBoolean("available"),
-                        defaultOption.isEmpty() ? "" : defaultOption,
-                        0
-                });
-            }
-            if (menuModel.getRowCount() == 0) {
+        uiScope.run(service::loadMenu, catalog -> {
+            // one table event per model, however big the menu is
+            menuModel.load(catalog);
+            adminMenuModel.load(catalog);
+            if (catalog.size() == 0) {
                 JOptionPane.showMessageDialog(this, "No menu items found in table 'menu_items' for the connected database. Click Refresh after confirming your DB/schema.");
             }
-        } catch (SQLException ex) {
+            // ensure tables width after load
+            adjustColumnWidths(customerTable);
+            adjustColumnWidths(adminTable);
+        }, ex -> {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(this, "Load menu error: " + ex.getMessage());
-        }
-        // ensure tables width after load
-        adjustColumnWidths(customerTable);
-        adjustColumnWidths(adminTable);
+        });
     }
 
 
     public void placeOrder() {
-        ArrayList<OrderItemSelection> items = new ArrayList<>();
-        double total = 0;
-        for (int r = 0; r < menuModel.getRowCount(); r++) {
-            int id = (Integer) menuModel.getValueAt(r, 0);
-            String name = String.valueOf(menuModel.getValueAt(r,1));
-            double price = (Double) menuModel.getValueAt(r, 2);
-            // options cell stores the selected option (string) for that row
-            String selectedOption = String.valueOf(menuModel.getValueAt(r, 4));
-            Object qtyObj = menuModel.getValueAt(r, 5);
-            int qty = 0;
-            try { qty = Integer.parseInt(qtyObj.toString()); } catch (Exception ex) { qty = 0; }
-            if (qty > 0) {
-                // If item has options in DB but user left selectedOption empty -> ask to select
-                if (hasOptionsInDB(id)) {
-                    if (selectedOption == null || selectedOption.trim().isEmpty()) {
-                        JOptionPane.showMessageDialog(this, "Please select option for " + name);
-                        return;
-                    }
-                } else {
-                    selectedOption = null; // no option stored
-                }
-                items.add(new OrderItemSelection(id, qty, selectedOption));
-                total += price * qty;
-            }
+        if (customerTable.isEditing()) customerTable.getCellEditor().stopCellEditing();
+        // includes dishes currently hidden by the search filter
+        List<OrderDao.Line> cart = menuModel.cartLines();
+        List<OrderDao.Line> items;
+        try {
+            // checked against the in-memory catalog, so this stays on the EDT
+            items = service.validateCart(cart);
+        } catch (OrderRejectedException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage());
+            return;
         }
-        if (items.isEmpty()) { JOptionPane.showMessageDialog(this, "Choose at least one item"); return; }
-
-        String insertOrder = "INSERT INTO orders (user_id, total, status) VALUES (?,?,?)";
-        String insertItem = "INSERT INTO order_items (order_id, menu_item_id, qty, price, option_selected) VALUES (?,?,?,?,?)";
-
-        try (Connection conn = DBUtil.getConnection();
-             PreparedStatement psOrder = conn.prepareStatement(insertOrder, Statement.RETURN_GENERATED_KEYS);
-             PreparedStatement psItem = conn.prepareStatement(insertItem)) {
-
-            conn.setAutoCommit(false);
-            psOrder.setInt(1, currentUserId);
-            psOrder.setDouble(2, total);
-            psOrder.setString(3, "PENDING");
-            psOrder.executeUpdate();
-
-            try (ResultSet gk = psOrder.getGeneratedKeys()) {
-                if (gk.next()) {
-                    int orderId = gk.getInt(1);
-                    for (OrderItemSelection it : items) {
-                        double price = getMenuPrice(conn, it.menuId);
-                        psItem.setInt(1, orderId);
-                        psItem.setInt(2, it.menuId);
-                        psItem.setInt(3, it.qty);
-                        psItem.setDouble(4, price);
-                        psItem.setString(5, it.optionSelected); // may be null
-                        psItem.addBatch();
-                    }
-                    psItem.executeBatch();
-                    conn.commit();
-                    JOptionPane.showMessageDialog(this, "Order placed! Order ID: " + orderId + " | Total: " + total);
-                    if (customerPanel != null) {
-                        customerPanel.refreshOrders(this);
-                        customerPanel.startTracking(this, orderId);
-                    }
-                    for (int r = 0; r < menuModel.getRowCount(); r++) {
-                        menuModel.setValueAt(0, r, 5); // reset qty
-                    }
-                } else {
-                    conn.rollback();
-                    JOptionPane.showMessageDialog(this, "Cannot create order");
-                }
+
+        int userId = currentUserId;
+        uiScope.run(() -> service.placeOrder(userId, items), placed -> {
+            if (placed.isQueued()) {
+                // in the local order journal; it shows up under My Recent Orders once the database has it
+                watchQueued(userId, placed.reference);
+                JOptionPane.showMessageDialog(this, "Order received! Total: " + placed.total
+                        + "\nThe kitchen system is slow to answer, so it will be sent on shortly."
+                        + "\nReference: " + placed.reference);
+            } else {
+                JOptionPane.showMessageDialog(this, "Order placed! Order ID: " + placed.orderId + " | Total: " + placed.total);
             }
-            conn.setAutoCommit(true);
-        } catch (SQLException ex) {
-            ex.printStackTrace();
+            if (customerPanel != null) {
+                customerPanel.refreshOrders(this);
+                if (!placed.isQueued()) customerPanel.startTracking(this, placed.orderId);
+            }
+            menuModel.clearQuantities();
+        }, ex -> {
+            if (!(ex instanceof OrderRejectedException)) ex.printStackTrace();
             JOptionPane.showMessageDialog(this, "Order error: " + ex.getMessage());
+        });
+    }
+
+    // Tells the customer how a queued order turned out, if they are still signed in.
+    private void watchQueued(int userId, String reference) {
+        CompletableFuture<OrderDao.Placed> result = service.queuedResult(reference);
+        if (result == null) {
+            // settled before we got here: the database knows how it went
+            KitchenService.User user = new KitchenService.User(currentUserId, currentUserRole, sessionToken);
+            uiScope.run(() -> service.orderByReference(reference, user), s -> {
+                if (s == null) return;
+                if ("REJECTED".equals(s.status)) showRefused(reference, s.reason);
+                else showStored(s.orderId);
+            }, ex -> ex.printStackTrace());
+            return;
         }
+        result.whenComplete((stored, ex) -> SwingUtilities.invokeLater(() -> {
+            if (currentUserId != userId) return;
+            if (ex == null) showStored(stored.orderId);
+            else showRefused(reference, DataAccess.unwrap(ex).getMessage());
+        }));
     }
 
-    private boolean hasOptionsInDB(int menuId) {
-        String sql = "SELECT options FROM menu_items WHERE id=?";
-        try (Connection conn = DBUtil.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, menuId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    String opts = rs.getString("options");
-                    return opts != null && !opts.trim().isEmpty();
-                }
-            }
-        } catch (SQLException ex) { /* ignore */ }
-        return false;
+    private void showStored(int orderId) {
+        if (customerPanel == null) return;
+        customerPanel.refreshOrders(this);
+        customerPanel.startTracking(this, orderId);
     }
 
-    private double getMenuPrice(Connection conn, int menuId) throws SQLException {
-        String sql = "SELECT price FROM menu_items WHERE id=?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, menuId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return rs.getDouble("price");
-            }
-        }
-        return 0.0;
+    private void showRefused(String reference, String reason) {
+        JOptionPane.showMessageDialog(this, "Your order with reference " + reference + " could not be placed:\n"
+                + reason, "Order refused", JOptionPane.WARNING_MESSAGE);
     }
 
     public void showAddMenuDialog() {
         JTextField name = new JTextField();
         JTextField price = new JTextField();
         JCheckBox avail = new JCheckBox("Available", true);
-        JTextField options = new JTextField(); // comma-separated options
-        Object[] fields = {"Name", name, "Price", price, "Options (comma separated, optional)", options, avail};
+        JTextArea options = new JTextArea(4, 30);
+        JTextField stock = new JTextField();
+        JTextField category = new JTextField();
+        Object[] fields = {"Name", name, "Price", price, "Category (optional)", category,
+                OPTIONS_HELP, new JScrollPane(options), "Stock (blank = not counted)", stock, avail};
         int ok = JOptionPane.showConfirmDialog(this, fields, "Add Menu Item", JOptionPane.OK_CANCEL_OPTION);
         if (ok == JOptionPane.OK_OPTION) {
+            double p;
+            Integer st;
+            MenuOptions opts;
             try {
-                double p = Double.parseDouble(price.getText().trim());
-                String opts = options.getText().trim();
-                if (opts.isEmpty()) opts = null;
-                String sql = "INSERT INTO menu_items (name,price,available,options) VALUES (?,?,?,?)";
-                try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-                    ps.setString(1, name.getText().trim());
-                    ps.setDouble(2, p);
-                    ps.setBoolean(3, avail.isSelected());
-                    if (opts == null) ps.setNull(4, Types.VARCHAR); else ps.setString(4, opts);
-                    ps.executeUpdate();
-                    loadMenu();
-                    adjustColumnWidths(customerTable);
-                    adjustColumnWidths(adminTable);
-                }
+                p = Double.parseDouble(price.getText().trim());
+                st = parseStock(stock.getText());
             } catch (NumberFormatException nfe) {
-                JOptionPane.showMessageDialog(this, "Bad price");
-            } catch (SQLException ex) {
+                JOptionPane.showMessageDialog(this, "Bad price or stock");
+                return;
+            }
+            try {
+                opts = MenuOptions.parse(options.getText());
+            } catch (IllegalArgumentException bad) {
+                JOptionPane.showMessageDialog(this, "Bad options: " + bad.getMessage());
+                return;
+            }
+            String n = name.getText().trim();
+            String cat = category.getText().trim();
+            boolean available = avail.isSelected();
+            uiScope.run(() -> { service.addMenuItem(n, p, available, opts, st, cat); return null; }, v -> loadMenu(), ex -> {
                 ex.printStackTrace();
                 JOptionPane.showMessageDialog(this, "DB error: " + ex.getMessage());
-            }
+            });
         }
     }
 
+    static final String OPTIONS_HELP = "<html>Options (optional), one group per line:<br>"
+            + "Size: Regular, Large +20<br>Extras [0-3]: Cheese +15, Bacon +25</html>";
+
+    // Blank means the dish isn't stock-counted.
+    static Integer parseStock(String text) {
+        String t = text.trim();
+        if (t.isEmpty()) return null;
+        int v = Integer.parseInt(t);
+        if (v < 0) throw new NumberFormatException("negative stock");
+        return v;
+    }
+
     public void deleteSelectedMenu() {
         int r = adminTable.getSelectedRow();
         if (r < 0) { JOptionPane.showMessageDialog(this, "Select a row"); return; }
-        int id = (Integer) menuModel.getValueAt(r, 0);
+        int id = adminMenuModel.getMenuId(adminTable.convertRowIndexToModel(r));
         int ok = JOptionPane.showConfirmDialog(this, "Delete menu id " + id + " ?", "Confirm", JOptionPane.YES_NO_OPTION);
         if (ok == JOptionPane.YES_OPTION) {
-            String sql = "DELETE FROM menu_items WHERE id=?";
-            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setInt(1, id); ps.executeUpdate();
-                loadMenu();
-                adjustColumnWidths(customerTable);
-                adjustColumnWidths(adminTable);
-            } catch (SQLException ex) {
+            uiScope.run(() -> { service.deleteMenuItem(id); return null; }, v -> loadMenu(), ex -> {
                 ex.printStackTrace();
                 JOptionPane.showMessageDialog(this, "Delete error: " + ex.getMessage());
-            }
+            });
         }
     }
 
     public void logout() {
-        currentUserId = -1; currentUserRole = null;
+        if (customerPanel != null) customerPanel.stopTracking();
+        if (adminPanel != null) adminPanel.stop();
+        String token = sessionToken;
+        currentUserId = -1; currentUserRole = null; sessionToken = null;
+        PREFS.remove(PREF_SESSION);
+        rememberBox.setSelected(false);
+        // not tied to uiScope: showCard below cancels it, and the revoke must still happen
+        if (token != null) DataAccess.supply(() -> { service.logout(token); return null; })
+                .exceptionally(ex -> { DataAccess.unwrap(ex).printStackTrace(); return null; });
         emailField.setText(""); passField.setText("");
-        cards.show(root, "login");
+        showCard("login");
+    }
+
+    // Switching cards drops whatever the previous screen still had in flight.
+    private void showCard(String name) {
+        uiScope.cancelAll();
+        cards.show(root, name);
     }
 
     // Accessors for panels
     public JTable getCustomerTable() { return customerTable; }
     public JTable getAdminTable() { return adminTable; }
     public int getCurrentUserId() { return currentUserId; }
+    public KitchenService getService() { return service; }
+    public DataAccess.Scope getUiScope() { return uiScope; }
 
-    // Customer order tracking dialog that polls order status until COMPLETED
+    // Customer order tracking dialog that follows order status until it is finished
     private void showOrderTracking(int orderId) {
         JDialog dlg = new JDialog(this, "Order Tracking", false);
         dlg.setLayout(new BorderLayout(8,8));
@@ -429,41 +410,49 @@ public class MainApp extends JFrame {
         dlg.setSize(360, 180);
         dlg.setLocationRelativeTo(this);
 
-        // Poll every 2 seconds
-        final Timer[] timerRef = new Timer[1];
-        Timer t = new Timer(2000, e -> {
-            try {
-                String st = fetchOrderStatus(orderId);
-                if (st == null) st = "UNKNOWN";
-                statusLbl.setText("Status: " + st);
-                if ("COMPLETED".equalsIgnoreCase(st)) {
-                    bar.setIndeterminate(false);
-                    bar.setValue(100);
-                    ((Timer) e.getSource()).stop();
-                }
-            } catch (SQLException ex) {
-                statusLbl.setText("Error: " + ex.getMessage());
-                ((Timer) e.getSource()).stop();
+        // Status changes are pushed by OrderEventBus; read once for the starting
+        // state, and again if the bus says pushed changes may have been missed
+        OrderEventBus.Subscription[] sub = new OrderEventBus.Subscription[1];
+        List<CompletableFuture<String>> reads = new ArrayList<>(); // EDT only
+        String[] shown = new String[1];
+        java.util.function.Consumer<String> show = st -> {
+            // a read that lagged behind a pushed event mustn't put the status back
+            if (!service.stateMachine().supersedes(st, shown[0])) return;
+            shown[0] = st;
+            showTrackingStatus(statusLbl, bar, st);
+        };
+        Runnable read = () -> reads.add(uiScope.run(() -> service.fetchOrderStatus(orderId),
+                st -> show.accept(st == null ? "UNKNOWN" : st),
+                ex -> {
+                    statusLbl.setText("Error: " + ex.getMessage());
+                    sub[0].close();
+                }));
+        sub[0] = OrderEventBus.get().subscribe(orderId, new OrderEventBus.Listener() {
+            @Override public void onEvent(OrderEventBus.OrderEvent e) {
+                SwingUtilities.invokeLater(() -> show.accept(e.status));
+            }
+            @Override public void onResync() {
+                SwingUtilities.invokeLater(() -> { if (dlg.isDisplayable()) read.run(); });
             }
         });
-        timerRef[0] = t;
+        read.run();
+        Runnable stop = () -> {
+            sub[0].close();
+            for (CompletableFuture<String> f : reads) f.cancel(false);
+        };
         dlg.addWindowListener(new java.awt.event.WindowAdapter() {
-            @Override public void windowClosed(java.awt.event.WindowEvent e) { timerRef[0].stop(); }
-            @Override public void windowClosing(java.awt.event.WindowEvent e) { timerRef[0].stop(); }
+            @Override public void windowClosed(java.awt.event.WindowEvent e) { stop.run(); }
+            @Override public void windowClosing(java.awt.event.WindowEvent e) { stop.run(); }
         });
-        t.start();
         dlg.setVisible(true);
     }
 
-    public String fetchOrderStatus(int orderId) throws SQLException {
-        String sql = "SELECT status FROM orders WHERE id=?";
-        try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, orderId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return rs.getString(1);
-            }
+    private static void showTrackingStatus(JLabel statusLbl, JProgressBar bar, String st) {
+        statusLbl.setText("Status: " + st);
+        if (OrderStatus.isTerminal(st)) {
+            bar.setIndeterminate(false);
+            bar.setValue(100);
         }
-        return null;
     }
 
     public void adjustColumnWidths(JTable table) {
@@ -476,70 +465,103 @@ public class MainApp extends JFrame {
                 table.getColumnModel().getColumn(3).setPreferredWidth(80);  // Available
                 table.getColumnModel().getColumn(4).setPreferredWidth(300); // Options
                 table.getColumnModel().getColumn(5).setPreferredWidth(60);  // Qty
+                if (table.getColumnModel().getColumnCount() >= 7)
+                    table.getColumnModel().getColumn(6).setPreferredWidth(140); // Category
             }
         } catch (Exception ignored) {}
     }
 
-    // custom editor: creates a JComboBox based on the options stored in the DB for the row
+    // Options editor: a combo box for dishes with one pick-one group, otherwise
+    // a button opening a checkbox/radio dialog per group. Hands the model a
+    // selection that already passed MenuOptions.check.
     public static class OptionsCellEditor extends AbstractCellEditor implements TableCellEditor {
+        private static final String NONE = "(none)";
         private final JTable table;
-        private final DefaultTableModel model;
-        private JComponent editorComponent = new JTextField();
+        private final MenuTableModel model;
+        private MenuOptions options = MenuOptions.NONE;
+        private int[] selection = new int[0];
+        private JComboBox<String> combo;
 
-        public OptionsCellEditor(JTable table, DefaultTableModel model) {
+        public OptionsCellEditor(JTable table, MenuTableModel model) {
             this.table = table;
             this.model = model;
         }
 
         @Override
         public Object getCellEditorValue() {
-            if (editorComponent instanceof JComboBox) {
-                Object sel = ((JComboBox<?>) editorComponent).getSelectedItem();
-                return sel == null ? "" : sel.toString();
-            } else if (editorComponent instanceof JTextField) {
-                return ((JTextField) editorComponent).getText();
+            if (combo != null) {
+                // with an optional group the first entry is "(none)"
+                int i = combo.getSelectedIndex() - (options.group(0).min == 0 ? 1 : 0);
+                return i < 0 ? new int[0] : new int[]{i};
             }
-            return null;
+            return selection;
         }
 
         @Override
         public Component getTableCellEditorComponent(JTable table, Object value, boolean isSelected, int row, int column) {
-            Object menuIdObj = model.getValueAt(row, 0);
-            if (menuIdObj == null) return new JTextField("");
-            int menuId = (Integer) menuIdObj;
-
-            try (Connection conn = DBUtil.getConnection();
-                 PreparedStatement ps = conn.prepareStatement("SELECT options FROM menu_items WHERE id=?")) {
-                ps.setInt(1, menuId);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        String opts = rs.getString("options");
-                        if (opts != null && !opts.trim().isEmpty()) {
-                            String[] arr = opts.split("\\s*,\\s*");
-                            JComboBox<String> cb = new JComboBox<>(arr);
-                            // if model has a selected value, set it; otherwise choose first
-                            String selected = value == null ? "" : value.toString();
-                            if (selected.isEmpty()) cb.setSelectedIndex(0);
-                            else cb.setSelectedItem(selected);
-                            editorComponent = cb;
-                            return cb;
-                        }
-                    }
-                }
-            } catch (SQLException ex) {
-                // fallback to text field if DB error
+            options = model.getOptions(row);
+            selection = model.getSelection(row);
+            combo = null;
+            if (options.isSingleChoice()) {
+                MenuOptions.Group g = options.group(0);
+                JComboBox<String> cb = new JComboBox<>();
+                if (g.min == 0) cb.addItem(NONE);
+                for (int c = 0; c < g.size(); c++) cb.addItem(g.choice(c).label());
+                cb.setSelectedIndex(selection.length == 0 ? 0 : selection[0] + (g.min == 0 ? 1 : 0));
+                combo = cb;
+                return cb;
             }
-
-            // no options in DB -> use editable text field (user can type or leave blank)
-            JTextField tf = new JTextField(value == null ? "" : value.toString());
-            editorComponent = tf;
-            return tf;
+            JButton edit = new JButton(options.describe(selection) + " ...");
+            edit.setHorizontalAlignment(SwingConstants.LEFT);
+            edit.addActionListener(e -> {
+                int[] picked = pickOptions(table, model.getValueAt(row, MenuTableModel.COL_NAME).toString(), options, selection);
+                if (picked == null) { cancelCellEditing(); return; }
+                selection = picked;
+                stopCellEditing();
+            });
+            // open the picker straight away, the click that started editing counts
+            SwingUtilities.invokeLater(edit::doClick);
+            return edit;
         }
 
         // allow click to start editing immediately
         @Override public boolean isCellEditable(EventObject e) { return true; }
     }
 
+    // One box per choice, radio buttons for pick-one groups. Null if cancelled.
+    static int[] pickOptions(Component parent, String dish, MenuOptions options, int[] current) {
+        Set<Integer> selected = new HashSet<>();
+        for (int k : current) selected.add(k);
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        AbstractButton[] boxes = new AbstractButton[options.choiceCount()];
+        for (int g = 0; g < options.groupCount(); g++) {
+            MenuOptions.Group group = options.group(g);
+            String rule = group.min == group.max ? "choose " + group.min : "choose " + group.min + "-" + group.max;
+            panel.add(new JLabel(group.name + " (" + rule + ")"));
+            ButtonGroup radios = group.max == 1 && group.min == 1 ? new ButtonGroup() : null;
+            for (int c = 0; c < group.size(); c++) {
+                int k = options.indexOf(g, c);
+                AbstractButton b = radios != null ? new JRadioButton(group.choice(c).label()) : new JCheckBox(group.choice(c).label());
+                b.setSelected(selected.contains(k));
+                if (radios != null) radios.add(b);
+                boxes[k] = b;
+                panel.add(b);
+            }
+        }
+        while (true) {
+            int ok = JOptionPane.showConfirmDialog(parent, new JScrollPane(panel), dish, JOptionPane.OK_CANCEL_OPTION);
+            if (ok != JOptionPane.OK_OPTION) return null;
+            int n = 0;
+            for (AbstractButton b : boxes) if (b.isSelected()) n++;
+            int[] sel = new int[n];
+            n = 0;
+            for (int k = 0; k < boxes.length; k++) if (boxes[k].isSelected()) sel[n++] = k;
+            String problem = options.check(sel);
+            if (problem == null) return sel;
+            JOptionPane.showMessageDialog(parent, dish + ": " + problem);
+        }
+    }
+
     // Spinner editor for integer quantities
     public static class SpinnerEditor extends AbstractCellEditor implements TableCellEditor {
         private final JSpinner spinner;
@@ -579,7 +601,7 @@ public class MainApp extends JFrame {
         table.setRowSelectionAllowed(true);
         table.setFillsViewportHeight(true);
         // editors
-        table.getColumnModel().getColumn(4).setCellEditor(new OptionsCellEditor(table, menuModel));
+        table.getColumnModel().getColumn(4).setCellEditor(new OptionsCellEditor(table, (MenuTableModel) table.getModel()));
         table.getColumnModel().getColumn(5).setCellEditor(new SpinnerEditor(0, 999, 1));
         // column widths
         adjustColumnWidths(table);
@@ -613,11 +635,29 @@ public class MainApp extends JFrame {
         }
     }
 
-    private static class OrderItemSelection {
-        int menuId;
-        int qty;
-        String optionSelected;
-        OrderItemSelection(int m, int q, String o) { menuId = m; qty = q; optionSelected = o; }
+    // Search box + category picker driving a menu model's filter.
+    public static JPanel menuFilterBar(MenuTableModel model) {
+        JPanel bar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField search = new JTextField(20);
+        JComboBox<String> category = new JComboBox<>(new DefaultComboBoxModel<>(model.categories().toArray(new String[0])));
+        Runnable apply = () -> model.setFilter(search.getText(), (String) category.getSelectedItem());
+        search.getDocument().addDocumentListener(new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) { apply.run(); }
+            @Override public void removeUpdate(DocumentEvent e) { apply.run(); }
+            @Override public void changedUpdate(DocumentEvent e) { apply.run(); }
+        });
+        category.addActionListener(e -> apply.run());
+        // categories come from the data; rebuild the list after each load
+        model.addReloadListener(() -> {
+            Object selected = category.getSelectedItem();
+            category.setModel(new DefaultComboBoxModel<>(model.categories().toArray(new String[0])));
+            category.setSelectedItem(selected);
+            if (category.getSelectedIndex() < 0) category.setSelectedIndex(0);
+        });
+        bar.add(new JLabel("Search:"));
+        bar.add(search);
+        bar.add(category);
+        return bar;
     }
 
     public static void main(String[] args) {
@@ -627,6 +667,20 @@ public class MainApp extends JFrame {
                 if ("Nimbus".equals(info.getName())) { UIManager.setLookAndFeel(info.getClassName()); break; }
         } catch (Exception e) { /* ignore */ }
 
+        // optional scrape endpoint for the terminal's DB metrics
+        String metricsPort = System.getenv("CLOUDKITCHEN_METRICS_PORT");
+        if (Metrics.ENABLED && metricsPort != null && !metricsPort.trim().isEmpty()) {
+            try { Metrics.serve(Integer.parseInt(metricsPort.trim())); } catch (Exception e) { e.printStackTrace(); }
+        }
+
+        try {
+            Migrations.migrateAtStartup();
+        } catch (SQLException ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(null, ex.getMessage(), "Database schema", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        }
+
         SwingUtilities.invokeLater(() -> {
             MainApp app = new MainApp();
             app.setVisible(true);
@@ -0,0 +1,136 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Immutable snapshot of menu_items. A new version is built by loadMenu() and
+// swapped in atomically; readers (cell editor, cart validation, pricing) never
+// touch the database. Admin writes call invalidate() so the next load refreshes.
+//
+// Dishes can be grouped for the menu filter (e.g. per virtual brand) through
+// menu_items.category (Migrations v6). Options come from option_groups /
+// option_choices in the same query, as interned MenuOptions.
+public final class MenuCatalog {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    private static volatile MenuCatalog current = new MenuCatalog(Collections.emptyList());
+    private static volatile boolean stale = true;
+
+    private final long version;
+    private final List<Item> items;
+    private final Map<Integer, Item> byId;
+
+    private MenuCatalog(List<Item> items) {
+        this.version = VERSIONS.incrementAndGet();
+        this.items = Collections.unmodifiableList(new ArrayList<>(items));
+        Map<Integer, Item> m = new HashMap<>(items.size() * 2);
+        for (Item it : items) m.put(it.id, it);
+        this.byId = m;
+    }
+
+    public static MenuCatalog current() { return current; }
+
+    public static boolean isStale() { return stale; }
+
+    // Marks the snapshot out of date after an admin add/edit/delete.
+    public static void invalidate() { stale = true; }
+
+    // Reads the menu with its option groups in one joined query (rows come
+    // ordered by dish, group, choice) and installs it as the current snapshot.
+    public static MenuCatalog load(Connection conn) throws SQLException {
+        List<Item> items = new ArrayList<>();
+        MenuOptions.Interner interner = new MenuOptions.Interner();
+        try (PreparedStatement ps = Queries.MENU_LOAD.prepare(conn);
+             ResultSet rs = ps.executeQuery()) {
+            int id = -1, groupId = -1;
+            String name = null, category = null, groupName = null;
+            double price = 0;
+            boolean available = false;
+            int stock = Item.UNLIMITED, min = 0, max = 0;
+            List<MenuOptions.Group> groups = new ArrayList<>();
+            List<MenuOptions.Choice> choices = new ArrayList<>();
+            while (rs.next()) {
+                int rowId = rs.getInt("id");
+                int rowGroup = rs.getInt("group_id");
+                if (rs.wasNull()) rowGroup = -1;
+                if (rowId != id || rowGroup != groupId) {
+                    if (groupId >= 0 && !choices.isEmpty()) groups.add(interner.group(groupName, min, max, choices));
+                    choices.clear();
+                }
+                if (rowId != id) {
+                    if (id >= 0) items.add(new Item(id, name, price, available, interner.options(groups), stock, category));
+                    groups.clear();
+                    id = rowId;
+                    name = rs.getString("name");
+                    price = rs.getDouble("price");
+                    available = rs.getBoolean("available");
+                    stock = rs.getInt("stock");
+                    if (rs.wasNull()) stock = Item.UNLIMITED;
+                    category = rs.getString("category");
+                }
+                if (rowGroup != groupId) {
+                    groupId = rowGroup;
+                    groupName = rs.getString("group_name");
+                    min = rs.getInt("min_select");
+                    max = rs.getInt("max_select");
+                }
+                String choice = rs.getString("choice_name");
+                if (choice != null) choices.add(interner.choice(choice, rs.getDouble("price_delta")));
+            }
+            if (groupId >= 0 && !choices.isEmpty()) groups.add(interner.group(groupName, min, max, choices));
+            if (id >= 0) items.add(new Item(id, name, price, available, interner.options(groups), stock, category));
+        }
+        return install(items);
+    }
+
+    static MenuCatalog install(List<Item> items) {
+        MenuCatalog c = new MenuCatalog(items);
+        current = c;
+        stale = false;
+        return c;
+    }
+
+    public long version() { return version; }
+    public List<Item> items() { return items; }
+    public Item get(int id) { return byId.get(id); }
+    public int size() { return items.size(); }
+
+    public static final class Item {
+        // stock is NULL in menu_items for dishes that aren't counted
+        public static final int UNLIMITED = -1;
+
+        public final int id;
+        public final String name;
+        public final double price;
+        public final boolean available;
+        public final int stock; // as of this snapshot; OrderDao re-checks it when reserving
+        public final String category; // null when not set
+        public final MenuOptions options;
+
+        // a plain list of names is one required pick-one group
+        public Item(int id, String name, double price, boolean available, String[] options) {
+            this(id, name, price, available, MenuOptions.single(options), UNLIMITED, null);
+        }
+
+        public Item(int id, String name, double price, boolean available, MenuOptions options, int stock, String category) {
+            this.id = id;
+            this.name = name;
+            this.price = price;
+            this.available = available;
+            this.options = options;
+            this.stock = stock;
+            this.category = category;
+        }
+
+        public boolean tracksStock() { return stock != UNLIMITED; }
+
+        public boolean hasOptions() { return !options.isEmpty(); }
+        public int optionCount() { return options.choiceCount(); }
+        public String option(int i) { return options.choice(i).name; }
+    }
+}
@@ -0,0 +1,323 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+// A dish's option groups ("Size", "Extras"), each with its choices, price
+// deltas and how many choices may/must be picked. Stored in option_groups /
+// option_choices (Migrations v9) and loaded with the menu in one joined query.
+//
+// Instances are immutable and interned per catalog load, so the hundreds of
+// dishes sharing "Regular / Large +20" share one object. A selection is a
+// sorted int[] of indices into choices(); checking it and pricing it is
+// array arithmetic, with no string handling on the order path.
+//
+// Admins edit options as text, one group per line (see parse()):
+//   Size: Regular, Large +20
+//   Extras [0-3]: Cheese +15, Bacon +25
+public final class MenuOptions {
+    public static final MenuOptions NONE = new MenuOptions(new Group[0]);
+    static final String DEFAULT_GROUP = "Options";
+
+    public static final class Choice {
+        public final String name;
+        public final double priceDelta;
+        private final String label;
+
+        Choice(String name, double priceDelta) {
+            this.name = name;
+            this.priceDelta = priceDelta;
+            this.label = priceDelta == 0 ? name
+                    : String.format(Locale.ROOT, "%s (%s%.2f)", name, priceDelta > 0 ? "+" : "", priceDelta);
+        }
+
+        // "Large (+20.00)", for pickers
+        public String label() { return label; }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof Choice && ((Choice) o).name.equals(name) && ((Choice) o).priceDelta == priceDelta;
+        }
+        @Override public int hashCode() { return name.hashCode() * 31 + Double.hashCode(priceDelta); }
+        @Override public String toString() { return label; }
+    }
+
+    public static final class Group {
+        public final String name;
+        public final int min;
+        public final int max;
+        private final Choice[] choices;
+
+        Group(String name, int min, int max, Choice[] choices) {
+            if (min < 0 || max < Math.max(1, min) || min > choices.length) {
+                throw new IllegalArgumentException("Group '" + name + "' needs 0 <= min <= max, max >= 1 and min <= number of choices");
+            }
+            this.name = name;
+            this.min = min;
+            this.max = Math.min(max, choices.length);
+            this.choices = choices;
+        }
+
+        public int size() { return choices.length; }
+        public Choice choice(int i) { return choices[i]; }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Group)) return false;
+            Group g = (Group) o;
+            return g.name.equals(name) && g.min == min && g.max == max && Arrays.equals(g.choices, choices);
+        }
+        @Override public int hashCode() { return Objects.hash(name, min, max) * 31 + Arrays.hashCode(choices); }
+    }
+
+    private final Group[] groups;
+    // flattened choices, and for each the group it belongs to
+    private final Choice[] choices;
+    private final int[] groupOf;
+    private final int[] groupStart;
+    private final int[] defaults;
+
+    private MenuOptions(Group[] groups) {
+        this.groups = groups;
+        int n = 0;
+        for (Group g : groups) n += g.size();
+        choices = new Choice[n];
+        groupOf = new int[n];
+        groupStart = new int[groups.length + 1];
+        int k = 0;
+        List<Integer> def = new ArrayList<>();
+        for (int gi = 0; gi < groups.length; gi++) {
+            groupStart[gi] = k;
+            for (int c = 0; c < groups[gi].size(); c++) {
+                // a required group starts out on its first choice(s)
+                if (c < groups[gi].min) def.add(k);
+                groupOf[k] = gi;
+                choices[k++] = groups[gi].choice(c);
+            }
+        }
+        groupStart[groups.length] = k;
+        defaults = new int[def.size()];
+        for (int i = 0; i < defaults.length; i++) defaults[i] = def.get(i);
+    }
+
+    public static MenuOptions of(List<Group> groups) {
+        return groups.isEmpty() ? NONE : new MenuOptions(groups.toArray(new Group[0]));
+    }
+
+    // One required pick-one group, what a legacy comma list meant.
+    public static MenuOptions single(String... names) {
+        if (names.length == 0) return NONE;
+        Choice[] cs = new Choice[names.length];
+        for (int i = 0; i < names.length; i++) cs[i] = new Choice(names[i], 0);
+        return new MenuOptions(new Group[]{new Group(DEFAULT_GROUP, 1, 1, cs)});
+    }
+
+    public boolean isEmpty() { return choices.length == 0; }
+    public int groupCount() { return groups.length; }
+    public Group group(int i) { return groups[i]; }
+    public int choiceCount() { return choices.length; }
+    public Choice choice(int k) { return choices[k]; }
+    public int groupOf(int k) { return groupOf[k]; }
+    // flattened index of choice c of group g
+    public int indexOf(int g, int c) { return groupStart[g] + c; }
+
+    // A single pick-one group can be shown as a plain combo box.
+    public boolean isSingleChoice() { return groups.length == 1 && groups[0].max == 1; }
+
+    public int[] defaultSelection() { return defaults.clone(); }
+
+    public String[] choiceNames() {
+        String[] out = new String[choices.length];
+        for (int k = 0; k < out.length; k++) out[k] = choices[k].name;
+        return out;
+    }
+
+    // First choice with this name, -1 if none; for clients that still send option names.
+    public int indexOfName(String name) {
+        for (int k = 0; k < choices.length; k++) if (choices[k].name.equals(name)) return k;
+        return -1;
+    }
+
+    // Null if the selection is valid, otherwise why not. Expects ascending indices.
+    public String check(int[] sel) {
+        int[] count = new int[groups.length];
+        int prev = -1;
+        for (int k : sel) {
+            if (k <= prev || k >= choices.length) return k == prev ? "the same choice twice" : "an unknown choice";
+            count[groupOf[k]]++;
+            prev = k;
+        }
+        for (int g = 0; g < groups.length; g++) {
+            Group gr = groups[g];
+            if (count[g] < gr.min) return gr.min == 1 ? "please choose " + (gr.name.equals(DEFAULT_GROUP) ? "an option" : gr.name)
+                    : "choose at least " + gr.min + " " + gr.name;
+            if (count[g] > gr.max) return "at most " + gr.max + " " + gr.name + " allowed";
+        }
+        return null;
+    }
+
+    public double priceDelta(int[] sel) {
+        double d = 0;
+        for (int k : sel) d += choices[k].priceDelta;
+        return d;
+    }
+
+    // What the kitchen sees and order_items.option_selected stores:
+    // "Large" for a single group, "Size: Large; Extras: Cheese, Bacon" otherwise.
+    public String describe(int[] sel) {
+        if (sel.length == 0) return "";
+        if (groups.length == 1 && sel.length == 1) return choices[sel[0]].name;
+        StringBuilder sb = new StringBuilder();
+        int lastGroup = -1;
+        for (int k : sel) {
+            int g = groupOf[k];
+            if (g != lastGroup) {
+                if (lastGroup >= 0) sb.append("; ");
+                if (groups.length > 1) sb.append(groups[g].name).append(": ");
+                lastGroup = g;
+            } else {
+                sb.append(", ");
+            }
+            sb.append(choices[k].name);
+        }
+        return sb.toString();
+    }
+
+    @Override public boolean equals(Object o) {
+        return o instanceof MenuOptions && Arrays.equals(((MenuOptions) o).groups, groups);
+    }
+    @Override public int hashCode() { return Arrays.hashCode(groups); }
+
+    // --- interning, used while a catalog is loaded ---
+
+    static final class Interner {
+        private final Map<Object, Object> pool = new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        private <T> T intern(T v) {
+            Object had = pool.putIfAbsent(v, v);
+            return had == null ? v : (T) had;
+        }
+
+        Choice choice(String name, double delta) { return intern(new Choice(intern(name), delta)); }
+        Group group(String name, int min, int max, List<Choice> choices) {
+            return intern(new Group(intern(name), min, max, choices.toArray(new Choice[0])));
+        }
+        MenuOptions options(List<Group> groups) { return groups.isEmpty() ? NONE : intern(of(groups)); }
+    }
+
+    // --- admin text format ---
+
+    // One group per line: "Name [min-max]: choice [+delta], ...". Without the
+    // bracket a group is pick exactly one; a line without "Name:" is a group
+    // called "Options", so the old "Regular, Large" still means what it did.
+    public static MenuOptions parse(String text) {
+        List<Group> groups = new ArrayList<>();
+        if (text == null) return NONE;
+        for (String line : text.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String name = DEFAULT_GROUP;
+            int min = 1, max = 1;
+            int colon = line.indexOf(':');
+            if (colon >= 0) {
+                String head = line.substring(0, colon).trim();
+                line = line.substring(colon + 1);
+                int br = head.indexOf('[');
+                if (br >= 0) {
+                    if (!head.endsWith("]")) throw new IllegalArgumentException("Bad group header: " + head);
+                    String[] range = head.substring(br + 1, head.length() - 1).split("-");
+                    try {
+                        min = Integer.parseInt(range[0].trim());
+                        max = range.length > 1 ? Integer.parseInt(range[1].trim()) : min;
+                    } catch (NumberFormatException nfe) {
+                        throw new IllegalArgumentException("Bad min-max in: " + head);
+                    }
+                    head = head.substring(0, br).trim();
+                }
+                if (!head.isEmpty()) name = head;
+            }
+            List<Choice> cs = new ArrayList<>();
+            for (String c : line.split(",")) {
+                c = c.trim();
+                if (c.isEmpty()) continue;
+                double delta = 0;
+                int sign = Math.max(c.lastIndexOf(" +"), c.lastIndexOf(" -"));
+                if (sign > 0) {
+                    try {
+                        delta = Double.parseDouble(c.substring(sign + 1).trim());
+                        c = c.substring(0, sign).trim();
+                    } catch (NumberFormatException notAPrice) {
+                        delta = 0; // "Half - half" is just a name
+                    }
+                }
+                cs.add(new Choice(c, delta));
+            }
+            if (!cs.isEmpty()) groups.add(new Group(name, min, max, cs.toArray(new Choice[0])));
+        }
+        return of(groups);
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        for (Group g : groups) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(g.name);
+            if (g.min != 1 || g.max != 1) sb.append(" [").append(g.min).append('-').append(g.max).append(']');
+            sb.append(": ");
+            for (int i = 0; i < g.size(); i++) {
+                if (i > 0) sb.append(", ");
+                Choice c = g.choice(i);
+                sb.append(c.name);
+                if (c.priceDelta != 0) sb.append(String.format(Locale.ROOT, " %+.2f", c.priceDelta));
+            }
+        }
+        return sb.toString();
+    }
+
+    // --- persistence ---
+
+    // Replaces a dish's groups and choices; runs inside the caller's transaction.
+    static void store(Connection conn, int menuId, MenuOptions opts) throws SQLException {
+        try (PreparedStatement ps = Queries.OPTION_CHOICES_DELETE.prepare(conn)) {
+            ps.setInt(1, menuId);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = Queries.OPTION_GROUPS_DELETE.prepare(conn)) {
+            ps.setInt(1, menuId);
+            ps.executeUpdate();
+        }
+        if (opts.isEmpty()) return;
+        try (PreparedStatement gs = Queries.OPTION_GROUP_INSERT.prepare(conn, Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement cs = Queries.OPTION_CHOICE_INSERT.prepare(conn)) {
+            for (int g = 0; g < opts.groups.length; g++) {
+                Group gr = opts.groups[g];
+                gs.setInt(1, menuId);
+                gs.setString(2, gr.name);
+                gs.setInt(3, gr.min);
+                gs.setInt(4, gr.max);
+                gs.setInt(5, g);
+                gs.executeUpdate();
+                int groupId;
+                try (ResultSet gk = gs.getGeneratedKeys()) {
+                    if (!gk.next()) throw new SQLException("Cannot create option group");
+                    groupId = gk.getInt(1);
+                }
+                for (int c = 0; c < gr.size(); c++) {
+                    cs.setInt(1, groupId);
+                    cs.setString(2, gr.choice(c).name);
+                    cs.setDouble(3, gr.choice(c).priceDelta);
+                    cs.setInt(4, c);
+                    cs.addBatch();
+                }
+            }
+            cs.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// In-memory menu search. Every dish is tokenised once (name, option and
+// category words) into a sorted term dictionary with per-term posting lists,
+// so a query never scans the menu:
+//   "marg"       prefix match on any word            ("Margherita")
+//   "pizaa"      typo-tolerant, one edit/transposition for words of 4+ chars
+//   "#vegan"     tag: only option/category words
+//   "veg curry"  every word must match; results ranked exact > prefix > typo
+// Typos are found through a deletion index (every term with one character
+// removed), so they cost a few hash lookups rather than an edit-distance scan.
+//
+// KitchenService keeps it in step with the catalog: sync() re-tokenises only
+// dishes that changed, and admin edits update a single dish immediately.
+public final class MenuSearchIndex {
+    private static final int FUZZY_MIN_LENGTH = 4;
+    private static final int SCORE_EXACT = 3, SCORE_PREFIX = 2, SCORE_FUZZY = 1;
+    private static final int[] EMPTY = new int[0];
+
+    // term -> sorted doc numbers
+    private final TreeMap<String, Posting> postings = new TreeMap<>();
+    // term with one char removed -> terms it came from
+    private final Map<String, List<String>> deletes = new HashMap<>();
+
+    // dense doc numbers so query scratch space can be plain arrays
+    private final Map<Integer, Integer> docOf = new HashMap<>();
+    private int[] menuIdOf = new int[64];
+    private String[] signatureOf = new String[64];
+    private String[][] termsOf = new String[64][];
+    private final List<Integer> freeDocs = new ArrayList<>();
+    private int docCount = 0;
+
+    // query scratch, sized with the doc arrays
+    private int[] stamp = new int[64];
+    private int[] tokenBest = new int[64];
+    private int[] total = new int[64];
+    private int generation = 0;
+
+    // Brings the index in line with a catalog snapshot: adds, re-indexes and
+    // removes only what differs from what is indexed now.
+    public synchronized void sync(MenuCatalog catalog) {
+        Set<Integer> present = new LinkedHashSet<>();
+        for (MenuCatalog.Item it : catalog.items()) {
+            present.add(it.id);
+            put(it.id, it.name, it.options.choiceNames(), it.category);
+        }
+        for (Integer id : new ArrayList<>(docOf.keySet())) {
+            if (!present.contains(id)) remove(id);
+        }
+    }
+
+    // Indexes (or re-indexes) one dish. A no-op if nothing searchable changed.
+    public synchronized void put(int menuId, String name, String[] options, String category) {
+        String signature = name + '\u0000' + String.join("\u0001", options) + '\u0000' + category;
+        Integer doc = docOf.get(menuId);
+        if (doc != null && signature.equals(signatureOf[doc])) return;
+        if (doc != null) unindex(doc);
+        else doc = allocate(menuId);
+        signatureOf[doc] = signature;
+        Set<String> terms = new LinkedHashSet<>();
+        for (String w : words(name)) terms.add(w);
+        for (String o : options) {
+            for (String w : words(o)) { terms.add(w); terms.add('#' + w); }
+        }
+        for (String w : words(category)) { terms.add(w); terms.add('#' + w); }
+        String[] ts = terms.toArray(new String[0]);
+        termsOf[doc] = ts;
+        for (String t : ts) addPosting(t, doc);
+    }
+
+    public synchronized void remove(int menuId) {
+        Integer doc = docOf.remove(menuId);
+        if (doc == null) return;
+        unindex(doc);
+        signatureOf[doc] = null;
+        freeDocs.add(doc);
+    }
+
+    public synchronized int size() { return docOf.size(); }
+
+    // Menu ids matching every word of the query, best first (ties in menu id order).
+    public synchronized int[] search(String query, int limit) {
+        List<String> tokens = words(query == null ? "" : query.replace("#", " #"));
+        if (tokens.isEmpty() || limit <= 0) return EMPTY;
+        int[] candidates = null;
+        int candidateCount = 0;
+        for (int ti = 0; ti < tokens.size(); ti++) {
+            int gen = ++generation;
+            int[] touched = new int[16];
+            int n = 0;
+            for (Map.Entry<String, Integer> m : matches(tokens.get(ti)).entrySet()) {
+                Posting p = postings.get(m.getKey());
+                for (int k = 0; k < p.size; k++) {
+                    int doc = p.docs[k];
+                    if (stamp[doc] == gen) {
+                        tokenBest[doc] = Math.max(tokenBest[doc], m.getValue());
+                        continue;
+                    }
+                    // after the first word only docs that matched every earlier word count
+                    if (ti > 0 && stamp[doc] != gen - 1) continue;
+                    if (ti == 0) total[doc] = 0;
+                    stamp[doc] = gen;
+                    tokenBest[doc] = m.getValue();
+                    if (n == touched.length) touched = Arrays.copyOf(touched, n * 2);
+                    touched[n++] = doc;
+                }
+            }
+            for (int i = 0; i < n; i++) total[touched[i]] += tokenBest[touched[i]];
+            candidates = touched;
+            candidateCount = n;
+            if (n == 0) return EMPTY;
+        }
+        // score descending, then menu id, packed into one primitive sort key
+        long[] order = new long[candidateCount];
+        for (int i = 0; i < candidateCount; i++) {
+            int doc = candidates[i];
+            order[i] = (long) (Integer.MAX_VALUE - total[doc]) << 32 | (menuIdOf[doc] & 0xffffffffL);
+        }
+        Arrays.sort(order);
+        int[] out = new int[Math.min(limit, candidateCount)];
+        for (int i = 0; i < out.length; i++) out[i] = (int) order[i];
+        return out;
+    }
+
+    // Terms a query word can match, with the score for each kind of match.
+    private Map<String, Integer> matches(String token) {
+        Map<String, Integer> out = new HashMap<>();
+        // prefix (includes the exact term)
+        for (String t : postings.subMap(token, true, token + Character.MAX_VALUE, false).keySet()) {
+            out.put(t, t.length() == token.length() ? SCORE_EXACT : SCORE_PREFIX);
+        }
+        if (bareLength(token) < FUZZY_MIN_LENGTH) return out;
+        // one edit away: query is a term minus a char, a term is the query minus
+        // a char, or both lose a char at the same spot (substitution/transposition)
+        List<String> probes = new ArrayList<>();
+        probes.add(token);
+        probes.addAll(oneDeletes(token));
+        for (String p : probes) {
+            if (!p.equals(token) && postings.containsKey(p)) out.putIfAbsent(p, SCORE_FUZZY);
+            List<String> from = deletes.get(p);
+            if (from == null) continue;
+            for (String t : from) {
+                if (!out.containsKey(t) && withinOneEdit(token, t)) out.put(t, SCORE_FUZZY);
+            }
+        }
+        return out;
+    }
+
+    private void addPosting(String term, int doc) {
+        Posting p = postings.get(term);
+        if (p == null) {
+            postings.put(term, p = new Posting());
+            if (bareLength(term) >= FUZZY_MIN_LENGTH) {
+                for (String d : oneDeletes(term)) deletes.computeIfAbsent(d, k -> new ArrayList<>(2)).add(term);
+            }
+        }
+        p.add(doc);
+    }
+
+    private void unindex(int doc) {
+        String[] ts = termsOf[doc];
+        termsOf[doc] = null;
+        if (ts == null) return;
+        for (String term : ts) {
+            Posting p = postings.get(term);
+            if (p == null || !p.remove(doc)) continue;
+            if (p.size == 0) {
+                postings.remove(term);
+                if (bareLength(term) >= FUZZY_MIN_LENGTH) {
+                    for (String d : oneDeletes(term)) {
+                        List<String> from = deletes.get(d);
+                        if (from == null) continue;
+                        from.remove(term);
+                        if (from.isEmpty()) deletes.remove(d);
+                    }
+                }
+            }
+        }
+    }
+
+    private int allocate(int menuId) {
+        int doc;
+        if (!freeDocs.isEmpty()) {
+            doc = freeDocs.remove(freeDocs.size() - 1);
+        } else {
+            doc = docCount++;
+            if (doc == menuIdOf.length) {
+                int cap = doc * 2;
+                menuIdOf = Arrays.copyOf(menuIdOf, cap);
+                signatureOf = Arrays.copyOf(signatureOf, cap);
+                termsOf = Arrays.copyOf(termsOf, cap);
+                stamp = Arrays.copyOf(stamp, cap);
+                tokenBest = Arrays.copyOf(tokenBest, cap);
+                total = Arrays.copyOf(total, cap);
+            }
+        }
+        menuIdOf[doc] = menuId;
+        stamp[doc] = 0;
+        docOf.put(menuId, doc);
+        return doc;
+    }
+
+    // Sorted doc numbers with spare capacity; loads append in doc order.
+    private static final class Posting {
+        int[] docs = new int[2];
+        int size;
+
+        void add(int doc) {
+            int at = size > 0 && docs[size - 1] < doc ? size : Arrays.binarySearch(docs, 0, size, doc);
+            if (at >= 0 && at < size) return;
+            if (at < 0) at = -at - 1;
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            System.arraycopy(docs, at, docs, at + 1, size - at);
+            docs[at] = doc;
+            size++;
+        }
+
+        boolean remove(int doc) {
+            int at = Arrays.binarySearch(docs, 0, size, doc);
+            if (at < 0) return false;
+            System.arraycopy(docs, at + 1, docs, at, size - at - 1);
+            size--;
+            return true;
+        }
+    }
+
+    // Lower-cased runs of letters/digits; a leading '#' is kept as a tag marker.
+    static List<String> words(String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        String s = text.toLowerCase(Locale.ROOT);
+        int i = 0;
+        while (i < s.length()) {
+            boolean tag = s.charAt(i) == '#';
+            int start = tag ? i + 1 : i;
+            int j = start;
+            while (j < s.length() && Character.isLetterOrDigit(s.charAt(j))) j++;
+            if (j > start) out.add(tag ? '#' + s.substring(start, j) : s.substring(start, j));
+            i = Math.max(j, i + 1);
+        }
+        return out;
+    }
+
+    private static int bareLength(String term) {
+        return term.startsWith("#") ? term.length() - 1 : term.length();
+    }
+
+    // Single-character deletions, never removing a tag's '#'.
+    private static List<String> oneDeletes(String term) {
+        int from = term.startsWith("#") ? 1 : 0;
+        List<String> out = new ArrayList<>(term.length());
+        for (int i = from; i < term.length(); i++) {
+            out.add(term.substring(0, i) + term.substring(i + 1));
+        }
+        return out;
+    }
+
+    // Levenshtein distance <= 1, counting an adjacent transposition as one edit.
+    static boolean withinOneEdit(String a, String b) {
+        int la = a.length(), lb = b.length();
+        if (Math.abs(la - lb) > 1) return false;
+        int i = 0;
+        while (i < la && i < lb && a.charAt(i) == b.charAt(i)) i++;
+        if (i == la && i == lb) return true;
+        if (la == lb) {
+            if (a.regionMatches(i + 1, b, i + 1, la - i - 1)) return true; // substitution
+            return i + 1 < la && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+                    && a.regionMatches(i + 2, b, i + 2, la - i - 2);      // transposition
+        }
+        return la > lb ? a.regionMatches(i + 1, b, i, lb - i) : b.regionMatches(i + 1, a, i, la - i);
+    }
+}
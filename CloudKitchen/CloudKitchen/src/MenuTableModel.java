@@ -0,0 +1,206 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Menu grid backed by parallel arrays instead of one Object[] per row, so a
+// catalog of thousands of dishes costs a few primitives per row and loads
+// with a single table event. Filtering only rebuilds the int[] of visible
+// rows; the cart (option + qty) is kept per dish, so filtering a dish out of
+// view doesn't drop it from the order. Option selections are kept as
+// MenuOptions indices, so building the cart never parses text. Search text
+// goes through the MenuSearchIndex and rows come back in relevance order.
+//
+// Columns: ID, Name, Price, Available, Options, Qty, Category
+public class MenuTableModel extends AbstractTableModel {
+    public static final int COL_ID = 0, COL_NAME = 1, COL_PRICE = 2, COL_AVAILABLE = 3,
+            COL_OPTION = 4, COL_QTY = 5, COL_CATEGORY = 6;
+    private static final String[] COLUMNS = {"ID", "Name", "Price", "Available", "Options", "Qty", "Category"};
+    public static final String ALL_CATEGORIES = "All categories";
+
+    // one slot per dish in catalog order
+    private int[] ids = new int[0];
+    private String[] names = new String[0];
+    // (menuId << 32 | slot) sorted, to map search hits back to slots
+    private long[] slotById = new long[0];
+    private double[] prices = new double[0];
+    private final BitSet available = new BitSet();
+    private short[] category = new short[0];      // index into categories, -1 = none
+    private String[] categories = new String[0];
+    private MenuOptions[] options = new MenuOptions[0]; // interned, shared with the catalog
+    private int[][] selection = new int[0][];      // selected choices per dish
+    private int[] qty = new int[0];
+
+    // visible rows -> slot
+    private int[] view = new int[0];
+    private int viewSize = 0;
+    private String filterText = "";
+    private int filterCategory = -1;
+
+    private final List<Runnable> reloadListeners = new ArrayList<>();
+    private final MenuSearchIndex index;
+
+    public MenuTableModel(MenuSearchIndex index) {
+        this.index = index;
+    }
+
+    // Replaces the contents with a catalog snapshot; the cart starts empty.
+    public void load(MenuCatalog catalog) {
+        String keepCategory = filterCategory >= 0 ? categories[filterCategory] : null;
+        List<MenuCatalog.Item> items = catalog.items();
+        int n = items.size();
+        ids = new int[n];
+        names = new String[n];
+        slotById = new long[n];
+        prices = new double[n];
+        available.clear();
+        category = new short[n];
+        options = new MenuOptions[n];
+        selection = new int[n][];
+        qty = new int[n];
+        // "Pizza" and "pizza" from different brands land in one category
+        Map<String, Short> catIndex = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (MenuCatalog.Item it : items) if (it.category != null) catIndex.put(it.category, (short) 0);
+        categories = catIndex.keySet().toArray(new String[0]);
+        for (short i = 0; i < categories.length; i++) catIndex.put(categories[i], i);
+        for (int i = 0; i < n; i++) {
+            MenuCatalog.Item it = items.get(i);
+            ids[i] = it.id;
+            names[i] = it.name;
+            slotById[i] = (long) it.id << 32 | i;
+            prices[i] = it.price;
+            if (it.available) available.set(i);
+            Short c = it.category == null ? null : catIndex.get(it.category);
+            category[i] = c == null ? -1 : c;
+            options[i] = it.options;
+            selection[i] = it.options.defaultSelection();
+        }
+        Arrays.sort(slotById);
+        view = new int[n];
+        // keep the category filter if it still exists after the reload
+        Short kept = keepCategory == null ? null : catIndex.get(keepCategory);
+        filterCategory = kept == null ? -1 : kept;
+        refilter();
+        for (Runnable r : reloadListeners) r.run();
+    }
+
+    public void addReloadListener(Runnable r) { reloadListeners.add(r); }
+
+    public List<String> categories() {
+        List<String> out = new ArrayList<>(categories.length + 1);
+        out.add(ALL_CATEGORIES);
+        for (String c : categories) out.add(c);
+        return out;
+    }
+
+    // Search query (see MenuSearchIndex), optionally within one category.
+    public void setFilter(String text, String categoryName) {
+        filterText = text == null ? "" : text.trim();
+        filterCategory = -1;
+        for (int i = 0; i < categories.length; i++) {
+            if (categories[i].equalsIgnoreCase(categoryName)) { filterCategory = i; break; }
+        }
+        refilter();
+    }
+
+    private void refilter() {
+        int k = 0;
+        if (filterText.isEmpty()) {
+            for (int i = 0; i < ids.length; i++) {
+                if (filterCategory >= 0 && category[i] != filterCategory) continue;
+                view[k++] = i;
+            }
+        } else {
+            for (int id : index.search(filterText, ids.length)) {
+                int i = slotOf(id);
+                if (i < 0 || (filterCategory >= 0 && category[i] != filterCategory)) continue;
+                view[k++] = i;
+            }
+        }
+        viewSize = k;
+        fireTableDataChanged();
+    }
+
+    // -1 if the index knows a dish this snapshot doesn't (added since the load)
+    private int slotOf(int menuId) {
+        int at = Arrays.binarySearch(slotById, (long) menuId << 32);
+        if (at < 0) at = -at - 1;
+        if (at < slotById.length && (int) (slotById[at] >>> 32) == menuId) return (int) slotById[at];
+        return -1;
+    }
+
+    public int getMenuId(int row) { return ids[view[row]]; }
+
+    public MenuOptions getOptions(int row) { return options[view[row]]; }
+
+    public int[] getSelection(int row) { return selection[view[row]].clone(); }
+
+    // Every dish with a quantity, whether or not it is currently filtered into view.
+    public List<OrderDao.Line> cartLines() {
+        List<OrderDao.Line> cart = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (qty[i] > 0) cart.add(new OrderDao.Line(ids[i], qty[i], selection[i]));
+        }
+        return cart;
+    }
+
+    public void clearQuantities() {
+        Arrays.fill(qty, 0);
+        if (viewSize > 0) fireTableRowsUpdated(0, viewSize - 1);
+    }
+
+    @Override public int getRowCount() { return viewSize; }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int col) { return COLUMNS[col]; }
+
+    @Override
+    public Class<?> getColumnClass(int col) {
+        switch (col) {
+            case COL_ID: case COL_QTY: return Integer.class;
+            case COL_PRICE: return Double.class;
+            case COL_AVAILABLE: return Boolean.class;
+            default: return Object.class;
+        }
+    }
+
+    // allow editing Options (dishes that have any) and Qty
+    @Override public boolean isCellEditable(int row, int col) {
+        return col == COL_QTY || (col == COL_OPTION && !options[view[row]].isEmpty());
+    }
+
+    @Override
+    public Object getValueAt(int row, int col) {
+        int i = view[row];
+        switch (col) {
+            case COL_ID: return ids[i];
+            case COL_NAME: return names[i];
+            case COL_PRICE: return prices[i];
+            case COL_AVAILABLE: return available.get(i);
+            case COL_OPTION: return options[i].describe(selection[i]);
+            case COL_QTY: return qty[i];
+            case COL_CATEGORY: return category[i] < 0 ? "" : categories[category[i]];
+            default: return null;
+        }
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int col) {
+        int i = view[row];
+        if (col == COL_OPTION) {
+            // the editor hands back a checked selection
+            if (!(value instanceof int[])) return;
+            selection[i] = (int[]) value;
+        } else if (col == COL_QTY) {
+            int q;
+            try { q = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim()); }
+            catch (Exception ex) { q = 0; }
+            qty[i] = Math.max(0, q);
+        } else {
+            return;
+        }
+        fireTableCellUpdated(row, col);
+    }
+}
@@ -0,0 +1,219 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process-wide timers and counters keyed by name (one per query / operation).
+// Exposed through JMX (bean "CloudKitchen:type=Metrics") and as Prometheus-style
+// text from scrape(), served on /metrics by KitchenHttpServer or, for the Swing
+// client, on CLOUDKITCHEN_METRICS_PORT.
+//
+// CLOUDKITCHEN_METRICS=off turns recording into a constant-folded no-op.
+public final class Metrics {
+    public static final boolean ENABLED = !"off".equalsIgnoreCase(String.valueOf(System.getenv("CLOUDKITCHEN_METRICS")).trim());
+
+    public interface SqlWork<T> {
+        T run() throws SQLException;
+    }
+
+    static final class Timer {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+
+    static {
+        if (ENABLED) registerMBean();
+    }
+
+    private Metrics() {}
+
+    // Returns 0 when disabled so callers pay nothing but a branch.
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    public static void stop(String name, long start) {
+        if (!ENABLED) return;
+        timer(name).latency.record(System.nanoTime() - start);
+    }
+
+    public static void error(String name) {
+        if (!ENABLED) return;
+        timer(name).errors.incrementAndGet();
+    }
+
+    public static void increment(String name) {
+        if (!ENABLED) return;
+        COUNTERS.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    // Times a unit of JDBC work under 'name', counting failures separately.
+    public static <T> T timeSql(String name, SqlWork<T> work) throws SQLException {
+        if (!ENABLED) return work.run();
+        long t = System.nanoTime();
+        try {
+            T v = work.run();
+            timer(name).latency.record(System.nanoTime() - t);
+            return v;
+        } catch (SQLException | RuntimeException ex) {
+            timer(name).errors.incrementAndGet();
+            throw ex;
+        }
+    }
+
+    private static Timer timer(String name) {
+        Timer t = TIMERS.get(name);
+        return t != null ? t : TIMERS.computeIfAbsent(name, k -> new Timer());
+    }
+
+    // written out rather than computed: 99.9 / 100 prints as 0.9990000000000001
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+
+    // Prometheus text exposition format. Latencies are in seconds.
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# TYPE cloudkitchen_op_seconds summary\n");
+        for (Map.Entry<String, Timer> e : new TreeMap<>(TIMERS).entrySet()) {
+            String label = "{op=\"" + e.getKey() + "\"";
+            LatencyHistogram h = e.getValue().latency;
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                sb.append("cloudkitchen_op_seconds").append(label).append(",quantile=\"").append(QUANTILE_LABELS[i]).append("\"} ")
+                  .append(h.percentile(PERCENTILES[i]) / 1e9).append('\n');
+            }
+            sb.append("cloudkitchen_op_seconds_count").append(label).append("} ").append(h.count()).append('\n');
+            sb.append("cloudkitchen_op_seconds_sum").append(label).append("} ").append(h.mean() * h.count() / 1e9).append('\n');
+        }
+        sb.append("# TYPE cloudkitchen_op_errors_total counter\n");
+        for (Map.Entry<String, Timer> e : new TreeMap<>(TIMERS).entrySet()) {
+            sb.append("cloudkitchen_op_errors_total{op=\"").append(e.getKey()).append("\"} ")
+              .append(e.getValue().errors.get()).append('\n');
+        }
+        sb.append("# TYPE cloudkitchen_events_total counter\n");
+        for (Map.Entry<String, AtomicLong> e : new TreeMap<>(COUNTERS).entrySet()) {
+            sb.append("cloudkitchen_events_total{name=\"").append(e.getKey()).append("\"} ").append(e.getValue().get()).append('\n');
+        }
+        ConnectionPool.Stats p = DBUtil.poolStats();
+        sb.append("# TYPE cloudkitchen_db_pool gauge\n");
+        sb.append("cloudkitchen_db_pool{state=\"active\"} ").append(p.active).append('\n');
+        sb.append("cloudkitchen_db_pool{state=\"idle\"} ").append(p.idle).append('\n');
+        sb.append("cloudkitchen_db_pool{state=\"waiters\"} ").append(p.waiters).append('\n');
+        sb.append("cloudkitchen_db_pool_timeouts_total ").append(p.timeouts).append('\n');
+        sb.append("# TYPE cloudkitchen_db_statement_cache_total counter\n");
+        sb.append("cloudkitchen_db_statement_cache_total{result=\"hit\"} ").append(p.statementHits).append('\n');
+        sb.append("cloudkitchen_db_statement_cache_total{result=\"miss\"} ").append(p.statementMisses).append('\n');
+        List<DBUtil.ReplicaStats> replicas = DBUtil.replicaStats();
+        if (!replicas.isEmpty()) {
+            sb.append("# TYPE cloudkitchen_db_replica_up gauge\n");
+            for (DBUtil.ReplicaStats r : replicas) {
+                sb.append("cloudkitchen_db_replica_up{replica=\"").append(r.host).append("\"} ").append(r.healthy ? 1 : 0).append('\n');
+            }
+            sb.append("# TYPE cloudkitchen_db_replica_lag_seconds gauge\n");
+            for (DBUtil.ReplicaStats r : replicas) {
+                if (r.lagMs < 0) continue;
+                sb.append("cloudkitchen_db_replica_lag_seconds{replica=\"").append(r.host).append("\"} ").append(r.lagMs / 1e3).append('\n');
+            }
+            sb.append("# TYPE cloudkitchen_db_replica_pool gauge\n");
+            for (DBUtil.ReplicaStats r : replicas) {
+                sb.append("cloudkitchen_db_replica_pool{replica=\"").append(r.host).append("\",state=\"active\"} ").append(r.pool.active).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    // Stand-alone scrape endpoint for processes that don't run KitchenHttpServer.
+    public static HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 16);
+        server.createContext("/metrics", ex -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) { out.write(body); }
+        });
+        server.setExecutor(DataAccess.executor());
+        server.start();
+        return server;
+    }
+
+    private static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName("CloudKitchen:type=Metrics"));
+        } catch (Exception ex) {
+            // already registered (second class loader) or JMX unavailable: metrics still work
+        }
+    }
+
+    // Attributes are generated from whatever has been recorded so far:
+    // "<op>.count", "<op>.errors", "<op>.p50Micros", "<op>.p99Micros", plus pool gauges.
+    private static final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Map<String, Object> all = snapshot();
+            if (!all.containsKey(attribute)) throw new AttributeNotFoundException(attribute);
+            return all.get(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> all = snapshot();
+            AttributeList list = new AttributeList();
+            for (String a : attributes) if (all.containsKey(a)) list.add(new Attribute(a, all.get(a)));
+            return list;
+        }
+
+        @Override public void setAttribute(Attribute attribute) { }
+        @Override public AttributeList setAttributes(AttributeList attributes) { return new AttributeList(); }
+        @Override public Object invoke(String actionName, Object[] params, String[] signature) { return null; }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (Map.Entry<String, Object> e : snapshot().entrySet()) {
+                attrs.add(new MBeanAttributeInfo(e.getKey(), Long.class.getName(), e.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Cloud Kitchen operation metrics",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+        }
+
+        private static Map<String, Object> snapshot() {
+            Map<String, Object> m = new TreeMap<>();
+            for (Map.Entry<String, Timer> e : TIMERS.entrySet()) {
+                LatencyHistogram h = e.getValue().latency;
+                m.put(e.getKey() + ".count", h.count());
+                m.put(e.getKey() + ".errors", e.getValue().errors.get());
+                m.put(e.getKey() + ".p50Micros", h.percentile(50) / 1000);
+                m.put(e.getKey() + ".p99Micros", h.percentile(99) / 1000);
+            }
+            for (Map.Entry<String, AtomicLong> e : COUNTERS.entrySet()) m.put(e.getKey(), e.getValue().get());
+            ConnectionPool.Stats p = DBUtil.poolStats();
+            m.put("pool.active", (long) p.active);
+            m.put("pool.idle", (long) p.idle);
+            m.put("pool.waiters", (long) p.waiters);
+            m.put("pool.timeouts", p.timeouts);
+            m.put("pool.statementHits", p.statementHits);
+            m.put("pool.statementMisses", p.statementMisses);
+            return m;
+        }
+    }
+}
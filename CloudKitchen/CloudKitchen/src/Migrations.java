@@ -0,0 +1,425 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Versioned schema for everything the application reads and writes. Each
+// migration runs once, in order, and is recorded in schema_migrations; a new
+// schema change is a new entry at the end of MIGRATIONS, never an edit to an
+// applied one.
+//
+// Steps check information_schema before changing anything, so a database
+// that was set up by hand from the old DDL comments is adopted as-is: the
+// parts already there are skipped and only what is missing is added.
+// MySQL commits DDL implicitly, so a migration that fails half way is simply
+// re-run from the top next time.
+//
+// A version counts as applied only if it was recorded under the same
+// description. The first layout bundled several features per version; a
+// database recorded under it re-runs the renamed versions, which find their
+// changes already there and just re-record themselves.
+//
+// Runs at startup of MainApp and KitchenHttpServer unless CLOUDKITCHEN_DB_MIGRATE=off
+// (then startup only checks the schema is current and stops if it isn't), or by hand:
+//   java -cp out Migrations [migrate|status|check]
+// 'check' EXPLAINs every query the app runs (see QueryPlans) and exits
+// non-zero if one would scan a whole table.
+public final class Migrations {
+    // advisory lock so several terminals starting together don't migrate at once
+    private static final String LOCK = "cloudkitchen.migrate";
+    private static final int LOCK_TIMEOUT_S = 60;
+
+    interface Step {
+        // returns false if there was nothing to do
+        boolean apply(Connection conn) throws SQLException;
+    }
+
+    static final class Migration {
+        final int version;
+        final String description;
+        final Step[] steps;
+
+        Migration(int version, String description, Step... steps) {
+            this.version = version;
+            this.description = description;
+            this.steps = steps;
+        }
+    }
+
+    static final List<Migration> MIGRATIONS = Arrays.asList(
+            new Migration(1, "baseline tables",
+                    createTable("users", "CREATE TABLE users ("
+                            + " id INT AUTO_INCREMENT PRIMARY KEY,"
+                            + " name VARCHAR(100) NOT NULL,"
+                            + " email VARCHAR(255) NOT NULL,"
+                            + " password VARCHAR(128) NOT NULL,"
+                            + " role VARCHAR(20) NOT NULL DEFAULT 'CUSTOMER'"
+                            + ") ENGINE=InnoDB"),
+                    createTable("menu_items", "CREATE TABLE menu_items ("
+                            + " id INT AUTO_INCREMENT PRIMARY KEY,"
+                            + " name VARCHAR(100) NOT NULL,"
+                            + " price DECIMAL(10,2) NOT NULL,"
+                            + " available TINYINT(1) NOT NULL DEFAULT 1,"
+                            + " options VARCHAR(255) NULL"
+                            + ") ENGINE=InnoDB"),
+                    createTable("orders", "CREATE TABLE orders ("
+                            + " id INT AUTO_INCREMENT PRIMARY KEY,"
+                            + " user_id INT NOT NULL,"
+                            + " total DECIMAL(10,2) NOT NULL,"
+                            + " status VARCHAR(32) NOT NULL DEFAULT 'PENDING',"
+                            + " created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)"
+                            + ") ENGINE=InnoDB"),
+                    createTable("order_items", "CREATE TABLE order_items ("
+                            + " id INT AUTO_INCREMENT PRIMARY KEY,"
+                            + " order_id INT NOT NULL,"
+                            + " menu_item_id INT NOT NULL,"
+                            + " qty INT NOT NULL,"
+                            + " price DECIMAL(10,2) NOT NULL,"
+                            + " option_selected VARCHAR(100) NULL"
+                            + ") ENGINE=InnoDB")),
+            // Each feature's schema change is its own version. Indexes are one per
+            // query shape (InnoDB appends the primary key to each):
+            // orders.page (no filter)     ORDER BY created_at DESC, id DESC LIMIT n
+            // orders.page / orders.open   WHERE status=? / status IN (...) ORDER BY created_at
+            new Migration(2, "keyset paging indexes for the admin orders view",
+                    addIndex("orders", "idx_orders_created", false, "created_at"),
+                    addIndex("orders", "idx_orders_status_created", false, "status, created_at")),
+            // orders.changes              WHERE updated_at >= ? ORDER BY updated_at
+            new Migration(3, "order change feed",
+                    addColumn("orders", "updated_at",
+                            "TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)"),
+                    addIndex("orders", "idx_orders_updated", false, "updated_at")),
+            new Migration(4, "order status history",
+                    createTable("order_status_history", "CREATE TABLE order_status_history ("
+                            + " id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                            + " order_id INT NOT NULL,"
+                            + " from_status VARCHAR(32) NOT NULL,"
+                            + " to_status VARCHAR(32) NOT NULL,"
+                            + " changed_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),"
+                            + " KEY idx_history_order (order_id, changed_at)"
+                            + ") ENGINE=InnoDB")),
+            new Migration(5, "menu stock",
+                    addColumn("menu_items", "stock", "INT NULL")),
+            new Migration(6, "menu categories",
+                    addColumn("menu_items", "category", "VARCHAR(64) NULL")),
+            new Migration(7, "password hashes and sessions",
+                    widenColumn("users", "password", 128, "VARCHAR(128) NOT NULL"),
+                    createTable("user_sessions", "CREATE TABLE user_sessions ("
+                            + " token_hash CHAR(64) PRIMARY KEY,"
+                            + " user_id INT NOT NULL,"
+                            + " expires_at TIMESTAMP(3) NOT NULL,"
+                            + " KEY idx_sessions_expires (expires_at)"
+                            + ") ENGINE=InnoDB")),
+            // user.login                  users WHERE email=?
+            // orders.recent               WHERE user_id=? ORDER BY created_at DESC LIMIT n
+            // orders.open join            order_items WHERE order_id=?
+            new Migration(8, "indexes for the login and customer order queries",
+                    Migrations::checkDuplicateEmails,
+                    addIndex("users", "uq_users_email", true, "email"),
+                    addIndex("orders", "idx_orders_user_created", false, "user_id, created_at"),
+                    addIndex("order_items", "idx_order_items_order", false, "order_id")),
+            // menu_items.options is left in place (no longer read) so an older build can still run
+            new Migration(9, "structured menu options",
+                    createTable("option_groups", "CREATE TABLE option_groups ("
+                            + " id INT AUTO_INCREMENT PRIMARY KEY,"
+                            + " menu_item_id INT NOT NULL,"
+                            + " name VARCHAR(64) NOT NULL,"
+                            + " min_select INT NOT NULL DEFAULT 1,"
+                            + " max_select INT NOT NULL DEFAULT 1,"
+                            + " sort_order INT NOT NULL DEFAULT 0,"
+                            + " KEY idx_option_groups_item (menu_item_id, sort_order)"
+                            + ") ENGINE=InnoDB"),
+                    createTable("option_choices", "CREATE TABLE option_choices ("
+                            + " id INT AUTO_INCREMENT PRIMARY KEY,"
+                            + " group_id INT NOT NULL,"
+                            + " name VARCHAR(64) NOT NULL,"
+                            + " price_delta DECIMAL(10,2) NOT NULL DEFAULT 0,"
+                            + " sort_order INT NOT NULL DEFAULT 0,"
+                            + " KEY idx_option_choices_group (group_id, sort_order)"
+                            + ") ENGINE=InnoDB"),
+                    Migrations::backfillOptions,
+                    // room for "Size: Large; Extras: Cheese, Bacon"
+                    widenColumn("order_items", "option_selected", 255, "VARCHAR(255) NULL")),
+            // NULL for orders placed directly; the unique index allows any number of NULLs
+            new Migration(10, "order journal idempotency keys",
+                    addColumn("orders", "idempotency_key", "VARCHAR(64) NULL"),
+                    addIndex("orders", "uq_orders_idempotency", true, "idempotency_key")),
+            // journaled orders the database refused, so their reference still has an answer
+            new Migration(11, "refused journal orders",
+                    createTable("order_rejections", "CREATE TABLE order_rejections ("
+                            + " idempotency_key VARCHAR(64) PRIMARY KEY,"
+                            + " user_id INT NOT NULL,"
+                            + " reason VARCHAR(255) NOT NULL,"
+                            + " rejected_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)"
+                            + ") ENGINE=InnoDB"))
+    );
+
+    private Migrations() {}
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    // Applies every migration newer than the recorded version. Returns how many ran.
+    public static int migrate() throws SQLException {
+        try (Connection conn = DBUtil.getConnection()) {
+            lock(conn);
+            try {
+                ensureHistoryTable(conn);
+                Map<Integer, String> applied = applied(conn);
+                int ran = 0;
+                for (Migration m : MIGRATIONS) {
+                    if (m.description.equals(applied.get(m.version))) continue;
+                    long t = Metrics.start();
+                    int changed = 0;
+                    for (Step s : m.steps) if (s.apply(conn)) changed++;
+                    try (PreparedStatement ps = conn.prepareStatement(
+                            "INSERT INTO schema_migrations (version, description) VALUES (?,?)"
+                            + " ON DUPLICATE KEY UPDATE description=VALUES(description), applied_at=CURRENT_TIMESTAMP(3)")) {
+                        ps.setInt(1, m.version);
+                        ps.setString(2, m.description);
+                        ps.executeUpdate();
+                    }
+                    Metrics.stop("db.migrate", t);
+                    System.out.println("Schema migration " + m.version + " (" + m.description + "): "
+                            + changed + " of " + m.steps.length + " steps applied");
+                    ran++;
+                }
+                return ran;
+            } finally {
+                unlock(conn);
+            }
+        }
+    }
+
+    // version -> description of what is recorded as applied
+    public static Map<Integer, String> status() throws SQLException {
+        try (Connection conn = DBUtil.getConnection()) {
+            return tableExists(conn, "schema_migrations") ? applied(conn) : new TreeMap<>();
+        }
+    }
+
+    // Migrations not recorded as applied, oldest first.
+    public static List<Migration> pending() throws SQLException {
+        Map<Integer, String> applied = status();
+        List<Migration> out = new ArrayList<>();
+        for (Migration m : MIGRATIONS) if (!m.description.equals(applied.get(m.version))) out.add(m);
+        return out;
+    }
+
+    // Startup hook for MainApp and KitchenHttpServer. The app reads columns and
+    // tables added by later versions, so it can't run on an older schema: throws
+    // if the schema is behind and migrating is switched off or fails. A database
+    // that can't be reached is left to the app's usual error handling.
+    public static void migrateAtStartup() throws SQLException {
+        List<Migration> pending;
+        try {
+            pending = pending();
+        } catch (SQLException ex) {
+            if (ex.getSQLState() == null || !ex.getSQLState().startsWith("08")) throw ex;
+            System.err.println("Schema check skipped, database unreachable: " + ex.getMessage());
+            return;
+        }
+        if (pending.isEmpty()) return;
+        if ("off".equalsIgnoreCase(String.valueOf(System.getenv("CLOUDKITCHEN_DB_MIGRATE")).trim())) {
+            throw new SQLException("The database schema is older than this version of Cloud Kitchen (pending: "
+                    + describe(pending) + "). Run 'java Migrations migrate', or start without CLOUDKITCHEN_DB_MIGRATE=off.");
+        }
+        try {
+            migrate();
+        } catch (SQLException ex) {
+            throw new SQLException("Could not bring the database schema up to date (pending: " + describe(pending)
+                    + "): " + ex.getMessage(), ex.getSQLState(), ex.getErrorCode(), ex);
+        }
+    }
+
+    private static String describe(List<Migration> ms) {
+        StringBuilder sb = new StringBuilder();
+        for (Migration m : ms) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(m.version).append(' ').append(m.description);
+        }
+        return sb.toString();
+    }
+
+    private static void ensureHistoryTable(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS schema_migrations ("
+                    + " version INT PRIMARY KEY,"
+                    + " description VARCHAR(255) NOT NULL,"
+                    + " applied_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)"
+                    + ") ENGINE=InnoDB");
+        }
+    }
+
+    private static Map<Integer, String> applied(Connection conn) throws SQLException {
+        Map<Integer, String> out = new TreeMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT version, description FROM schema_migrations");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.put(rs.getInt(1), rs.getString(2));
+        }
+        return out;
+    }
+
+    private static void lock(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            ps.setString(1, LOCK);
+            ps.setInt(2, LOCK_TIMEOUT_S);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) throw new SQLException("Another process is migrating the schema");
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            ps.setString(1, LOCK);
+            ps.executeQuery().close();
+        } catch (SQLException ignored) {}
+    }
+
+    // --- steps ---
+
+    static Step createTable(String table, String ddl) {
+        return conn -> !tableExists(conn, table) && execute(conn, ddl);
+    }
+
+    static Step addColumn(String table, String column, String definition) {
+        return conn -> columnLength(conn, table, column) == null
+                && execute(conn, "ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+    }
+
+    // Only ever grows a VARCHAR; a column already at least 'length' wide is left alone.
+    static Step widenColumn(String table, String column, int length, String definition) {
+        return conn -> {
+            Long current = columnLength(conn, table, column);
+            if (current == null) throw new SQLException("Column " + table + "." + column + " does not exist");
+            return current < length && execute(conn, "ALTER TABLE " + table + " MODIFY " + column + " " + definition);
+        };
+    }
+
+    static Step addIndex(String table, String index, boolean unique, String columns) {
+        return conn -> !indexExists(conn, table, index)
+                && execute(conn, "CREATE " + (unique ? "UNIQUE " : "") + "INDEX " + index + " ON " + table + " (" + columns + ")");
+    }
+
+    // The unique login index can't be built over duplicate emails, and which
+    // account to keep is not for a migration to decide: list them and stop.
+    private static boolean checkDuplicateEmails(Connection conn) throws SQLException {
+        if (indexExists(conn, "users", "uq_users_email")) return false;
+        List<String> dupes = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT email, COUNT(*) FROM users"
+                + " GROUP BY email HAVING COUNT(*) > 1 ORDER BY email LIMIT 20");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) dupes.add(rs.getString(1) + " (" + rs.getInt(2) + " accounts)");
+        }
+        if (!dupes.isEmpty()) {
+            throw new SQLException("users.email has duplicates; merge or rename these accounts, then migrate again: "
+                    + String.join(", ", dupes));
+        }
+        return false;
+    }
+
+    // Turns each legacy comma list into one required pick-one group. Dishes that
+    // already have groups are skipped, so a re-run only finishes what's left.
+    private static boolean backfillOptions(Connection conn) throws SQLException {
+        if (columnLength(conn, "menu_items", "options") == null) return false;
+        Map<Integer, String> legacy = new TreeMap<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT m.id, m.options FROM menu_items m"
+                + " WHERE m.options IS NOT NULL AND TRIM(m.options) <> ''"
+                + " AND NOT EXISTS (SELECT 1 FROM option_groups g WHERE g.menu_item_id=m.id)");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) legacy.put(rs.getInt(1), rs.getString(2));
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for (Map.Entry<Integer, String> e : legacy.entrySet()) {
+                MenuOptions.store(conn, e.getKey(), MenuOptions.single(e.getValue().trim().split("\\s*,\\s*")));
+                conn.commit();
+            }
+        } catch (SQLException ex) {
+            try { conn.rollback(); } catch (SQLException ignored) {}
+            throw ex;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return !legacy.isEmpty();
+    }
+
+    private static boolean execute(Connection conn, String ddl) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute(ddl);
+        }
+        return true;
+    }
+
+    static boolean tableExists(Connection conn, String table) throws SQLException {
+        return exists(conn, "SELECT 1 FROM information_schema.tables WHERE table_schema=DATABASE() AND table_name=?", table);
+    }
+
+    private static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        return exists(conn, "SELECT 1 FROM information_schema.statistics"
+                + " WHERE table_schema=DATABASE() AND table_name=? AND index_name=?", table, index);
+    }
+
+    // CHARACTER_MAXIMUM_LENGTH of the column (0 for non-character types), null if it doesn't exist.
+    private static Long columnLength(Connection conn, String table, String column) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT COALESCE(character_maximum_length, 0)"
+                + " FROM information_schema.columns WHERE table_schema=DATABASE() AND table_name=? AND column_name=?")) {
+            ps.setString(1, table);
+            ps.setString(2, column);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+    }
+
+    private static boolean exists(Connection conn, String sql, String... args) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) ps.setString(i + 1, args[i]);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        String cmd = args.length > 0 ? args[0] : "migrate";
+        switch (cmd) {
+            case "migrate":
+                int ran = migrate();
+                System.out.println(ran == 0 ? "Schema is up to date (version " + latestVersion() + ")"
+                        : "Applied " + ran + " migration(s), now at version " + latestVersion());
+                break;
+            case "status":
+                Map<Integer, String> applied = status();
+                for (Migration m : MIGRATIONS) {
+                    System.out.printf("%3d  %-8s %s%n", m.version, m.description.equals(applied.get(m.version)) ? "applied" : "pending", m.description);
+                }
+                break;
+            case "check":
+                List<String> problems = new ArrayList<>();
+                try (Connection conn = DBUtil.getConnection()) {
+                    for (QueryPlans.Plan p : QueryPlans.explainAll(conn)) {
+                        System.out.println(p);
+                        if (p.problem != null) problems.add(p.name + ": " + p.problem);
+                    }
+                }
+                if (!problems.isEmpty()) {
+                    System.err.println(problems.size() + " query plan problem(s):");
+                    for (String s : problems) System.err.println("  " + s);
+                    System.exit(1);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Usage: Migrations [migrate|status|check]");
+        }
+    }
+}
@@ -0,0 +1,351 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Order persistence with a constant number of round trips per order:
+// one set-based price lookup, one order insert, one multi-row item insert,
+// one stock reservation, commit. insertOrders does the same for a whole
+// batch of orders (see OrderWriter).
+//
+// Stock lives on menu_items.stock (NULL = not counted, Migrations v5).
+public class OrderDao {
+    // MySQL caps a packet (max_allowed_packet); keep each multi-row insert well below it
+    private static final int MAX_ROWS_PER_INSERT = 500;
+
+    public static class Line {
+        public final int menuId;
+        public final int qty;
+        public final String option;     // choice name(s) as stored in option_selected; may be null
+        public final int[] choices;     // selected MenuOptions indices; null when given by name only
+        public final double priceDelta; // added to the unit price, set by KitchenService.validateCart
+
+        // by option name, as older clients send it
+        public Line(int menuId, int qty, String option) {
+            this(menuId, qty, option, null, 0);
+        }
+
+        public Line(int menuId, int qty, int[] choices) {
+            this(menuId, qty, null, choices, 0);
+        }
+
+        Line(int menuId, int qty, String option, int[] choices, double priceDelta) {
+            this.menuId = menuId;
+            this.qty = qty;
+            this.option = option;
+            this.choices = choices;
+            this.priceDelta = priceDelta;
+        }
+    }
+
+    // Thrown (and the transaction rolled back) when a line's dish was deleted,
+    // switched off or doesn't have enough stock left at commit time.
+    public static class Unavailable extends SQLException {
+        public final List<Integer> menuIds;
+
+        Unavailable(List<Integer> menuIds) {
+            super("Not available: menu items " + menuIds);
+            this.menuIds = menuIds;
+        }
+    }
+
+    public static class Placed {
+        public final int orderId;      // 0 while the order is only in the OrderJournal
+        public final double total;
+        public final String reference; // journal idempotency key, null for orders written directly
+
+        Placed(int orderId, double total) {
+            this(orderId, total, null);
+        }
+
+        Placed(int orderId, double total, String reference) {
+            this.orderId = orderId;
+            this.total = total;
+            this.reference = reference;
+        }
+
+        // Accepted into the journal but not in the database yet, so no order id.
+        public boolean isQueued() { return orderId <= 0; }
+    }
+
+    // One order of a batch for insertOrders.
+    public static class NewOrder {
+        public final int userId;
+        public final List<Line> lines;
+        public final String key; // idempotency key, may be null
+
+        public NewOrder(int userId, List<Line> lines, String key) {
+            this.userId = userId;
+            this.lines = lines;
+            this.key = key;
+        }
+    }
+
+    public static Placed insertOrder(Connection conn, int userId, List<Line> lines) throws SQLException {
+        return insertOrder(conn, userId, lines, null);
+    }
+
+    // Writes the order and all its lines in one transaction. Base prices always
+    // come from menu_items, never from the client; option deltas come from the
+    // catalog the cart was validated against.
+    //
+    // With an idempotency key, an order already stored under that key (a
+    // journal resubmission) is returned as it is instead of written again.
+    public static Placed insertOrder(Connection conn, int userId, List<Line> lines, String key) throws SQLException {
+        if (lines.isEmpty()) throw new SQLException("Order has no lines");
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            Map<Integer, Double> prices = resolvePrices(conn, lines);
+            double total = 0;
+            for (Line l : lines) total += (prices.get(l.menuId) + l.priceDelta) * l.qty;
+
+            int orderId;
+            try (PreparedStatement ps = Queries.ORDER_INSERT.prepare(conn, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setInt(1, userId);
+                ps.setDouble(2, total);
+                ps.setString(3, "PENDING");
+                ps.setString(4, key); // may be null
+                try {
+                    ps.executeUpdate();
+                } catch (SQLException dup) {
+                    if (key == null || dup.getSQLState() == null || !dup.getSQLState().startsWith("23")) throw dup;
+                    conn.rollback();
+                    Placed existing = findByKey(conn, key);
+                    if (existing == null) throw dup;
+                    return existing;
+                }
+                try (ResultSet gk = ps.getGeneratedKeys()) {
+                    if (!gk.next()) throw new SQLException("Cannot create order");
+                    orderId = gk.getInt(1);
+                }
+            }
+
+            int[] orderIds = new int[lines.size()];
+            Arrays.fill(orderIds, orderId);
+            insertItems(conn, orderIds, lines, prices);
+            // last statement before commit, so the row locks on popular dishes
+            // are held only for the reservation itself and the commit
+            reserveStock(conn, lines);
+            conn.commit();
+            return new Placed(orderId, total, key);
+        } catch (SQLException | RuntimeException ex) {
+            try { conn.rollback(); } catch (SQLException ignored) {}
+            throw ex;
+        } finally {
+            try { conn.setAutoCommit(autoCommit); } catch (SQLException ignored) {}
+        }
+    }
+
+    // Writes several orders in one transaction: one price lookup, one multi-row
+    // insert for the orders and one for all their lines, one stock reservation
+    // for the summed quantities, one commit. Results are in input order.
+    //
+    // All or nothing: if any order can't be fulfilled (or a key was already
+    // used) the whole batch rolls back, and the caller retries the orders one
+    // by one with insertOrder to find out which. Relies on a multi-row INSERT
+    // getting consecutive AUTO_INCREMENT ids, which InnoDB guarantees for
+    // inserts whose row count is known up front, in every innodb_autoinc_lock_mode.
+    public static List<Placed> insertOrders(Connection conn, List<NewOrder> orders) throws SQLException {
+        if (orders.size() == 1) {
+            NewOrder o = orders.get(0);
+            return Collections.singletonList(insertOrder(conn, o.userId, o.lines, o.key));
+        }
+        List<Line> all = new ArrayList<>();
+        for (NewOrder o : orders) {
+            if (o.lines.isEmpty()) throw new SQLException("Order has no lines");
+            all.addAll(o.lines);
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            Map<Integer, Double> prices = resolvePrices(conn, all);
+            double[] totals = new double[orders.size()];
+            for (int i = 0; i < totals.length; i++) {
+                for (Line l : orders.get(i).lines) totals[i] += (prices.get(l.menuId) + l.priceDelta) * l.qty;
+            }
+
+            int[] ids = new int[orders.size()];
+            for (int from = 0; from < orders.size(); from += MAX_ROWS_PER_INSERT) {
+                int to = Math.min(orders.size(), from + MAX_ROWS_PER_INSERT);
+                try (PreparedStatement ps = conn.prepareStatement(insertOrdersSql(to - from), Statement.RETURN_GENERATED_KEYS)) {
+                    int p = 1;
+                    for (int i = from; i < to; i++) {
+                        ps.setInt(p++, orders.get(i).userId);
+                        ps.setDouble(p++, totals[i]);
+                        ps.setString(p++, "PENDING");
+                        ps.setString(p++, orders.get(i).key);
+                    }
+                    ps.executeUpdate();
+                    try (ResultSet gk = ps.getGeneratedKeys()) {
+                        for (int i = from; i < to; i++) {
+                            if (!gk.next()) throw new SQLException("Cannot create order");
+                            ids[i] = gk.getInt(1);
+                        }
+                    }
+                }
+            }
+
+            int[] lineOrder = new int[all.size()];
+            int k = 0;
+            for (int i = 0; i < orders.size(); i++) {
+                for (int j = 0; j < orders.get(i).lines.size(); j++) lineOrder[k++] = ids[i];
+            }
+            insertItems(conn, lineOrder, all, prices);
+            reserveStock(conn, all);
+            conn.commit();
+            List<Placed> out = new ArrayList<>(orders.size());
+            for (int i = 0; i < ids.length; i++) out.add(new Placed(ids[i], totals[i], orders.get(i).key));
+            return out;
+        } catch (SQLException | RuntimeException ex) {
+            try { conn.rollback(); } catch (SQLException ignored) {}
+            throw ex;
+        } finally {
+            try { conn.setAutoCommit(autoCommit); } catch (SQLException ignored) {}
+        }
+    }
+
+    private static Placed findByKey(Connection conn, String key) throws SQLException {
+        try (PreparedStatement ps = Queries.ORDER_BY_KEY.prepare(conn)) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new Placed(rs.getInt(1), rs.getDouble(2), key) : null;
+            }
+        }
+    }
+
+    // SELECT id, price FROM menu_items WHERE id IN (...) for all distinct ids at once.
+    static Map<Integer, Double> resolvePrices(Connection conn, List<Line> lines) throws SQLException {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (Line l : lines) ids.add(l.menuId);
+        Map<Integer, Double> prices = new HashMap<>(ids.size() * 2);
+        try (PreparedStatement ps = conn.prepareStatement(pricesSql(ids.size()))) {
+            int i = 1;
+            for (int id : ids) ps.setInt(i++, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) prices.put(rs.getInt(1), rs.getDouble(2));
+            }
+        }
+        List<Integer> gone = new ArrayList<>();
+        for (int id : ids) if (!prices.containsKey(id)) gone.add(id);
+        if (!gone.isEmpty()) throw new Unavailable(gone);
+        return prices;
+    }
+
+    // INSERT INTO order_items ... VALUES (...),(...),... in chunks of MAX_ROWS_PER_INSERT;
+    // orderIds[i] is the order lines.get(i) belongs to.
+    static void insertItems(Connection conn, int[] orderIds, List<Line> lines, Map<Integer, Double> prices) throws SQLException {
+        for (int from = 0; from < lines.size(); from += MAX_ROWS_PER_INSERT) {
+            int to = Math.min(lines.size(), from + MAX_ROWS_PER_INSERT);
+            try (PreparedStatement ps = conn.prepareStatement(insertItemsSql(to - from))) {
+                int p = 1;
+                for (int r = from; r < to; r++) {
+                    Line l = lines.get(r);
+                    ps.setInt(p++, orderIds[r]);
+                    ps.setInt(p++, l.menuId);
+                    ps.setInt(p++, l.qty);
+                    ps.setDouble(p++, prices.get(l.menuId) + l.priceDelta);
+                    ps.setString(p++, l.option); // may be null
+                }
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    // Decrements stock for every dish in the order with one conditional
+    // multi-table UPDATE. A row only matches if it is still available and has
+    // enough stock, so a short row simply doesn't match; there is no
+    // SELECT ... FOR UPDATE. Ids are sent in ascending order so concurrent
+    // orders lock shared dishes in the same order.
+    //
+    // Relies on Connector/J's default useAffectedRows=false: the update count is
+    // rows matched, which includes uncounted (NULL stock) dishes left unchanged.
+    static void reserveStock(Connection conn, List<Line> lines) throws SQLException {
+        Map<Integer, Integer> wanted = new TreeMap<>();
+        for (Line l : lines) wanted.merge(l.menuId, l.qty, Integer::sum);
+        int matched;
+        try (PreparedStatement ps = conn.prepareStatement(reserveStockSql(wanted.size()))) {
+            int p = 1;
+            for (Map.Entry<Integer, Integer> e : wanted.entrySet()) {
+                ps.setInt(p++, e.getKey());
+                ps.setInt(p++, e.getValue());
+            }
+            matched = ps.executeUpdate();
+        }
+        if (matched != wanted.size()) throw new Unavailable(shortLines(conn, wanted));
+    }
+
+    // Only runs on the failure path, to tell the customer which dishes ran out.
+    private static List<Integer> shortLines(Connection conn, Map<Integer, Integer> wanted) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT id, available, stock FROM menu_items WHERE id IN (");
+        appendPlaceholders(sql, wanted.size(), 1);
+        sql.append(')');
+        List<Integer> missing = new ArrayList<>(wanted.keySet());
+        List<Integer> out = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            int i = 1;
+            for (int id : wanted.keySet()) ps.setInt(i++, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    missing.remove(Integer.valueOf(id));
+                    boolean available = rs.getBoolean(2);
+                    int stock = rs.getInt(3);
+                    boolean counted = !rs.wasNull();
+                    if (!available || (counted && stock < wanted.get(id))) out.add(id);
+                }
+            }
+        }
+        out.addAll(missing);
+        return out;
+    }
+
+    // The statements above are built per call; QueryPlans EXPLAINs them through these.
+
+    static String pricesSql(int ids) {
+        StringBuilder sql = new StringBuilder("SELECT id, price FROM menu_items WHERE id IN (");
+        appendPlaceholders(sql, ids, 1);
+        return sql.append(')').toString();
+    }
+
+    static String insertOrdersSql(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO orders (user_id, total, status, idempotency_key) VALUES ");
+        appendPlaceholders(sql, rows, 4);
+        return sql.toString();
+    }
+
+    static String insertItemsSql(int rows) {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO order_items (order_id, menu_item_id, qty, price, option_selected) VALUES ");
+        appendPlaceholders(sql, rows, 5);
+        return sql.toString();
+    }
+
+    // binds (id, qty) per dish, ids ascending
+    static String reserveStockSql(int dishes) {
+        StringBuilder sql = new StringBuilder("UPDATE menu_items m JOIN (");
+        for (int i = 0; i < dishes; i++) sql.append(i == 0 ? "SELECT ? AS id, ? AS qty" : " UNION ALL SELECT ?, ?");
+        return sql.append(") r ON m.id = r.id SET m.stock = m.stock - r.qty")
+                  .append(" WHERE m.available = 1 AND (m.stock IS NULL OR m.stock >= r.qty)").toString();
+    }
+
+    static void appendPlaceholders(StringBuilder sb, int count, int width) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            if (width == 1) { sb.append('?'); continue; }
+            sb.append('(');
+            for (int j = 0; j < width; j++) sb.append(j == 0 ? "?" : ",?");
+            sb.append(')');
+        }
+    }
+}
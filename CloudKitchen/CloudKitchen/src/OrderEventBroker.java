@@ -0,0 +1,97 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Minimal fan-out relay for OrderEventBus. Every line a client sends is
+// forwarded to all other connected clients. Run one per site:
+//   java OrderEventBroker [port]
+//
+// Each client has its own bounded outbound queue and writer thread, so a slow
+// terminal never holds up the others. If a client's queue fills up its backlog
+// is dropped and replaced by a RESYNC line, which makes that terminal re-read.
+public class OrderEventBroker {
+    public static final int DEFAULT_PORT = 7471;
+    private static final int CLIENT_QUEUE = 4096;
+    private static final byte[] RESYNC = (OrderEventBus.SocketBackend.RESYNC + "\n").getBytes(StandardCharsets.UTF_8);
+
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("Order event broker listening on " + port);
+            while (true) {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                Client c = new Client(s);
+                clients.add(c);
+                Thread t = new Thread(() -> relay(c), "broker-client-" + s.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+                Thread w = new Thread(() -> c.writeLoop(clients), "broker-out-" + s.getRemoteSocketAddress());
+                w.setDaemon(true);
+                w.start();
+            }
+        }
+    }
+
+    private void relay(Client from) {
+        try (Socket s = from.socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                byte[] msg = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                for (Client c : clients) {
+                    if (c != from) c.send(msg);
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            clients.remove(from);
+            from.queue.clear();
+            from.queue.offer(Client.CLOSE);
+        }
+    }
+
+    private static class Client {
+        static final byte[] CLOSE = new byte[0];
+        final Socket socket;
+        final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(CLIENT_QUEUE);
+
+        Client(Socket socket) { this.socket = socket; }
+
+        // Never blocks the relaying thread.
+        void send(byte[] msg) {
+            if (queue.offer(msg)) return;
+            queue.clear();
+            queue.offer(RESYNC);
+            queue.offer(msg);
+        }
+
+        void writeLoop(Set<Client> clients) {
+            try {
+                OutputStream out = socket.getOutputStream();
+                while (true) {
+                    byte[] msg = queue.take();
+                    if (msg == CLOSE) return;
+                    out.write(msg);
+                    if (queue.isEmpty()) out.flush();
+                }
+            } catch (IOException | InterruptedException ex) {
+                try { socket.close(); } catch (IOException ignored) {}
+                clients.remove(this);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        new OrderEventBroker().serve(port);
+    }
+}
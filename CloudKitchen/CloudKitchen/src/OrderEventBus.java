@@ -0,0 +1,293 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Publish/subscribe for order status changes so tracking views are pushed
+// updates instead of polling the orders table.
+//
+// Backend is chosen with CLOUDKITCHEN_EVENT_BROKER:
+//   unset      -> in-JVM only (single terminal / single node)
+//   host:port  -> events are also relayed through an OrderEventBroker so
+//                 terminals on other machines see them
+//
+// Events can be missed over the broker (link down, a peer too slow to keep
+// up). When that may have happened listeners get onResync() and should
+// re-read whatever they show instead of waiting for the next event.
+public class OrderEventBus {
+    public static final class OrderEvent {
+        public final int orderId;
+        public final int userId; // -1 if the publisher doesn't know the owner
+        public final String status;
+        // what a kitchen display needs to ticket a new order without reading it back;
+        // set on the PENDING event of an order just placed, otherwise 0 / null
+        public final long placedAt;
+        public final List<OrderDao.Line> lines; // menu id and qty only
+
+        public OrderEvent(int orderId, int userId, String status) {
+            this(orderId, userId, status, 0, null);
+        }
+
+        public OrderEvent(int orderId, int userId, String status, long placedAt, List<OrderDao.Line> lines) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.status = status;
+            this.placedAt = placedAt;
+            this.lines = lines;
+        }
+
+        // "12 3 PENDING" or, for a new order, "12 3 PENDING 1760000000000 7x2,9x1"
+        String encode() {
+            String head = orderId + " " + userId + " " + status;
+            if (lines == null) return head;
+            StringBuilder sb = new StringBuilder(head).append(' ').append(placedAt).append(' ');
+            for (int i = 0; i < lines.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(lines.get(i).menuId).append('x').append(lines.get(i).qty);
+            }
+            return sb.toString();
+        }
+
+        static OrderEvent decode(String line) {
+            String[] p = line.trim().split(" ");
+            if (p.length != 3 && p.length != 5) return null;
+            try {
+                if (p.length == 3) return new OrderEvent(Integer.parseInt(p[0]), Integer.parseInt(p[1]), p[2]);
+                List<OrderDao.Line> lines = new ArrayList<>();
+                for (String l : p[4].split(",")) {
+                    String[] mq = l.split("x");
+                    lines.add(new OrderDao.Line(Integer.parseInt(mq[0]), Integer.parseInt(mq[1]), (String) null));
+                }
+                return new OrderEvent(Integer.parseInt(p[0]), Integer.parseInt(p[1]), p[2], Long.parseLong(p[3]), lines);
+            } catch (RuntimeException ex) {
+                return null;
+            }
+        }
+    }
+
+    public interface Listener {
+        void onEvent(OrderEvent e);
+
+        // Events may have been lost; re-read the current state.
+        default void onResync() {}
+    }
+
+    public interface Subscription extends AutoCloseable {
+        @Override void close();
+    }
+
+    // Transport for events leaving this JVM. Events arriving from elsewhere are
+    // fed to the sink; resync is run when some may not have arrived.
+    public interface Backend {
+        void start(Consumer<OrderEvent> sink, Runnable resync);
+        void publish(OrderEvent e);
+        void close();
+    }
+
+    private static final OrderEventBus INSTANCE = new OrderEventBus(backendFromEnv());
+
+    private final Map<Integer, List<Listener>> byOrder = new ConcurrentHashMap<>();
+    private final List<Listener> all = new CopyOnWriteArrayList<>();
+    private final Backend backend;
+    // single dispatcher keeps per-order delivery in publish order and never blocks publishers
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "order-events");
+        t.setDaemon(true);
+        return t;
+    });
+
+    OrderEventBus(Backend backend) {
+        this.backend = backend;
+        if (backend != null) backend.start(this::deliver, this::resync);
+    }
+
+    public static OrderEventBus get() { return INSTANCE; }
+
+    public void publish(int orderId, int userId, String status) {
+        publish(new OrderEvent(orderId, userId, status));
+    }
+
+    public void publish(OrderEvent e) {
+        deliver(e);
+        if (backend != null) backend.publish(e);
+    }
+
+    public Subscription subscribe(int orderId, Listener l) {
+        byOrder.computeIfAbsent(orderId, k -> new CopyOnWriteArrayList<>()).add(l);
+        return () -> byOrder.computeIfPresent(orderId, (k, list) -> {
+            list.remove(l);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    public Subscription subscribeAll(Listener l) {
+        all.add(l);
+        return () -> all.remove(l);
+    }
+
+    private void deliver(OrderEvent e) {
+        dispatcher.execute(() -> {
+            List<Listener> ls = byOrder.get(e.orderId);
+            if (ls != null) for (Listener l : ls) notify(l, e);
+            for (Listener l : all) notify(l, e);
+        });
+    }
+
+    void resync() {
+        dispatcher.execute(() -> {
+            for (List<Listener> ls : byOrder.values()) for (Listener l : ls) resync(l);
+            for (Listener l : all) resync(l);
+        });
+    }
+
+    private static void resync(Listener l) {
+        try {
+            l.onResync();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static void notify(Listener l, OrderEvent e) {
+        try {
+            l.onEvent(e);
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    // host or host:port. A malformed value is reported and events stay in this
+    // process, as if no broker were set; the refreshers still catch up.
+    private static Backend backendFromEnv() {
+        String broker = System.getenv("CLOUDKITCHEN_EVENT_BROKER");
+        if (broker == null || broker.trim().isEmpty()) return null;
+        String[] hp = broker.trim().split(":", -1);
+        int port = OrderEventBroker.DEFAULT_PORT;
+        if (hp.length == 2) {
+            try {
+                port = Integer.parseInt(hp[1]);
+            } catch (NumberFormatException bad) {
+                port = -1;
+            }
+        }
+        if (hp.length > 2 || hp[0].isEmpty() || port < 1 || port > 65535) {
+            System.err.println("Ignoring CLOUDKITCHEN_EVENT_BROKER=" + broker + ": expected host or host:port;"
+                    + " order events stay in this process");
+            return null;
+        }
+        return new SocketBackend(hp[0], port);
+    }
+
+    // Line-based TCP client for OrderEventBroker. Reconnects in the background.
+    // Outgoing events wait in a bounded queue while the link is down and go out
+    // once it is back; if that queue overflows the oldest are dropped and the
+    // broker is told to resync every peer. Listeners here resync after every
+    // reconnect, since whatever was relayed in the meantime never arrived.
+    static class SocketBackend implements Backend {
+        static final String RESYNC = "RESYNC";
+        private static final int OUTBOX = 4096;
+
+        private final String host;
+        private final int port;
+        private final LinkedBlockingQueue<String> outbox = new LinkedBlockingQueue<>(OUTBOX);
+        private volatile boolean overflowed = false;
+        private volatile boolean closed = false;
+        private volatile Socket socket;
+
+        SocketBackend(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public void start(Consumer<OrderEvent> sink, Runnable resync) {
+            Thread t = new Thread(() -> readLoop(sink, resync), "order-events-broker");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void readLoop(Consumer<OrderEvent> sink, Runnable resync) {
+            long backoff = 500;
+            boolean connectedBefore = false;
+            while (!closed) {
+                try (Socket s = new Socket()) {
+                    s.connect(new InetSocketAddress(host, port), 2000);
+                    s.setTcpNoDelay(true);
+                    backoff = 500;
+                    Thread writer = new Thread(() -> writeLoop(s), "order-events-broker-out");
+                    writer.setDaemon(true);
+                    writer.start();
+                    socket = s;
+                    if (connectedBefore) resync.run();
+                    connectedBefore = true;
+                    BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.equals(RESYNC)) {
+                            resync.run();
+                            continue;
+                        }
+                        OrderEvent e = OrderEvent.decode(line);
+                        if (e != null) sink.accept(e);
+                    }
+                } catch (IOException ex) {
+                    // broker down: retry below
+                } finally {
+                    socket = null;
+                }
+                try { Thread.sleep(backoff); } catch (InterruptedException ie) { return; }
+                backoff = Math.min(backoff * 2, 10_000);
+            }
+        }
+
+        // One per connection; exits when the socket closes. An event taken but not
+        // written is lost with the link, like any other event relayed meanwhile.
+        private void writeLoop(Socket s) {
+            try {
+                OutputStream out = s.getOutputStream();
+                while (!s.isClosed()) {
+                    if (overflowed) {
+                        overflowed = false;
+                        out.write((RESYNC + "\n").getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                    String line = outbox.poll(1, TimeUnit.SECONDS);
+                    if (line == null) continue;
+                    out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    if (outbox.isEmpty()) out.flush();
+                }
+            } catch (IOException | InterruptedException ex) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        @Override
+        public void publish(OrderEvent e) {
+            String line = e.encode();
+            while (!outbox.offer(line)) {
+                outbox.poll();
+                overflowed = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            Socket s = socket;
+            if (s != null) try { s.close(); } catch (IOException ignored) {}
+        }
+    }
+}
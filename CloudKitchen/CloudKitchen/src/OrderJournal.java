@@ -0,0 +1,537 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// Local write-behind log for orders, so a database blip doesn't lose a cart.
+// An order is appended to a memory-mapped segment file and fsynced before it
+// is acknowledged; a background flusher then writes it to orders/order_items
+// and appends a DONE record. On startup every order without a DONE is queued
+// again.
+//
+// Appends are group-committed: whoever gets the sync lock forces everything
+// written so far, so callers that queued behind one fsync share the next.
+// Each order carries a random key stored in orders.idempotency_key
+// (Migrations v10), so an order that reached the database but not its DONE
+// record (crash, lost commit acknowledgement) is found again, not inserted twice.
+//
+// Enabled with CLOUDKITCHEN_ORDER_JOURNAL=<directory>; one process per directory.
+//   CLOUDKITCHEN_JOURNAL_SEGMENT_MB    size of each segment file (default 8, 1..1024)
+//   CLOUDKITCHEN_JOURNAL_MAX_ATTEMPTS  tries while the database is up before an order is
+//                                      given up on and recorded as refused (default 10)
+//
+// A failure while the database is unreachable doesn't count as an attempt:
+// an outage of any length is waited out. Once an order has failed with the
+// database up it is retried on its own, so it can't keep failing the batch
+// it was in. A refused order is written to order_rejections (Migrations v11)
+// so its reference can still be looked up (KitchenService.orderByReference).
+//
+// Record: int length, int crc32, then the body (type byte, key, fields). A zero
+// length is the unwritten tail; a bad length or crc is a torn last write and
+// ends the segment. A segment is deleted once it is not the one being written
+// and every order in it and in older segments is DONE.
+public final class OrderJournal {
+    private static final byte ORDER = 1;
+    private static final byte DONE = 2;
+    private static final int HEADER = 8;
+    private static final long MIN_BACKOFF_MS = 250;
+    private static final long MAX_BACKOFF_MS = 10_000;
+    private static final int MAX_DRAIN = 256; // entries handed to the database per round
+    private static final int DRAIN_BATCH = 64;  // orders per transaction when batching is otherwise off
+
+    private static OrderJournal shared;
+    private static boolean sharedOpened;
+
+    // An order waiting to be written to the database.
+    static final class Entry {
+        final UUID key;
+        final int userId;
+        final List<OrderDao.Line> lines;
+        final Segment segment;
+        final CompletableFuture<OrderDao.Placed> result = new CompletableFuture<>();
+        int attempts; // failures while the database was up; flusher thread only
+
+        Entry(UUID key, int userId, List<OrderDao.Line> lines, Segment segment) {
+            this.key = key;
+            this.userId = userId;
+            this.lines = lines;
+            this.segment = segment;
+        }
+
+        String reference() { return key.toString(); }
+    }
+
+    static final class Segment {
+        final long seq;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        volatile int written;   // end of the last complete record
+        volatile int durable;   // forced to disk up to here
+        int pending;            // orders in this segment not DONE yet; guarded by the journal
+
+        Segment(long seq, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxAttempts;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final Object syncLock = new Object();
+    // oldest first; the last one is being appended to
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Map<UUID, Entry> waiting = new ConcurrentHashMap<>(); // appended, not DONE yet
+    private OrderWriter writer; // flusher thread only
+
+    OrderJournal(Path dir, int segmentBytes, int maxAttempts) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxAttempts = maxAttempts;
+        Files.createDirectories(dir);
+        lockChannel = FileChannel.open(dir.resolve("journal.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock held;
+        try {
+            held = lockChannel.tryLock();
+        } catch (OverlappingFileLockException sameProcess) {
+            held = null;
+        }
+        lock = held;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Order journal " + dir + " is in use by another process");
+        }
+        List<Entry> unfinished = recover();
+        if (segments.isEmpty() || segments.peekLast().written + HEADER >= segments.peekLast().buffer.capacity()) roll();
+        for (Entry e : unfinished) waiting.put(e.key, e);
+        queue.addAll(unfinished);
+        if (!unfinished.isEmpty()) {
+            System.err.println("Order journal: " + unfinished.size() + " order(s) not yet in the database, resubmitting");
+        }
+        Thread t = new Thread(this::flushLoop, "order-journal");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // The process-wide journal, or null when CLOUDKITCHEN_ORDER_JOURNAL is unset.
+    public static synchronized OrderJournal shared() {
+        if (sharedOpened) return shared;
+        String d = System.getenv("CLOUDKITCHEN_ORDER_JOURNAL");
+        if (d != null && !d.trim().isEmpty()) {
+            // a segment is one mapped buffer, so it has to stay under 2 GB
+            int size = DBUtil.intEnv("CLOUDKITCHEN_JOURNAL_SEGMENT_MB", 8, 1, 1024) << 20;
+            try {
+                shared = new OrderJournal(Paths.get(d.trim()), size,
+                        DBUtil.intEnv("CLOUDKITCHEN_JOURNAL_MAX_ATTEMPTS", 10, 1, 1000));
+            } catch (IOException ex) {
+                throw new IllegalStateException("Cannot open order journal: " + ex.getMessage(), ex);
+            }
+        }
+        sharedOpened = true;
+        return shared;
+    }
+
+    // Durably records the order and queues it for the database. When this
+    // returns the order survives a crash; entry.result completes once it has
+    // been written (or rejected, e.g. sold out).
+    public Entry append(int userId, List<OrderDao.Line> lines) throws SQLException {
+        UUID key = UUID.randomUUID();
+        byte[] body = encodeOrder(key, userId, lines);
+        Entry e;
+        int end;
+        synchronized (this) {
+            Segment seg = write(body);
+            seg.pending++;
+            end = seg.written;
+            e = new Entry(key, userId, lines, seg);
+        }
+        long t = Metrics.start();
+        sync(e.segment, end);
+        Metrics.stop("order.journal.fsync", t);
+        waiting.put(key, e);
+        queue.add(e);
+        return e;
+    }
+
+    public int backlog() { return queue.size(); }
+
+    // The order with this reference if it is still waiting for the database, else null.
+    public Entry waiting(String reference) {
+        try {
+            return waiting.get(UUID.fromString(reference));
+        } catch (IllegalArgumentException notAKey) {
+            return null;
+        }
+    }
+
+    // --- appending ---
+
+    private Segment write(byte[] body) throws SQLException {
+        if (HEADER + body.length > segmentBytes) throw new SQLException("Order too large for the journal");
+        Segment seg = segments.peekLast();
+        if (seg.written + HEADER + body.length > seg.buffer.capacity()) {
+            try {
+                roll();
+            } catch (IOException ex) {
+                throw new SQLException("Cannot extend order journal: " + ex.getMessage(), ex);
+            }
+            seg = segments.peekLast();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        MappedByteBuffer b = seg.buffer;
+        b.position(seg.written);
+        b.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        seg.written = b.position();
+        return seg;
+    }
+
+    // Group commit: a caller that finds its bytes already forced returns at
+    // once; otherwise it forces everything written so far, on behalf of all
+    // the callers now waiting on the lock.
+    private void sync(Segment seg, int upTo) {
+        synchronized (syncLock) {
+            if (seg.durable >= upTo) return;
+            int target = seg.written;
+            seg.buffer.force();
+            seg.durable = target;
+            Metrics.increment("order.journal.sync");
+        }
+    }
+
+    // Starts a new segment; the full one is forced first so its waiters return.
+    private void roll() throws IOException {
+        Segment last = segments.peekLast();
+        if (last != null) {
+            synchronized (syncLock) {
+                last.buffer.force();
+                last.durable = last.written;
+            }
+        }
+        long seq = last == null ? 1 : last.seq + 1;
+        segments.addLast(open(dir.resolve(String.format("order-%010d.journal", seq)), seq));
+    }
+
+    private Segment open(Path path, long seq) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, ch.size()));
+        return new Segment(seq, path, ch, buf);
+    }
+
+    // Records the outcome. Not forced: if it is lost the order is resubmitted
+    // on restart and the idempotency key finds the existing row.
+    private synchronized void done(Entry e, int orderId) {
+        Writer w = new Writer();
+        w.b(DONE).key(e.key).i(orderId);
+        try {
+            write(w.toBytes());
+        } catch (SQLException ex) {
+            ex.printStackTrace(); // only costs a resubmission after a restart
+        }
+        e.segment.pending--;
+        waiting.remove(e.key);
+        // oldest first, so a surviving ORDER always has its DONE in a surviving segment
+        while (segments.size() > 1 && segments.peekFirst().pending == 0) {
+            Segment old = segments.pollFirst();
+            try {
+                old.channel.close();
+                Files.deleteIfExists(old.path);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    // --- draining ---
+
+    // Takes what has queued up and writes it through an OrderWriter: the shared
+    // one when batching is on, otherwise one of the journal's own, so the
+    // backlog after an outage goes in as multi-row transactions rather than
+    // one insert at a time. Orders that hit an outage are retried, oldest
+    // first, after a growing pause.
+    private void flushLoop() {
+        writer = OrderWriter.shared();
+        if (writer == null) writer = new OrderWriter(DRAIN_BATCH, 0);
+        List<Entry> batch = new ArrayList<>();
+        long backoff = MIN_BACKOFF_MS;
+        while (true) {
+            try {
+                if (batch.isEmpty()) batch.add(queue.take());
+                queue.drainTo(batch, MAX_DRAIN - batch.size());
+                List<Entry> retry = drain(batch);
+                batch.clear();
+                batch.addAll(retry);
+                if (retry.isEmpty()) {
+                    backoff = MIN_BACKOFF_MS;
+                    continue;
+                }
+                Metrics.increment("order.journal.retry");
+                Thread.sleep(backoff);
+                backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+            } catch (InterruptedException ie) {
+                return;
+            }
+        }
+    }
+
+    // Returns the entries that could not reach the database and must be retried.
+    private List<Entry> drain(List<Entry> entries) throws InterruptedException {
+        List<CompletableFuture<OrderDao.Placed>> results = new ArrayList<>(entries.size());
+        for (Entry e : entries) results.add(e.attempts == 0 ? writer.submit(e.userId, e.lines, e.reference()) : null);
+        List<Entry> retry = new ArrayList<>();
+        Boolean up = null; // probed at the first failure
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            OrderDao.Placed placed;
+            try {
+                placed = (results.get(i) != null ? results.get(i) : insert(e)).get();
+            } catch (ExecutionException failed) {
+                Throwable cause = failed.getCause();
+                SQLException ex = cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+                if (retryable(ex)) {
+                    if (up == null) up = reachable();
+                    if (!up || ++e.attempts < maxAttempts) {
+                        retry.add(e);
+                        continue;
+                    }
+                    Metrics.increment("order.journal.gave_up");
+                    ex = new SQLException("Gave up after " + e.attempts + " attempts: " + ex.getMessage(), ex);
+                }
+                // sold out, otherwise refused, or given up on
+                Metrics.increment("order.journal.rejected");
+                System.err.println("Order journal: queued order " + e.reference() + " for user " + e.userId
+                        + " was refused: " + ex.getMessage());
+                recordRejection(e, ex.getMessage());
+                done(e, -1);
+                e.result.completeExceptionally(ex);
+                continue;
+            }
+            done(e, placed.orderId);
+            Metrics.increment("order.journal.drained");
+            KitchenService.placed(placed.orderId, e.userId, e.lines);
+            e.result.complete(new OrderDao.Placed(placed.orderId, placed.total, e.reference()));
+        }
+        return retry;
+    }
+
+    // A suspect order on its own connection, outside any batch.
+    private static CompletableFuture<OrderDao.Placed> insert(Entry e) {
+        CompletableFuture<OrderDao.Placed> f = new CompletableFuture<>();
+        try {
+            f.complete(Metrics.timeSql("order.place", () -> {
+                try (Connection conn = DBUtil.getConnection()) {
+                    return OrderDao.insertOrder(conn, e.userId, e.lines, e.reference());
+                }
+            }));
+        } catch (SQLException | RuntimeException ex) {
+            f.completeExceptionally(ex);
+        }
+        return f;
+    }
+
+    // Before the DONE record: if that is lost the order is refused again, and IGNORE keeps the first row.
+    private static void recordRejection(Entry e, String reason) {
+        String text = reason == null || reason.isEmpty() ? "Refused by the database" : reason;
+        try {
+            Metrics.timeSql(Queries.ORDER_REJECT.name, () -> {
+                try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = Queries.ORDER_REJECT.prepare(conn)) {
+                    ps.setString(1, e.reference());
+                    ps.setInt(2, e.userId);
+                    ps.setString(3, text.length() > 255 ? text.substring(0, 255) : text);
+                    ps.executeUpdate();
+                }
+                return null;
+            });
+        } catch (SQLException ex) {
+            ex.printStackTrace(); // the log line above is all that is left of it
+        }
+    }
+
+    private static boolean reachable() {
+        try (Connection conn = DBUtil.getConnection()) {
+            return conn.isValid(2);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    // Worth another try: the connection or the pool failed (SQLState class 08,
+    // JDBC's transient and recoverable types), the transaction lost a deadlock
+    // or lock wait (40001, MySQL 1213 / 1205), or the server is read-only
+    // during a failover (1290). Anything else is the database refusing this
+    // order, and retrying won't change that.
+    static boolean retryable(SQLException ex) {
+        if (ex instanceof OrderDao.Unavailable) return false;
+        if (ex instanceof SQLTransientException || ex instanceof SQLRecoverableException) return true;
+        String state = ex.getSQLState();
+        if (state != null && (state.startsWith("08") || state.equals("40001"))) return true;
+        int code = ex.getErrorCode();
+        return code == 1205 || code == 1213 || code == 1290;
+    }
+
+    // --- recovery ---
+
+    private List<Entry> recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "order-*.journal")) {
+            for (Path p : ds) files.add(p);
+        }
+        files.sort(null); // zero-padded sequence numbers
+        Map<UUID, Entry> open = new LinkedHashMap<>();
+        for (Path p : files) {
+            String n = p.getFileName().toString();
+            Segment seg = open(p, Long.parseLong(n.substring(6, n.length() - 8)));
+            segments.addLast(seg);
+            MappedByteBuffer b = seg.buffer;
+            int pos = 0;
+            while (pos + HEADER <= b.capacity()) {
+                int len = b.getInt(pos);
+                if (len <= 0 || pos + HEADER + len > b.capacity()) break;
+                byte[] body = new byte[len];
+                b.position(pos + HEADER);
+                b.get(body);
+                CRC32 crc = new CRC32();
+                crc.update(body, 0, len);
+                if ((int) crc.getValue() != b.getInt(pos + 4)) break;
+                Reader r = new Reader(body);
+                byte type = r.b();
+                UUID key = r.key();
+                if (type == ORDER) {
+                    int userId = r.i();
+                    open.put(key, new Entry(key, userId, decodeLines(r), seg));
+                    seg.pending++;
+                } else if (type == DONE) {
+                    Entry e = open.remove(key);
+                    if (e != null) e.segment.pending--;
+                }
+                pos += HEADER + len;
+            }
+            // a torn last write: clear it so nothing of it is read back after the next append
+            if (pos + 4 <= b.capacity() && b.getInt(pos) != 0) {
+                for (int i = pos; i < b.capacity(); i++) b.put(i, (byte) 0);
+                b.force();
+            }
+            seg.written = pos;
+            seg.durable = pos;
+        }
+        return new ArrayList<>(open.values());
+    }
+
+    // --- encoding ---
+
+    private static byte[] encodeOrder(UUID key, int userId, List<OrderDao.Line> lines) {
+        Writer w = new Writer();
+        w.b(ORDER).key(key).i(userId).i(lines.size());
+        for (OrderDao.Line l : lines) {
+            w.i(l.menuId).i(l.qty).d(l.priceDelta).s(l.option);
+            if (l.choices == null) {
+                w.i(-1);
+            } else {
+                w.i(l.choices.length);
+                for (int c : l.choices) w.i(c);
+            }
+        }
+        return w.toBytes();
+    }
+
+    private static List<OrderDao.Line> decodeLines(Reader r) {
+        int n = r.i();
+        List<OrderDao.Line> lines = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int menuId = r.i(), qty = r.i();
+            double delta = r.d();
+            String option = r.s();
+            int cn = r.i();
+            int[] choices = null;
+            if (cn >= 0) {
+                choices = new int[cn];
+                for (int c = 0; c < cn; c++) choices[c] = r.i();
+            }
+            lines.add(new OrderDao.Line(menuId, qty, option, choices, delta));
+        }
+        return lines;
+    }
+
+    private static final class Writer {
+        private ByteBuffer buf = ByteBuffer.allocate(256);
+
+        private Writer need(int n) {
+            if (buf.remaining() < n) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+                buf.flip();
+                bigger.put(buf);
+                buf = bigger;
+            }
+            return this;
+        }
+
+        Writer b(byte v) { need(1).buf.put(v); return this; }
+        Writer i(int v) { need(4).buf.putInt(v); return this; }
+        Writer d(double v) { need(8).buf.putDouble(v); return this; }
+        Writer key(UUID k) { need(16).buf.putLong(k.getMostSignificantBits()).putLong(k.getLeastSignificantBits()); return this; }
+
+        Writer s(String v) {
+            if (v == null) return i(-1);
+            byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+            i(bytes.length).need(bytes.length).buf.put(bytes);
+            return this;
+        }
+
+        byte[] toBytes() {
+            byte[] out = new byte[buf.position()];
+            buf.flip();
+            buf.get(out);
+            return out;
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buf;
+
+        Reader(byte[] body) { buf = ByteBuffer.wrap(body); }
+
+        byte b() { return buf.get(); }
+        int i() { return buf.getInt(); }
+        double d() { return buf.getDouble(); }
+        UUID key() { return new UUID(buf.getLong(), buf.getLong()); }
+
+        String s() {
+            int n = buf.getInt();
+            if (n < 0) return null;
+            byte[] bytes = new byte[n];
+            buf.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
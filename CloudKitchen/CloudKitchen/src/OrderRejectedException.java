@@ -0,0 +1,7 @@
+// An order that can't be accepted as submitted (unknown/unavailable item,
+// missing or invalid option, ...). The message is meant for the customer.
+public class OrderRejectedException extends Exception {
+    public OrderRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,174 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+// Allowed order status transitions plus the compare-and-set that applies them.
+// A transition only succeeds if the row is still in the expected 'from' status,
+// so two admins racing on the same ticket get one APPLIED and one CONFLICT
+// instead of a lost update. Each applied transition is recorded in
+// order_status_history (Migrations v4) in the same transaction.
+public final class OrderStateMachine {
+    public enum Outcome { APPLIED, CONFLICT, ILLEGAL }
+
+    public static final class Change {
+        public final int orderId;
+        public final OrderStatus from;
+        public final OrderStatus to;
+
+        public Change(int orderId, OrderStatus from, OrderStatus to) {
+            this.orderId = orderId;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final List<OrderStatus> flow;
+    private final Map<OrderStatus, EnumSet<OrderStatus>> allowed;
+
+    private OrderStateMachine(List<OrderStatus> flow, Map<OrderStatus, EnumSet<OrderStatus>> allowed) {
+        this.flow = Collections.unmodifiableList(new ArrayList<>(flow));
+        this.allowed = allowed;
+    }
+
+    // The happy path is walked in order; any non-terminal step may also be cancelled.
+    public static OrderStateMachine of(List<OrderStatus> flow, boolean cancellable) {
+        if (flow.size() < 2 || flow.get(0) != OrderStatus.PENDING || !flow.get(flow.size() - 1).isTerminal()) {
+            throw new IllegalArgumentException("Order flow must start at PENDING and end in a terminal status: " + flow);
+        }
+        Map<OrderStatus, EnumSet<OrderStatus>> allowed = new EnumMap<>(OrderStatus.class);
+        for (OrderStatus s : OrderStatus.values()) allowed.put(s, EnumSet.noneOf(OrderStatus.class));
+        for (int i = 0; i + 1 < flow.size(); i++) {
+            allowed.get(flow.get(i)).add(flow.get(i + 1));
+            if (cancellable && flow.get(i + 1) != OrderStatus.CANCELLED) allowed.get(flow.get(i)).add(OrderStatus.CANCELLED);
+        }
+        return new OrderStateMachine(flow, allowed);
+    }
+
+    // PENDING -> PREPARING -> COMPLETED, cancellable until completed.
+    public static OrderStateMachine defaults() {
+        return of(List.of(OrderStatus.PENDING, OrderStatus.PREPARING, OrderStatus.COMPLETED), true);
+    }
+
+    // CLOUDKITCHEN_ORDER_FLOW overrides the happy path, e.g.
+    // PENDING,PREPARING,READY,OUT_FOR_DELIVERY,COMPLETED
+    public static OrderStateMachine fromEnv() {
+        String v = System.getenv("CLOUDKITCHEN_ORDER_FLOW");
+        if (v == null || v.trim().isEmpty()) return defaults();
+        List<OrderStatus> flow = new ArrayList<>();
+        for (String part : v.split("\\s*,\\s*")) {
+            OrderStatus s = OrderStatus.parse(part);
+            if (s == null) throw new IllegalArgumentException("Unknown status in CLOUDKITCHEN_ORDER_FLOW: " + part);
+            flow.add(s);
+        }
+        return of(flow, true);
+    }
+
+    public List<OrderStatus> flow() { return flow; }
+
+    public boolean canTransition(OrderStatus from, OrderStatus to) {
+        return from != null && to != null && allowed.get(from).contains(to);
+    }
+
+    // Next step on the happy path, or null if 'from' is terminal or not part of the flow.
+    public OrderStatus next(OrderStatus from) {
+        int i = flow.indexOf(from);
+        return i < 0 || i + 1 >= flow.size() ? null : flow.get(i + 1);
+    }
+
+    // Whether a view showing 'shown' should switch to 'seen'. Orders only move
+    // forward along the flow (or to a terminal status), so a status further
+    // back is a stale read, e.g. from a lagging replica after an event arrived.
+    public boolean supersedes(String seen, String shown) {
+        int was = rank(OrderStatus.parse(shown));
+        return was < 0 || rank(OrderStatus.parse(seen)) >= was;
+    }
+
+    private int rank(OrderStatus s) {
+        if (s == null) return -1;
+        return s.isTerminal() ? flow.size() : flow.indexOf(s);
+    }
+
+    public Outcome transition(Connection conn, int orderId, OrderStatus from, OrderStatus to) throws SQLException {
+        return transitionAll(conn, Collections.singletonList(new Change(orderId, from, to))).get(0);
+    }
+
+    // Applies all changes in one transaction: one batch of guarded updates, one batch
+    // of history inserts for the rows that won. Outcomes line up with 'changes'.
+    public List<Outcome> transitionAll(Connection conn, List<Change> changes) throws SQLException {
+        List<Outcome> outcomes = new ArrayList<>(changes.size());
+        List<Change> legal = new ArrayList<>();
+        for (Change c : changes) {
+            boolean ok = canTransition(c.from, c.to);
+            outcomes.add(ok ? null : Outcome.ILLEGAL);
+            if (ok) legal.add(c);
+        }
+        if (legal.isEmpty()) return outcomes;
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            int[] counts = compareAndSet(conn, legal, true);
+            if (unknown(counts)) {
+                // the driver ran the batch but can't say which rows matched, and a
+                // lost race would look like a success: undo it and ask one at a time
+                conn.rollback();
+                Metrics.increment("order.transition.noinfo");
+                counts = compareAndSet(conn, legal, false);
+            }
+            List<Change> won = new ArrayList<>();
+            int k = 0;
+            for (int i = 0; i < outcomes.size(); i++) {
+                if (outcomes.get(i) != null) continue;
+                boolean applied = counts[k++] > 0;
+                outcomes.set(i, applied ? Outcome.APPLIED : Outcome.CONFLICT);
+                if (applied) won.add(changes.get(i));
+            }
+            if (!won.isEmpty()) {
+                try (PreparedStatement ps = Queries.ORDER_HISTORY.prepare(conn)) {
+                    for (Change c : won) {
+                        ps.setInt(1, c.orderId);
+                        ps.setString(2, c.from.name());
+                        ps.setString(3, c.to.name());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+            }
+            conn.commit();
+            return outcomes;
+        } catch (SQLException | RuntimeException ex) {
+            try { conn.rollback(); } catch (SQLException ignored) {}
+            throw ex;
+        } finally {
+            try { conn.setAutoCommit(autoCommit); } catch (SQLException ignored) {}
+        }
+    }
+
+    // Guarded updates, batched or one statement each; returns the rows matched per change.
+    private static int[] compareAndSet(Connection conn, List<Change> changes, boolean batched) throws SQLException {
+        int[] counts = new int[changes.size()];
+        try (PreparedStatement ps = Queries.ORDER_CAS.prepare(conn)) {
+            for (int i = 0; i < changes.size(); i++) {
+                Change c = changes.get(i);
+                ps.setString(1, c.to.name());
+                ps.setInt(2, c.orderId);
+                ps.setString(3, c.from.name());
+                if (batched) ps.addBatch();
+                else counts[i] = ps.executeUpdate();
+            }
+            return batched ? ps.executeBatch() : counts;
+        }
+    }
+
+    private static boolean unknown(int[] counts) {
+        for (int n : counts) if (n == Statement.SUCCESS_NO_INFO) return true;
+        return false;
+    }
+}
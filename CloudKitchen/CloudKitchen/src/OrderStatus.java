@@ -0,0 +1,29 @@
+// Every status an order can be in. Which ones a site actually uses, and the
+// order it moves through them, is decided by OrderStateMachine.
+public enum OrderStatus {
+    PENDING,
+    PREPARING,
+    READY,
+    OUT_FOR_DELIVERY,
+    COMPLETED,
+    CANCELLED;
+
+    public boolean isTerminal() {
+        return this == COMPLETED || this == CANCELLED;
+    }
+
+    public static boolean isTerminal(String s) {
+        OrderStatus st = parse(s);
+        return st != null && st.isTerminal();
+    }
+
+    // Null for null/unknown strings so legacy rows don't blow up the UI.
+    public static OrderStatus parse(String s) {
+        if (s == null) return null;
+        try {
+            return valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
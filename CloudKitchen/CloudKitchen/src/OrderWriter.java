@@ -0,0 +1,145 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Group commit for order inserts. Callers hand their order to a single writer
+// thread and wait on a future; the writer takes whatever has queued up, waits
+// up to the linger time for more (never beyond the batch size), and writes
+// them all with OrderDao.insertOrders: one transaction, multi-row inserts,
+// one commit. 500 simultaneous orders become a handful of commits instead of 500.
+//
+// If a batch is refused (a dish sold out, a duplicate idempotency key) its
+// orders are retried one at a time, so each caller gets the answer its own
+// order would have had on the per-order path. Any other failure (a dropped
+// connection, pool timeout) fails the whole batch at once.
+//
+//   CLOUDKITCHEN_ORDER_BATCH            max orders per transaction, up to 10000; unset or 1 = off
+//   CLOUDKITCHEN_ORDER_BATCH_LINGER_MS  how long a batch waits to fill, up to 1000 (default 2;
+//                                       0 = only what queued during the last commit)
+public final class OrderWriter {
+    private static OrderWriter shared;
+    private static boolean sharedOpened;
+
+    private static final class Pending {
+        final OrderDao.NewOrder order;
+        final CompletableFuture<OrderDao.Placed> result = new CompletableFuture<>();
+
+        Pending(OrderDao.NewOrder order) {
+            this.order = order;
+        }
+    }
+
+    private final int maxBatch;
+    private final long lingerNanos;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    public OrderWriter(int maxBatch, long lingerMillis) {
+        this.maxBatch = maxBatch;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        Thread t = new Thread(this::writeLoop, "order-writer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // The process-wide writer, or null when batching is off.
+    public static synchronized OrderWriter shared() {
+        if (sharedOpened) return shared;
+        int max = DBUtil.intEnv("CLOUDKITCHEN_ORDER_BATCH", 1, 1, 10_000);
+        if (max > 1) shared = new OrderWriter(max, DBUtil.intEnv("CLOUDKITCHEN_ORDER_BATCH_LINGER_MS", 2, 0, 1_000));
+        sharedOpened = true;
+        return shared;
+    }
+
+    public CompletableFuture<OrderDao.Placed> submit(int userId, List<OrderDao.Line> lines, String key) {
+        Pending p = new Pending(new OrderDao.NewOrder(userId, lines, key));
+        queue.add(p);
+        return p.result;
+    }
+
+    // submit() and wait; fails the way OrderDao.insertOrder would.
+    public OrderDao.Placed place(int userId, List<OrderDao.Line> lines, String key) throws SQLException {
+        try {
+            return submit(userId, lines, key).get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the order writer", ie);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) throw (SQLException) ex.getCause();
+            throw new SQLException(ex.getCause());
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - batch.size());
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    Pending p = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (p == null) break;
+                    batch.add(p);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+            } catch (InterruptedException ie) {
+                return;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        List<OrderDao.NewOrder> orders = new ArrayList<>(batch.size());
+        for (Pending p : batch) orders.add(p.order);
+        List<OrderDao.Placed> placed;
+        try {
+            placed = Metrics.timeSql("order.batch", () -> {
+                try (Connection conn = DBUtil.getConnection()) {
+                    return OrderDao.insertOrders(conn, orders);
+                }
+            });
+        } catch (SQLException | RuntimeException ex) {
+            if (batch.size() > 1 && refused(ex)) {
+                Metrics.increment("order.batch.split");
+                for (Pending p : batch) writeOne(p);
+                return;
+            }
+            // the database is unreachable or broken: every order would fail the same way
+            for (Pending p : batch) p.result.completeExceptionally(ex);
+            return;
+        }
+        Metrics.increment("order.batch.commits");
+        for (int i = 0; i < batch.size(); i++) {
+            Metrics.increment("order.batch.orders");
+            batch.get(i).result.complete(placed.get(i));
+        }
+    }
+
+    // Failures that belong to one of the orders rather than to the database.
+    private static boolean refused(Exception ex) {
+        if (ex instanceof OrderDao.Unavailable) return true;
+        String state = ex instanceof SQLException ? ((SQLException) ex).getSQLState() : null;
+        return state != null && state.startsWith("23");
+    }
+
+    private void writeOne(Pending p) {
+        try {
+            p.result.complete(Metrics.timeSql("order.batch.single", () -> {
+                try (Connection conn = DBUtil.getConnection()) {
+                    return OrderDao.insertOrder(conn, p.order.userId, p.order.lines, p.order.key);
+                }
+            }));
+        } catch (SQLException | RuntimeException ex) {
+            p.result.completeExceptionally(ex);
+        }
+    }
+}
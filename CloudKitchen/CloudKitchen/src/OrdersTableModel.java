@@ -0,0 +1,157 @@
+import javax.swing.table.AbstractTableModel;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Admin orders list, newest first, filled one keyset page at a time.
+// The (created_at, id) of the last loaded row is the cursor for the next page.
+public class OrdersTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Order ID", "Customer", "Total", "Status", "Created"};
+
+    private final List<KitchenService.OrderSummary> rows = new ArrayList<>();
+    private final Map<Integer, Integer> rowById = new HashMap<>();
+    // filters the loaded rows were fetched under; merged changes must satisfy them too
+    private String statusFilter;
+    private Timestamp since;
+    private boolean hasMore = true;
+    private boolean loading = false;
+    // bumped on reset so a page requested under old filters is ignored
+    private int generation = 0;
+
+    @Override public int getRowCount() { return rows.size(); }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int c) { return COLUMNS[c]; }
+    @Override public boolean isCellEditable(int r, int c) { return false; }
+
+    @Override public Class<?> getColumnClass(int c) {
+        switch (c) {
+            case 0: return Integer.class;
+            case 2: return Double.class;
+            case 4: return Timestamp.class;
+            default: return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int r, int c) {
+        KitchenService.OrderSummary o = rows.get(r);
+        switch (c) {
+            case 0: return o.id;
+            case 1: return o.customer;
+            case 2: return o.total;
+            case 3: return o.status;
+            default: return o.created;
+        }
+    }
+
+    public KitchenService.OrderSummary getOrder(int r) { return rows.get(r); }
+
+    public void reset(String statusFilter, Timestamp since) {
+        this.statusFilter = statusFilter;
+        this.since = since;
+        generation++;
+        loading = false;
+        hasMore = true;
+        int n = rows.size();
+        rows.clear();
+        rowById.clear();
+        if (n > 0) fireTableRowsDeleted(0, n - 1);
+    }
+
+    // Returns the generation the caller must hand back to appendPage, or -1 if
+    // a page is already on its way or there is nothing left to fetch.
+    public int beginLoad() {
+        if (loading || !hasMore) return -1;
+        loading = true;
+        return generation;
+    }
+
+    public void appendPage(int gen, List<KitchenService.OrderSummary> page, int pageSize) {
+        if (gen != generation) return;
+        loading = false;
+        hasMore = page.size() >= pageSize;
+        if (page.isEmpty()) return;
+        int first = rows.size();
+        for (KitchenService.OrderSummary o : page) {
+            if (rowById.containsKey(o.id)) continue; // already merged in by a delta
+            rowById.put(o.id, rows.size());
+            rows.add(o);
+        }
+        if (rows.size() > first) fireTableRowsInserted(first, rows.size() - 1);
+    }
+
+    // In-place status change for one order; no-op if it isn't loaded.
+    public void updateStatus(int orderId, String status) {
+        Integer r = rowById.get(orderId);
+        if (r == null) return;
+        KitchenService.OrderSummary o = rows.get(r);
+        if (status.equals(o.status)) return;
+        if (statusFilter != null && !statusFilter.equals(status)) {
+            removeRow(r);
+            return;
+        }
+        rows.set(r, o.withStatus(status));
+        fireTableRowsUpdated(r, r);
+    }
+
+    // Applies orders changed since the last refresh: loaded rows are updated in place,
+    // and orders that now match the filters are inserted where they sort. Only orders
+    // older than the last loaded row are left out, while paging can still reach them.
+    public void merge(List<KitchenService.OrderSummary> changed) {
+        for (KitchenService.OrderSummary o : changed) {
+            Integer r = rowById.get(o.id);
+            if (r != null) {
+                updateStatus(o.id, o.status);
+            } else if (matches(o) && withinLoaded(o)) {
+                insertSorted(o);
+            }
+        }
+    }
+
+    private boolean withinLoaded(KitchenService.OrderSummary o) {
+        return !hasMore || rows.isEmpty() || NEWEST_FIRST.compare(o, rows.get(rows.size() - 1)) < 0;
+    }
+
+    private void insertSorted(KitchenService.OrderSummary o) {
+        int lo = 0, hi = rows.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (NEWEST_FIRST.compare(rows.get(mid), o) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        rows.add(lo, o);
+        reindex(lo);
+        fireTableRowsInserted(lo, lo);
+    }
+
+    private boolean matches(KitchenService.OrderSummary o) {
+        if (statusFilter != null && !statusFilter.equals(o.status)) return false;
+        return since == null || o.created == null || !o.created.before(since);
+    }
+
+    private void removeRow(int r) {
+        rowById.remove(rows.remove(r).id);
+        reindex(r);
+        fireTableRowsDeleted(r, r);
+    }
+
+    private void reindex(int from) {
+        for (int i = from; i < rows.size(); i++) rowById.put(rows.get(i).id, i);
+    }
+
+    private static final Comparator<KitchenService.OrderSummary> NEWEST_FIRST = (a, b) -> {
+        int c = b.created == null || a.created == null ? 0 : b.created.compareTo(a.created);
+        return c != 0 ? c : Integer.compare(b.id, a.id);
+    };
+
+    public void loadFailed(int gen) {
+        if (gen == generation) loading = false;
+    }
+
+    public KitchenService.OrderSummary last() {
+        return rows.isEmpty() ? null : rows.get(rows.size() - 1);
+    }
+}
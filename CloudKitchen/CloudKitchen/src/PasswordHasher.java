@@ -0,0 +1,101 @@
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.Semaphore;
+
+// Salted PBKDF2-HMAC-SHA256 password hashes, stored as
+//   pbkdf2$<iterations>$<salt b64>$<hash b64>
+// so the cost can be raised later: verify() reads the iterations from the
+// stored value and needsRehash() tells the login path to upgrade it.
+//
+// CLOUDKITCHEN_PBKDF2_ITERATIONS sets the cost for new hashes (default
+// 210000, 10000..10000000). Size it with bench/LoginBurst against the sign-in peak: each
+// verify is pure CPU, so throughput is roughly cores / time-per-hash.
+//
+// Hashing is CPU-bound, so at most one hash per core runs at a time; a burst
+// queues here instead of starving every other thread (and it never holds a
+// DB connection, see KitchenService.login).
+//
+// Rows written before hashing (plain text) still verify once and are
+// re-hashed on that login. Migrations v7 widens users.password for the
+// encoded form.
+public final class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Semaphore CPU = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    private final int iterations;
+    // verified against when the email doesn't exist, so timing doesn't reveal it
+    private volatile String dummy;
+
+    public PasswordHasher(int iterations) {
+        if (iterations < 1) throw new IllegalArgumentException("iterations must be >= 1");
+        this.iterations = iterations;
+    }
+
+    public static PasswordHasher fromEnv() {
+        return new PasswordHasher(DBUtil.intEnv("CLOUDKITCHEN_PBKDF2_ITERATIONS", 210_000, 10_000, 10_000_000));
+    }
+
+    public int iterations() { return iterations; }
+
+    public String hash(char[] password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] h = pbkdf2(password, salt, iterations);
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + '$' + b64.encodeToString(salt) + '$' + b64.encodeToString(h);
+    }
+
+    // Constant-time comparison; stored == null burns the same CPU as a real check.
+    public boolean verify(char[] password, String stored) {
+        if (stored == null) {
+            String d = dummy;
+            if (d == null) dummy = d = hash("not-a-real-password".toCharArray());
+            verify(password, d);
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            // legacy plain-text row
+            return MessageDigest.isEqual(new String(password).getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) return false;
+        try {
+            int iter = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, iter));
+        } catch (IllegalArgumentException bad) {
+            return false;
+        }
+    }
+
+    // True for plain-text rows and hashes made with a different cost.
+    public boolean needsRehash(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) return true;
+        String[] parts = stored.split("\\$");
+        return parts.length != 4 || !String.valueOf(iterations).equals(parts[1]);
+    }
+
+    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        CPU.acquireUninterruptibly();
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 unavailable", ex);
+        } finally {
+            CPU.release();
+            spec.clearPassword();
+        }
+    }
+}
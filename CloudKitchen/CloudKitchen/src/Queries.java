@@ -0,0 +1,108 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Registry of the fixed-text SQL the application runs. Going through a named
+// Query keeps the text byte-for-byte identical on every call, so the pool's
+// per-connection statement cache hits, and the name is the Metrics key for
+// the operation that runs it. Statements whose text depends on the input
+// (IN lists, optional filters, multi-row inserts) are still built where used.
+public final class Queries {
+    public static final class Query {
+        public final String name;
+        public final String sql;
+
+        private Query(String name, String sql) {
+            this.name = name;
+            this.sql = sql;
+        }
+
+        public PreparedStatement prepare(Connection conn) throws SQLException {
+            return conn.prepareStatement(sql);
+        }
+
+        public PreparedStatement prepare(Connection conn, int autoGeneratedKeys) throws SQLException {
+            return conn.prepareStatement(sql, autoGeneratedKeys);
+        }
+
+        @Override public String toString() { return name; }
+    }
+
+    private static final List<Query> ALL = new ArrayList<>();
+
+    public static final Query USER_LOGIN = define("user.login",
+            "SELECT id,role,password FROM users WHERE email=?");
+    public static final Query USER_REHASH = define("user.rehash",
+            "UPDATE users SET password=? WHERE id=? AND password=?");
+    public static final Query USER_REGISTER = define("user.register",
+            "INSERT INTO users (name,email,password,role) VALUES (?,?,?,'CUSTOMER')");
+    public static final Query SESSION_CREATE = define("session.create",
+            "INSERT INTO user_sessions (token_hash, user_id, expires_at) VALUES (?,?,?)");
+    public static final Query SESSION_LOOKUP = define("session.lookup",
+            "SELECT s.user_id, u.role, s.expires_at FROM user_sessions s JOIN users u ON u.id=s.user_id"
+            + " WHERE s.token_hash=? AND s.expires_at > NOW(3)");
+    public static final Query SESSION_TOUCH = define("session.touch",
+            "UPDATE user_sessions SET expires_at=? WHERE token_hash=?");
+    public static final Query SESSION_REVOKE = define("session.revoke", "DELETE FROM user_sessions WHERE token_hash=?");
+    public static final Query SESSION_PURGE = define("session.purge", "DELETE FROM user_sessions WHERE expires_at <= ?");
+    public static final Query DB_NAME = define("db.name", "SELECT DATABASE() AS db");
+    public static final Query DB_NOW = define("db.now", "SELECT NOW(3)");
+
+    // one row per dish x choice, dishes without options once with NULL group columns
+    public static final Query MENU_LOAD = define("menu.load",
+            "SELECT m.id, m.name, m.price, m.available, m.stock, m.category,"
+            + " g.id AS group_id, g.name AS group_name, g.min_select, g.max_select, c.name AS choice_name, c.price_delta"
+            + " FROM menu_items m LEFT JOIN option_groups g ON g.menu_item_id=m.id"
+            + " LEFT JOIN option_choices c ON c.group_id=g.id"
+            + " ORDER BY m.id, g.sort_order, g.id, c.sort_order, c.id");
+    public static final Query MENU_ADD = define("menu.add",
+            "INSERT INTO menu_items (name,price,available,stock,category) VALUES (?,?,?,?,?)");
+    public static final Query MENU_UPDATE = define("menu.update",
+            "UPDATE menu_items SET name=?, price=?, available=?, stock=?, category=? WHERE id=?");
+    public static final Query MENU_DELETE = define("menu.delete", "DELETE FROM menu_items WHERE id=?");
+    public static final Query OPTION_CHOICES_DELETE = define("option.choices.delete",
+            "DELETE c FROM option_choices c JOIN option_groups g ON c.group_id=g.id WHERE g.menu_item_id=?");
+    public static final Query OPTION_GROUPS_DELETE = define("option.groups.delete",
+            "DELETE FROM option_groups WHERE menu_item_id=?");
+    public static final Query OPTION_GROUP_INSERT = define("option.group.insert",
+            "INSERT INTO option_groups (menu_item_id, name, min_select, max_select, sort_order) VALUES (?,?,?,?,?)");
+    public static final Query OPTION_CHOICE_INSERT = define("option.choice.insert",
+            "INSERT INTO option_choices (group_id, name, price_delta, sort_order) VALUES (?,?,?,?)");
+
+    public static final Query ORDER_INSERT = define("order.insert",
+            "INSERT INTO orders (user_id, total, status, idempotency_key) VALUES (?,?,?,?)");
+    public static final Query ORDER_BY_KEY = define("order.byKey",
+            "SELECT id, total FROM orders WHERE idempotency_key=?");
+    public static final Query ORDER_BY_REFERENCE = define("order.byReference",
+            "SELECT id, user_id, status FROM orders WHERE idempotency_key=?");
+    // IGNORE: a journal replayed after a crash may refuse the same order again
+    public static final Query ORDER_REJECT = define("order.reject",
+            "INSERT IGNORE INTO order_rejections (idempotency_key, user_id, reason) VALUES (?,?,?)");
+    public static final Query ORDER_REJECTION = define("order.rejection",
+            "SELECT user_id, reason FROM order_rejections WHERE idempotency_key=?");
+    public static final Query ORDER_STATUS = define("order.status", "SELECT status FROM orders WHERE id=?");
+    public static final Query ORDER_STATUS_OWN = define("order.status.own",
+            "SELECT status FROM orders WHERE id=? AND user_id=?");
+    public static final Query ORDER_CAS = define("order.cas",
+            "UPDATE orders SET status=? WHERE id=? AND status=?");
+    public static final Query ORDER_HISTORY = define("order.history",
+            "INSERT INTO order_status_history (order_id, from_status, to_status) VALUES (?,?,?)");
+    public static final Query ORDERS_RECENT = define("orders.recent",
+            "SELECT id, total, status, created_at FROM orders WHERE user_id=? ORDER BY created_at DESC LIMIT ?");
+    public static final Query ORDERS_CHANGED = define("orders.changes",
+            "SELECT o.id, u.name, o.total, o.status, o.created_at, o.updated_at FROM orders o JOIN users u ON o.user_id=u.id"
+            + " WHERE o.updated_at >= ? ORDER BY o.updated_at LIMIT ?");
+
+    private Queries() {}
+
+    private static Query define(String name, String sql) {
+        Query q = new Query(name, sql);
+        ALL.add(q);
+        return q;
+    }
+
+    public static List<Query> all() { return Collections.unmodifiableList(ALL); }
+}
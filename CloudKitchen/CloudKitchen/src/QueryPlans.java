@@ -0,0 +1,144 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// EXPLAINs every query the application runs against the live schema and flags
+// the ones that would read a whole table. Run it after a migration or a new
+// query with `java -cp out Migrations check`.
+//
+// Covers every entry in Queries plus the shapes of the dynamic order queries,
+// including OrderDao's per-order statements (a write's own target row in the
+// plan is not a read and isn't judged).
+// A new Query needs a sample below (or an exemption) or the check fails, so
+// nothing slips in unexplained. A plan is a problem when a table is read with
+// type=ALL and no index could have been used; if an index exists but the
+// optimizer still scans (usual on near-empty dev tables), it is a warning.
+public final class QueryPlans {
+    // query -> the one table it reads in full by design (its joins must still use indexes)
+    private static final Map<String, String> FULL_READS = new HashMap<>();
+
+    private static final Map<String, Object[]> SAMPLES = new HashMap<>();
+
+    static {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        String token = "0000000000000000000000000000000000000000000000000000000000000000";
+        FULL_READS.put(Queries.MENU_LOAD.name, "m");
+        sample(Queries.MENU_LOAD);
+        sample(Queries.USER_LOGIN, "someone@example.com");
+        sample(Queries.USER_REHASH, "x", 1, "y");
+        sample(Queries.SESSION_LOOKUP, token);
+        sample(Queries.SESSION_TOUCH, now, token);
+        sample(Queries.SESSION_REVOKE, token);
+        sample(Queries.SESSION_PURGE, now);
+        sample(Queries.DB_NAME);
+        sample(Queries.DB_NOW);
+        sample(Queries.MENU_UPDATE, "x", 1.0, 1, null, null, 1);
+        sample(Queries.MENU_DELETE, 1);
+        sample(Queries.OPTION_CHOICES_DELETE, 1);
+        sample(Queries.OPTION_GROUPS_DELETE, 1);
+        sample(Queries.ORDER_STATUS, 1);
+        sample(Queries.ORDER_STATUS_OWN, 1, 1);
+        sample(Queries.ORDER_BY_KEY, "00000000-0000-0000-0000-000000000000");
+        sample(Queries.ORDER_BY_REFERENCE, "00000000-0000-0000-0000-000000000000");
+        sample(Queries.ORDER_REJECTION, "00000000-0000-0000-0000-000000000000");
+        sample(Queries.ORDER_CAS, "PREPARING", 1, "PENDING");
+        sample(Queries.ORDERS_RECENT, 1, 20);
+        sample(Queries.ORDERS_CHANGED, now, 500);
+    }
+
+    public static final class Plan {
+        public final String name;
+        public final List<String> rows = new ArrayList<>();
+        public String problem;   // null when the plan is fine
+        public String warning;
+
+        Plan(String name) { this.name = name; }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(problem != null ? "FAIL " : warning != null ? "WARN " : "ok   ").append(name);
+            if (problem != null) sb.append(" - ").append(problem);
+            else if (warning != null) sb.append(" - ").append(warning);
+            for (String r : rows) sb.append("\n       ").append(r);
+            return sb.toString();
+        }
+    }
+
+    private QueryPlans() {}
+
+    private static void sample(Queries.Query q, Object... args) {
+        SAMPLES.put(q.name, args);
+    }
+
+    public static List<Plan> explainAll(Connection conn) throws SQLException {
+        Map<String, Object[]> checks = new LinkedHashMap<>();
+        Map<String, String> sql = new LinkedHashMap<>();
+        List<Plan> out = new ArrayList<>();
+        for (Queries.Query q : Queries.all()) {
+            if (q.sql.startsWith("INSERT")) continue;
+            Object[] args = SAMPLES.get(q.name);
+            if (args == null) {
+                Plan p = new Plan(q.name);
+                p.problem = "no EXPLAIN sample in QueryPlans";
+                out.add(p);
+                continue;
+            }
+            checks.put(q.name, args);
+            sql.put(q.name, q.sql);
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        dynamic(checks, sql, "orders.page", KitchenService.ordersPageSql(false, false, false), 50);
+        dynamic(checks, sql, "orders.page[status]", KitchenService.ordersPageSql(true, false, false), "PENDING", 50);
+        dynamic(checks, sql, "orders.page[since]", KitchenService.ordersPageSql(false, true, false), now, 50);
+        dynamic(checks, sql, "orders.page[status,after]", KitchenService.ordersPageSql(true, false, true),
+                "PENDING", now, now, 1, 50);
+        dynamic(checks, sql, "orders.open", KitchenService.openOrdersSql(-1));
+        dynamic(checks, sql, "orders.open[ids]", KitchenService.openOrdersSql(3), 1, 2, 3);
+        dynamic(checks, sql, "order.prices", OrderDao.pricesSql(3), 1, 2, 3);
+        dynamic(checks, sql, "order.reserve_stock", OrderDao.reserveStockSql(2), 1, 1, 2, 1);
+        dynamic(checks, sql, "order.insert[2]", OrderDao.insertOrdersSql(2), 1, 1.0, "PENDING", null, 1, 1.0, "PENDING", null);
+        dynamic(checks, sql, "order.items.insert[2]", OrderDao.insertItemsSql(2), 1, 1, 1, 1.0, null, 1, 2, 1, 1.0, null);
+
+        for (Map.Entry<String, Object[]> e : checks.entrySet()) {
+            out.add(explain(conn, e.getKey(), sql.get(e.getKey()), FULL_READS.get(e.getKey()), e.getValue()));
+        }
+        return out;
+    }
+
+    private static void dynamic(Map<String, Object[]> checks, Map<String, String> sql, String name, String text, Object... args) {
+        checks.put(name, args);
+        sql.put(name, text);
+    }
+
+    static Plan explain(Connection conn, String name, String sql, String fullRead, Object... args) throws SQLException {
+        Plan plan = new Plan(name);
+        try (PreparedStatement ps = conn.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String table = rs.getString("table");
+                    String selectType = rs.getString("select_type");
+                    String type = rs.getString("type");
+                    String possible = rs.getString("possible_keys");
+                    String key = rs.getString("key");
+                    String extra = rs.getString("Extra");
+                    plan.rows.add(table + " type=" + type + " key=" + key + " rows=" + rs.getString("rows")
+                            + (extra == null ? "" : " (" + extra + ")"));
+                    // derived tables are the query's own VALUES lists, always small
+                    if (!"ALL".equals(type) || table == null || table.startsWith("<") || table.equals(fullRead)) continue;
+                    if ("INSERT".equals(selectType)) continue; // the rows being written, nothing is read
+                    if (possible == null) plan.problem = "full scan of " + table + ", no usable index";
+                    else if (plan.warning == null) plan.warning = "optimizer chose a scan of " + table + " over " + possible;
+                }
+            }
+        }
+        return plan;
+    }
+}
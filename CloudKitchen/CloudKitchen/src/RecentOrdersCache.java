@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Each customer's most recent orders, kept in memory so the "My orders" list
+// (CustomerPanel.refreshOrders) doesn't query the orders table on
+// every refresh. Kept current without re-reading:
+//   - placeOrder() adds the new order to its customer's list (write-through);
+//   - every status event on OrderEventBus, local or from the broker, updates
+//     the order in place; a new order this node didn't place drops its
+//     customer's list so the next read fetches it;
+//   - a resync (the broker link dropped, so events may be lost) empties it.
+// The TTL bounds how stale a list can get if an event is missed.
+//
+// Bounded by customer count with W-TinyLFU admission: newcomers wait in a small
+// LRU window, and a customer leaving the window only displaces the main area's
+// LRU victim if a frequency sketch says it is refreshed more often. A burst of
+// one-off customers can't flush the regulars.
+//
+//   CLOUDKITCHEN_RECENT_ORDERS_CACHE   customers kept (default 10000, 0 = off, up to 10000000)
+//   CLOUDKITCHEN_RECENT_ORDERS_TTL_MS  how long a list is served before it is re-read
+//                                      (default 300000, 1000..86400000)
+public final class RecentOrdersCache {
+    private static RecentOrdersCache shared;
+    private static boolean sharedOpened;
+
+    private static final class Entry {
+        final int userId;
+        List<KitchenService.OrderSummary> orders; // newest first; replaced, never mutated
+        final int depth;          // limit the list was loaded with; it is kept at most this long
+        final boolean complete;   // the customer has no orders beyond these
+        final long expiresAt;
+
+        Entry(int userId, List<KitchenService.OrderSummary> orders, int depth, long expiresAt) {
+            this.userId = userId;
+            this.orders = orders;
+            this.depth = depth;
+            this.complete = orders.size() < depth;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // A status seen recently, laid over lists loaded while it may not have been
+    // visible yet (a load racing the event, or a lagging replica).
+    private static final class Seen {
+        final int userId;
+        final String status;
+        final long at;
+
+        Seen(int userId, String status, long at) {
+            this.userId = userId;
+            this.status = status;
+            this.at = at;
+        }
+    }
+
+    private final int maxWindow;
+    private final int maxMain;
+    private final long ttlMillis;
+    private final long seenMillis;
+    private final FrequencySketch sketch;
+    // access-ordered, eldest first
+    private final LinkedHashMap<Integer, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Integer, Entry> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Integer> ownerOf = new HashMap<>(); // orderId -> userId, cached orders only
+    private final LinkedHashMap<Integer, Seen> seen = new LinkedHashMap<>();
+
+    public RecentOrdersCache(int maxCustomers, long ttlMillis, long seenMillis) {
+        this.maxWindow = Math.max(1, maxCustomers / 100);
+        this.maxMain = Math.max(1, maxCustomers - maxWindow);
+        this.ttlMillis = ttlMillis;
+        this.seenMillis = seenMillis;
+        this.sketch = new FrequencySketch(maxCustomers);
+    }
+
+    // The process-wide cache, subscribed to order events; null when turned off.
+    public static synchronized RecentOrdersCache shared() {
+        if (sharedOpened) return shared;
+        int max = DBUtil.intEnv("CLOUDKITCHEN_RECENT_ORDERS_CACHE", 10_000, 0, 10_000_000);
+        if (max > 0) {
+            long ttl = DBUtil.intEnv("CLOUDKITCHEN_RECENT_ORDERS_TTL_MS", 300_000, 1_000, 86_400_000);
+            // a replica may serve a load up to the stickiness window behind
+            shared = new RecentOrdersCache(max, ttl, DBUtil.stickyMillis());
+            OrderEventBus.get().subscribeAll(new OrderEventBus.Listener() {
+                @Override public void onEvent(OrderEventBus.OrderEvent e) { shared.onStatus(e.orderId, e.userId, e.status); }
+                @Override public void onResync() { shared.clear(); }
+            });
+        }
+        sharedOpened = true;
+        return shared;
+    }
+
+    // The newest 'limit' orders, or null if they have to be read.
+    public synchronized List<KitchenService.OrderSummary> get(int userId, int limit) {
+        sketch.increment(userId);
+        Entry e = window.get(userId);
+        if (e == null) e = main.get(userId);
+        if (e == null || (limit > e.orders.size() && !e.complete)) {
+            Metrics.increment("orders.recent.miss");
+            return null;
+        }
+        if (System.currentTimeMillis() >= e.expiresAt) {
+            remove(userId);
+            Metrics.increment("orders.recent.expired");
+            return null;
+        }
+        Metrics.increment("orders.recent.hit");
+        return new ArrayList<>(e.orders.subList(0, Math.min(limit, e.orders.size())));
+    }
+
+    // Stores what a miss read (newest 'limit' orders) and returns it with any
+    // status seen since laid over it. Not stored if it lacks an order this
+    // node has already heard of; the next read tries again.
+    public synchronized List<KitchenService.OrderSummary> fill(int userId, int limit, List<KitchenService.OrderSummary> read) {
+        pruneSeen(System.currentTimeMillis());
+        List<KitchenService.OrderSummary> orders = new ArrayList<>(read.size());
+        Set<Integer> ids = new HashSet<>();
+        for (KitchenService.OrderSummary o : read) {
+            Seen s = seen.get(o.id);
+            orders.add(s == null || s.status.equals(o.status) ? o : o.withStatus(s.status));
+            ids.add(o.id);
+        }
+        boolean missing = false;
+        for (Map.Entry<Integer, Seen> s : seen.entrySet()) {
+            if (s.getValue().userId == userId && !ids.contains(s.getKey())) {
+                missing = true;
+                break;
+            }
+        }
+        if (!missing) {
+            remove(userId);
+            admit(new Entry(userId, Collections.unmodifiableList(orders), limit, System.currentTimeMillis() + ttlMillis));
+        }
+        return new ArrayList<>(orders);
+    }
+
+    // Write-through for an order this node just stored.
+    public synchronized void placed(int userId, KitchenService.OrderSummary order) {
+        Entry e = window.get(userId);
+        if (e == null) e = main.get(userId);
+        if (e == null) return; // not cached: the next read loads it with the rest
+        List<KitchenService.OrderSummary> orders = new ArrayList<>(e.orders.size() + 1);
+        orders.add(order);
+        orders.addAll(e.orders);
+        if (orders.size() > e.depth) {
+            ownerOf.remove(orders.remove(orders.size() - 1).id);
+        }
+        e.orders = Collections.unmodifiableList(orders);
+        ownerOf.put(order.id, userId);
+    }
+
+    // An order status event. userId is -1 when the publisher didn't know it.
+    synchronized void onStatus(int orderId, int userId, String status) {
+        long now = System.currentTimeMillis();
+        Integer owner = ownerOf.get(orderId);
+        seen.remove(orderId);
+        seen.put(orderId, new Seen(owner != null ? owner : userId, status, now));
+        pruneSeen(now);
+        if (owner == null) {
+            // an order placed elsewhere (or flushed from the journal): this list no longer has the newest
+            if (userId >= 0) remove(userId);
+            return;
+        }
+        Entry e = window.get(owner);
+        if (e == null) e = main.get(owner);
+        if (e == null) return;
+        List<KitchenService.OrderSummary> orders = new ArrayList<>(e.orders);
+        for (int i = 0; i < orders.size(); i++) {
+            if (orders.get(i).id == orderId && !orders.get(i).status.equals(status)) {
+                orders.set(i, orders.get(i).withStatus(status));
+                e.orders = Collections.unmodifiableList(orders);
+                break;
+            }
+        }
+    }
+
+    // Drops every list; the frequency sketch is kept, it is only a hint.
+    public synchronized void clear() {
+        window.clear();
+        main.clear();
+        ownerOf.clear();
+        seen.clear();
+        Metrics.increment("orders.recent.cleared");
+    }
+
+    public synchronized int size() { return window.size() + main.size(); }
+
+    // --- W-TinyLFU ---
+
+    private void admit(Entry e) {
+        window.put(e.userId, e);
+        index(e, true);
+        if (window.size() <= maxWindow) return;
+        Iterator<Entry> it = window.values().iterator();
+        Entry candidate = it.next();
+        it.remove();
+        if (main.size() < maxMain) {
+            main.put(candidate.userId, candidate);
+            return;
+        }
+        Iterator<Entry> mit = main.values().iterator();
+        Entry victim = mit.next();
+        if (sketch.frequency(candidate.userId) > sketch.frequency(victim.userId)) {
+            mit.remove();
+            index(victim, false);
+            main.put(candidate.userId, candidate);
+        } else {
+            index(candidate, false);
+        }
+        Metrics.increment("orders.recent.evicted");
+    }
+
+    private void remove(int userId) {
+        Entry e = window.remove(userId);
+        if (e == null) e = main.remove(userId);
+        if (e != null) index(e, false);
+    }
+
+    private void index(Entry e, boolean add) {
+        for (KitchenService.OrderSummary o : e.orders) {
+            if (add) ownerOf.put(o.id, e.userId);
+            else ownerOf.remove(o.id);
+        }
+    }
+
+    private void pruneSeen(long now) {
+        for (Iterator<Seen> it = seen.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().at < seenMillis) break;
+            it.remove();
+        }
+    }
+
+    // Count-min sketch of how often each customer's list is asked for: four
+    // rows of 4-bit counters. Counts are halved every 10 x capacity increments
+    // so the sketch follows who is active now rather than all-time totals.
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+        private final long[] table;
+        private final int mask;
+        private final int resetAt;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity) - 1) << 3; // ~4 counters per customer per row
+            table = new long[SEEDS.length * width / 16];
+            mask = width - 1;
+            resetAt = Math.max(10, capacity * 10);
+        }
+
+        void increment(int key) {
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int slot = slot(row, key);
+                int shift = (slot & 15) << 2;
+                long word = table[slot >>> 4];
+                if (((word >>> shift) & 0xF) < 15) {
+                    table[slot >>> 4] = word + (1L << shift);
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetAt) halve();
+        }
+
+        int frequency(int key) {
+            int min = 15;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int slot = slot(row, key);
+                min = Math.min(min, (int) ((table[slot >>> 4] >>> ((slot & 15) << 2)) & 0xF));
+            }
+            return min;
+        }
+
+        private int slot(int row, int key) {
+            long h = (key + SEEDS[row]) * SEEDS[(row + 1) & 3];
+            h ^= h >>> 29;
+            return row * (mask + 1) + (int) (h & mask);
+        }
+
+        private void halve() {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            additions /= 2;
+        }
+    }
+}
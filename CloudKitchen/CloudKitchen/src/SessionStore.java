@@ -0,0 +1,173 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Login sessions. A token is 32 random bytes handed to the client once; only
+// its SHA-256 is stored, in memory and in user_sessions, so a leaked table
+// can't be replayed. Lookups are served from the in-memory map, and the table
+// lets a session outlive an app restart (MainApp keeps the token in user prefs
+// when "Remember me" is ticked; the HTTP API hands it to the client).
+//
+// Expiry slides: a session used in the second half of its lifetime is pushed
+// out to a full TTL again (CLOUDKITCHEN_SESSION_TTL_MIN, default 7 days, at most a year).
+//
+// A cached session is checked against the table again once it is older than
+// CLOUDKITCHEN_SESSION_RECHECK_S (default 30), so a logout on another terminal
+// or HTTP node takes effect here within that interval.
+// Table: user_sessions (Migrations v7).
+public final class SessionStore {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final long PURGE_INTERVAL_MS = 10 * 60_000L;
+
+    static final class Session {
+        final int userId;
+        final String role;
+        volatile long expiresAt;
+        final long loadedAt;
+
+        Session(int userId, String role, long expiresAt, long loadedAt) {
+            this.userId = userId;
+            this.role = role;
+            this.expiresAt = expiresAt;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final long ttlMillis;
+    private final long recheckMillis;
+    private final Map<String, Session> byHash = new ConcurrentHashMap<>();
+    private volatile long nextPurge = System.currentTimeMillis() + PURGE_INTERVAL_MS;
+
+    public SessionStore(long ttlMillis, long recheckMillis) {
+        this.ttlMillis = ttlMillis;
+        this.recheckMillis = recheckMillis;
+    }
+
+    public static SessionStore fromEnv() {
+        long minutes = DBUtil.intEnv("CLOUDKITCHEN_SESSION_TTL_MIN", 7 * 24 * 60, 1, 365 * 24 * 60);
+        return new SessionStore(minutes * 60_000L, DBUtil.intEnv("CLOUDKITCHEN_SESSION_RECHECK_S", 30, 0, 3600) * 1000L);
+    }
+
+    // Opens a session and returns its token.
+    public String create(int userId, String role) throws SQLException {
+        byte[] raw = new byte[32];
+        RANDOM.nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        String hash = hash(token);
+        long expires = System.currentTimeMillis() + ttlMillis;
+        Metrics.timeSql(Queries.SESSION_CREATE.name, () -> {
+            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = Queries.SESSION_CREATE.prepare(conn)) {
+                ps.setString(1, hash);
+                ps.setInt(2, userId);
+                ps.setTimestamp(3, new Timestamp(expires));
+                ps.executeUpdate();
+            }
+            return null;
+        });
+        byHash.put(hash, new Session(userId, role, expires, System.currentTimeMillis()));
+        purgeIfDue();
+        return token;
+    }
+
+    // The live session for a token, or null if it is unknown, revoked or expired.
+    public Session resume(String token) throws SQLException {
+        if (token == null || token.isEmpty()) return null;
+        String hash = hash(token);
+        long now = System.currentTimeMillis();
+        Session s = byHash.get(hash);
+        if (s == null || now - s.loadedAt >= recheckMillis) {
+            // unknown here, or cached long enough that it may have been revoked elsewhere
+            Session fresh = load(hash);
+            if (fresh == null) {
+                if (s != null) byHash.remove(hash, s);
+                return null;
+            }
+            s = fresh;
+            byHash.put(hash, s);
+        }
+        if (s.expiresAt <= now) {
+            byHash.remove(hash, s);
+            return null;
+        }
+        if (s.expiresAt - now < ttlMillis / 2) extend(hash, s, now + ttlMillis);
+        return s;
+    }
+
+    public void revoke(String token) throws SQLException {
+        if (token == null || token.isEmpty()) return;
+        String hash = hash(token);
+        byHash.remove(hash);
+        Metrics.timeSql(Queries.SESSION_REVOKE.name, () -> {
+            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = Queries.SESSION_REVOKE.prepare(conn)) {
+                ps.setString(1, hash);
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    public int size() { return byHash.size(); }
+
+    private Session load(String hash) throws SQLException {
+        return Metrics.timeSql(Queries.SESSION_LOOKUP.name, () -> {
+            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = Queries.SESSION_LOOKUP.prepare(conn)) {
+                ps.setString(1, hash);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    return new Session(rs.getInt("user_id"), rs.getString("role"), rs.getTimestamp("expires_at").getTime(),
+                            System.currentTimeMillis());
+                }
+            }
+        });
+    }
+
+    private void extend(String hash, Session s, long expires) throws SQLException {
+        s.expiresAt = expires;
+        Metrics.timeSql(Queries.SESSION_TOUCH.name, () -> {
+            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = Queries.SESSION_TOUCH.prepare(conn)) {
+                ps.setTimestamp(1, new Timestamp(expires));
+                ps.setString(2, hash);
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // Drops expired sessions from memory and the table, at most once per interval.
+    private void purgeIfDue() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now < nextPurge) return;
+        nextPurge = now + PURGE_INTERVAL_MS;
+        for (Iterator<Session> it = byHash.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAt <= now) it.remove();
+        }
+        Metrics.timeSql(Queries.SESSION_PURGE.name, () -> {
+            try (Connection conn = DBUtil.getConnection(); PreparedStatement ps = Queries.SESSION_PURGE.prepare(conn)) {
+                ps.setTimestamp(1, new Timestamp(now));
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    static String hash(String token) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : d) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}